@@ -0,0 +1,91 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.consul.benchmarks;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.health.HealthCheckRegistry;
+import com.orbitz.consul.Consul;
+import com.smoketurner.dropwizard.consul.ConsulFactory;
+import com.smoketurner.dropwizard.consul.core.ConsulAdvertiser;
+import com.smoketurner.dropwizard.consul.testing.FakeConsulServer;
+import io.dropwizard.Configuration;
+import io.dropwizard.jackson.Jackson;
+import io.dropwizard.jersey.validation.Validators;
+import io.dropwizard.setup.Environment;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Measures registering a service with the Consul agent. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConsulAdvertiserBenchmark {
+
+  private FakeConsulServer server;
+  private Consul consul;
+  private ConsulAdvertiser advertiser;
+
+  @Setup
+  public void setUp() throws IOException {
+    server = new FakeConsulServer();
+    consul = server.newClient();
+
+    final Environment environment =
+        new Environment(
+            "benchmark",
+            Jackson.newObjectMapper(),
+            Validators.newValidatorFactory(),
+            new MetricRegistry(),
+            ClassLoader.getSystemClassLoader(),
+            new HealthCheckRegistry(),
+            new Configuration());
+
+    final ConsulFactory factory = new ConsulFactory();
+    factory.setServiceName("benchmark");
+    advertiser = new ConsulAdvertiser(environment, factory, consul, "benchmark-1");
+  }
+
+  @Setup(Level.Invocation)
+  public void deregister() {
+    server.clearServices();
+  }
+
+  @TearDown
+  public void tearDown() {
+    consul.destroy();
+    server.close();
+  }
+
+  @Benchmark
+  public boolean register() {
+    return advertiser.register("http", 8080, 8081);
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.consul.benchmarks;
+
+import com.orbitz.consul.Consul;
+import com.smoketurner.dropwizard.consul.config.ConsulLookup;
+import com.smoketurner.dropwizard.consul.config.ConsulSubstitutor;
+import com.smoketurner.dropwizard.consul.testing.FakeConsulServer;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures resolving configuration variables from the Consul KV store, for a single key and for a
+ * YAML configuration file with many substitutions. A lookup remembers the values it resolved, so
+ * each invocation uses a new lookup to query Consul, except for the benchmark of a repeated key.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConsulLookupBenchmark {
+
+  @Param({"100", "1000"})
+  public int variables;
+
+  private FakeConsulServer server;
+  private Consul consul;
+  private ConsulLookup lookup;
+  private String yaml;
+
+  @Setup
+  public void setUp() throws IOException {
+    server = new FakeConsulServer();
+    final StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < variables; i++) {
+      server.putValue("benchmark/key-" + i, "value-" + i);
+      builder.append("key").append(i).append(": ${benchmark/key-").append(i).append("}\n");
+    }
+    yaml = builder.toString();
+    consul = server.newClient();
+    lookup = new ConsulLookup(consul);
+  }
+
+  @TearDown
+  public void tearDown() {
+    consul.destroy();
+    server.close();
+  }
+
+  @Benchmark
+  public String lookup() {
+    return new ConsulLookup(consul).lookup("benchmark/key-0");
+  }
+
+  @Benchmark
+  public String repeatedLookup() {
+    return lookup.lookup("benchmark/key-0");
+  }
+
+  @Benchmark
+  public String substitute() {
+    return new ConsulSubstitutor(consul).replace(yaml);
+  }
+}
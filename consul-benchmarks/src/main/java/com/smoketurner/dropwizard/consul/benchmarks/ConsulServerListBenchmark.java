@@ -0,0 +1,108 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.consul.benchmarks;
+
+import com.netflix.loadbalancer.Server;
+import com.orbitz.consul.Consul;
+import com.orbitz.consul.model.health.ServiceHealth;
+import com.smoketurner.dropwizard.consul.ribbon.ConsulServerList;
+import com.smoketurner.dropwizard.consul.ribbon.HealthyConsulServiceDiscoverer;
+import com.smoketurner.dropwizard.consul.testing.FakeConsulServer;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures refreshing a {@link ConsulServerList}, both converting an already discovered list of
+ * instances into servers and the full round trip through the health endpoint. The unchanged path
+ * reuses the previous list, while the changed path replaces one instance on every refresh and
+ * reports the difference to a listener.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConsulServerListBenchmark {
+
+  private static final String SERVICE = "benchmark";
+
+  @Param({"10", "1000"})
+  public int instances;
+
+  private FakeConsulServer server;
+  private Consul consul;
+  private ConsulServerList discovered;
+  private ConsulServerList remote;
+  private ConsulServerList changing;
+  private boolean flip;
+
+  @Setup
+  public void setUp() throws IOException {
+    server = new FakeConsulServer();
+    for (int i = 0; i < instances; i++) {
+      server.addService(SERVICE, SERVICE + "-" + i, "10.0." + (i / 256) + "." + (i % 256), 8080);
+    }
+    consul = server.newClient();
+
+    final HealthyConsulServiceDiscoverer discoverer = new HealthyConsulServiceDiscoverer(SERVICE);
+    final Collection<ServiceHealth> snapshot = discoverer.discover(consul);
+    discovered = new ConsulServerList(consul, c -> snapshot);
+    remote = new ConsulServerList(consul, discoverer);
+
+    // the same instances, with the last one replaced by a new instance
+    server.removeService(SERVICE + "-" + (instances - 1));
+    server.addService(SERVICE, SERVICE + "-replacement", "10.1.0.0", 8080);
+    final Collection<ServiceHealth> changed = discoverer.discover(consul);
+    changing = new ConsulServerList(consul, c -> (flip = !flip) ? changed : snapshot);
+    changing.addListener((added, removed) -> {});
+  }
+
+  @TearDown
+  public void tearDown() {
+    consul.destroy();
+    server.close();
+  }
+
+  @Benchmark
+  public List<Server> buildServerList() {
+    return discovered.getUpdatedListOfServers();
+  }
+
+  @Benchmark
+  public List<Server> buildChangedServerList() {
+    return changing.getUpdatedListOfServers();
+  }
+
+  @Benchmark
+  public List<Server> discoverAndBuildServerList() {
+    return remote.getUpdatedListOfServers();
+  }
+}
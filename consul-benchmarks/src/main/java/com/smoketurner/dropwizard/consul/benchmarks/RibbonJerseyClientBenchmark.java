@@ -0,0 +1,138 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.consul.benchmarks;
+
+import com.netflix.loadbalancer.LoadBalancerBuilder;
+import com.netflix.loadbalancer.RoundRobinRule;
+import com.netflix.loadbalancer.Server;
+import com.netflix.loadbalancer.ServerList;
+import com.netflix.loadbalancer.ZoneAwareLoadBalancer;
+import com.smoketurner.dropwizard.consul.ribbon.RibbonJerseyClient;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.UriBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures choosing a server and building a {@link WebTarget} with {@link RibbonJerseyClient}. Run
+ * with {@code -prof gc} to compare allocations per call against the previous implementation, which
+ * rebuilt the URI of every request with a {@link UriBuilder}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RibbonJerseyClientBenchmark {
+
+  @Param({"3", "100"})
+  public int servers;
+
+  private Client delegate;
+  private ZoneAwareLoadBalancer<Server> loadBalancer;
+  private RibbonJerseyClient client;
+
+  @Setup
+  public void setUp() {
+    final List<Server> list = new ArrayList<>(servers);
+    for (int i = 0; i < servers; i++) {
+      final Server server = new Server("http", "10.0.0." + i, 8080);
+      server.setReadyToServe(true);
+      list.add(server);
+    }
+
+    loadBalancer =
+        LoadBalancerBuilder.<Server>newBuilder()
+            .withRule(new RoundRobinRule())
+            .withDynamicServerList(new FixedServerList(list))
+            .buildDynamicServerListLoadBalancer();
+    delegate = ClientBuilder.newClient();
+    client = new RibbonJerseyClient(loadBalancer, delegate);
+  }
+
+  @TearDown
+  public void tearDown() {
+    client.close();
+  }
+
+  @Benchmark
+  public WebTarget targetPath() {
+    return client.target("/hello-world");
+  }
+
+  @Benchmark
+  @Threads(8)
+  public WebTarget targetPathContended() {
+    return client.target("/hello-world");
+  }
+
+  @Benchmark
+  public WebTarget targetUri() {
+    return client.target("http://hello-world/hello-world?name=test");
+  }
+
+  @Benchmark
+  @Threads(8)
+  public WebTarget targetUriContended() {
+    return client.target("http://hello-world/hello-world?name=test");
+  }
+
+  /** The implementation of {@link RibbonJerseyClient#target(String)} before targets were cached. */
+  @Benchmark
+  public WebTarget targetPathUncached() {
+    final Server server = loadBalancer.chooseServer();
+    final UriBuilder builder = UriBuilder.fromUri("/hello-world");
+    builder.scheme(server.getScheme());
+    builder.host(server.getHost());
+    builder.port(server.getPort());
+    return delegate.target(builder);
+  }
+
+  static final class FixedServerList implements ServerList<Server> {
+    private final List<Server> servers;
+
+    FixedServerList(final List<Server> servers) {
+      this.servers = servers;
+    }
+
+    @Override
+    public List<Server> getInitialListOfServers() {
+      return servers;
+    }
+
+    @Override
+    public List<Server> getUpdatedListOfServers() {
+      return servers;
+    }
+  }
+}
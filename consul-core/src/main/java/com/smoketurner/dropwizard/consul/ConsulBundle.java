@@ -21,11 +21,17 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.net.HostAndPort;
 import com.orbitz.consul.Consul;
 import com.orbitz.consul.ConsulException;
+import com.smoketurner.dropwizard.consul.config.ConsulKeyWatcher;
+import com.smoketurner.dropwizard.consul.config.ConsulLookup;
 import com.smoketurner.dropwizard.consul.config.ConsulSubstitutor;
 import com.smoketurner.dropwizard.consul.core.ConsulAdvertiser;
 import com.smoketurner.dropwizard.consul.core.ConsulServiceListener;
+import com.smoketurner.dropwizard.consul.health.CachedHealthCheckServlet;
 import com.smoketurner.dropwizard.consul.health.ConsulHealthCheck;
+import com.smoketurner.dropwizard.consul.health.ConsulTtlCheck;
+import com.smoketurner.dropwizard.consul.health.HealthCheckCache;
 import com.smoketurner.dropwizard.consul.managed.ConsulAdvertiserManager;
+import com.smoketurner.dropwizard.consul.snapshot.ConsulSnapshotStore;
 import com.smoketurner.dropwizard.consul.task.MaintenanceTask;
 import io.dropwizard.Configuration;
 import io.dropwizard.ConfiguredBundle;
@@ -33,11 +39,15 @@ import io.dropwizard.configuration.SubstitutingSourceProvider;
 import io.dropwizard.setup.Bootstrap;
 import io.dropwizard.setup.Environment;
 import io.dropwizard.util.Duration;
+import java.nio.file.Path;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -59,6 +69,11 @@ public abstract class ConsulBundle<C extends Configuration>
   private final boolean strict;
   private final boolean substitutionInVariables;
 
+  @Nullable private ConsulSubstitutor substitutor;
+  @Nullable private ConsulKeyWatcher keyWatcher;
+  @Nullable private ConsulSnapshotStore snapshotStore;
+  @Nullable private ConsulServiceListener serviceListener;
+
   /**
    * Constructor
    *
@@ -116,11 +131,32 @@ public abstract class ConsulBundle<C extends Configuration>
                     .withHeaders(ImmutableMap.of(CONSUL_AUTH_HEADER_KEY, token));
               });
 
+      snapshotStore = getSnapshotPath().map(ConsulSnapshotStore::new).orElse(null);
+
+      Consul consul;
+      try {
+        consul = builder.build();
+      } catch (ConsulException e) {
+        if (snapshotStore == null) {
+          throw e;
+        }
+        LOGGER.warn(
+            "Unable to query Consul running on {}:{}, using snapshot {}",
+            getConsulAgentHost(),
+            getConsulAgentPort(),
+            snapshotStore.getPath(),
+            e);
+        consul = builder.withPing(false).build();
+      }
+
       // using Consul as a configuration substitution provider
+      final ConsulLookup lookup =
+          new ConsulLookup(
+              consul, strict, getLookupParallelism(), Optional.ofNullable(snapshotStore));
+      substitutor =
+          new ConsulSubstitutor(lookup, strict, substitutionInVariables, isPrefetchEnabled());
       bootstrap.setConfigurationSourceProvider(
-          new SubstitutingSourceProvider(
-              bootstrap.getConfigurationSourceProvider(),
-              new ConsulSubstitutor(builder.build(), strict, substitutionInVariables)));
+          new SubstitutingSourceProvider(bootstrap.getConfigurationSourceProvider(), substitutor));
 
     } catch (ConsulException e) {
       LOGGER.warn(
@@ -151,28 +187,203 @@ public abstract class ConsulBundle<C extends Configuration>
   protected void setupEnvironment(ConsulFactory consulConfig, Environment environment) {
 
     final Consul consul = consulConfig.build();
+
+    // Serve cached health check results to the agent instead of running every health check
+    final Optional<HealthCheckCache> healthCheckCache =
+        consulConfig
+            .getHealthCheckCacheInterval()
+            .map(
+                interval -> {
+                  final HealthCheckCache cache =
+                      new HealthCheckCache(
+                          environment.healthChecks(),
+                          environment.getObjectMapper(),
+                          interval,
+                          consulConfig.getHealthCheckTimeout());
+                  environment.lifecycle().manage(cache);
+                  environment
+                      .admin()
+                      .addServlet("consul-healthcheck", new CachedHealthCheckServlet(cache))
+                      .addMapping("/" + CachedHealthCheckServlet.PATH);
+                  if (!consulConfig.getHealthCheckPath().isPresent()) {
+                    consulConfig.setHealthCheckPath(CachedHealthCheckServlet.PATH);
+                  }
+                  return cache;
+                });
+
     final String serviceId = consulConfig.getServiceId().orElse(UUID.randomUUID().toString());
     final ConsulAdvertiser advertiser =
         new ConsulAdvertiser(environment, consulConfig, consul, serviceId);
+    advertiser.registerMetrics(environment.metrics());
+
+    // Publish the metrics of the configuration lookups made during bootstrap
+    if (substitutor != null) {
+      substitutor.getLookup().registerMetrics(environment.metrics());
+    }
 
     final Optional<Duration> retryInterval = consulConfig.getRetryInterval();
-    final Optional<ScheduledExecutorService> scheduler =
-        retryInterval.map(i -> Executors.newScheduledThreadPool(1));
+    final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
 
-    // Register a Jetty listener to get the listening host and port
-    environment
-        .lifecycle()
-        .addServerLifecycleListener(
-            new ConsulServiceListener(advertiser, retryInterval, scheduler));
+    // Register a Jetty listener to get the listening host and port, registering in the background
+    final ConsulServiceListener listener =
+        new ConsulServiceListener(
+            advertiser,
+            retryInterval,
+            Optional.of(scheduler),
+            consulConfig.getMaxRetryInterval(),
+            consulConfig.getRegistrationAttempts());
+    environment.lifecycle().addServerLifecycleListener(listener);
+    serviceListener = listener;
 
-    // Register a ping healthcheck to the Consul agent
-    environment.healthChecks().register("consul", new ConsulHealthCheck(consul));
+    // In TTL mode, push the cached status of the health checks to the agent once registered, on a
+    // scheduler of its own so that slow reconciliations or registration retries cannot delay it
+    final Optional<ConsulTtlCheck> ttlCheck;
+    if (consulConfig.getCheckMode() == ConsulFactory.CheckMode.TTL) {
+      final HealthCheckCache cache =
+          healthCheckCache.orElseGet(
+              () -> {
+                final HealthCheckCache checkCache =
+                    new HealthCheckCache(
+                        environment.healthChecks(),
+                        environment.getObjectMapper(),
+                        consulConfig.getCheckInterval(),
+                        consulConfig.getHealthCheckTimeout());
+                environment.lifecycle().manage(checkCache);
+                return checkCache;
+              });
+      final ConsulTtlCheck check =
+          new ConsulTtlCheck(
+              consul,
+              cache,
+              advertiser.getCheckId(),
+              consulConfig.getCheckTtl(),
+              consulConfig.getNonCriticalHealthChecks());
+      check.registerMetrics(environment.metrics());
+      final ScheduledExecutorService ttlScheduler =
+          environment.lifecycle().scheduledExecutorService("consul-ttl-check-%d", true).build();
+      final long interval = consulConfig.getCheckInterval().toMilliseconds();
+      // a registration that was given up may still be made by the reconciliation
+      listener
+          .getRegistration()
+          .whenComplete(
+              (registered, error) -> {
+                if (error == null || consulConfig.getReconcileInterval().isPresent()) {
+                  ttlScheduler.scheduleWithFixedDelay(check, 0, interval, TimeUnit.MILLISECONDS);
+                }
+              });
+      ttlCheck = Optional.of(check);
+    } else {
+      ttlCheck = Optional.empty();
+    }
+
+    // Once registered, or once registration was given up, periodically make sure the agent has the
+    // service registered
+    consulConfig
+        .getReconcileInterval()
+        .ifPresent(
+            interval ->
+                listener
+                    .getRegistration()
+                    .whenComplete(
+                        (registered, error) ->
+                            scheduler.scheduleWithFixedDelay(
+                                () -> reconcile(advertiser, ttlCheck),
+                                interval.toMilliseconds(),
+                                interval.toMilliseconds(),
+                                TimeUnit.MILLISECONDS)));
+
+    // Register a ping healthcheck to the Consul agent, pinging in the background when configured
+    final ConsulHealthCheck healthCheck =
+        consulConfig
+            .getPingInterval()
+            .map(
+                interval ->
+                    new ConsulHealthCheck(
+                        consul,
+                        environment.metrics(),
+                        interval,
+                        consulConfig.getPingTimeout(),
+                        consulConfig.getPingFailureThreshold()))
+            .orElseGet(() -> new ConsulHealthCheck(consul));
+    environment.healthChecks().register("consul", healthCheck);
+    environment.lifecycle().manage(healthCheck);
 
     // Register a shutdown manager to deregister the service
-    environment.lifecycle().manage(new ConsulAdvertiserManager(advertiser, scheduler));
+    environment.lifecycle().manage(new ConsulAdvertiserManager(advertiser, Optional.of(scheduler)));
 
     // Add an administrative task to toggle maintenance mode
-    environment.admin().addTask(new MaintenanceTask(consul, serviceId));
+    final MaintenanceTask maintenanceTask = new MaintenanceTask(consul, serviceId);
+    maintenanceTask.registerMetrics(environment.metrics());
+    environment.admin().addTask(maintenanceTask);
+
+    // Watch the keys used in the configuration for changes
+    if (consulConfig.isWatchKeys() && substitutor != null) {
+      keyWatcher =
+          new ConsulKeyWatcher(
+              consul,
+              substitutor.getLookup().getResolvedValues(),
+              consulConfig.getKeyWatchTimeout());
+      environment.lifecycle().manage(keyWatcher);
+
+      // keep the snapshot up to date with the watched values
+      if (snapshotStore != null) {
+        final ConsulSnapshotStore store = snapshotStore;
+        for (String key : keyWatcher.getKeys()) {
+          keyWatcher.addListener(key, event -> store.putValue(key, event.getCurrent()));
+        }
+      }
+    }
+
+    // Write pending snapshot changes on shutdown
+    if (snapshotStore != null) {
+      environment.lifecycle().manage(snapshotStore);
+    }
+  }
+
+  private static void reconcile(
+      final ConsulAdvertiser advertiser, final Optional<ConsulTtlCheck> ttlCheck) {
+    try {
+      if (advertiser.reconcile()) {
+        // a new registration starts critical, so push the current status again
+        ttlCheck.ifPresent(ConsulTtlCheck::reset);
+      }
+    } catch (ConsulException e) {
+      LOGGER.warn("Unable to reconcile service registration with Consul", e);
+    }
+  }
+
+  /**
+   * Return a future that completes once the service has been registered with Consul, for example to
+   * gate readiness on it. Only available after {@link #run(Configuration, Environment)} if the
+   * bundle is enabled.
+   *
+   * @return registration future, if the bundle is enabled
+   * @see ConsulServiceListener#getRegistration()
+   */
+  public Optional<CompletableFuture<Boolean>> getRegistration() {
+    return Optional.ofNullable(serviceListener).map(ConsulServiceListener::getRegistration);
+  }
+
+  /**
+   * Return the local snapshot of Consul KV values and service instances, to share it with other
+   * components such as the Ribbon load balancer. Only available if {@link #getSnapshotPath()}
+   * returns a path.
+   *
+   * @return snapshot store, if enabled
+   */
+  public Optional<ConsulSnapshotStore> getSnapshotStore() {
+    return Optional.ofNullable(snapshotStore);
+  }
+
+  /**
+   * Return the watcher of the Consul KV keys referenced by the configuration, to listen for changes
+   * of their values. Only available after {@link #run(Configuration, Environment)} if {@code
+   * watchKeys} is enabled.
+   *
+   * @return key watcher, if enabled
+   */
+  public Optional<ConsulKeyWatcher> getKeyWatcher() {
+    return Optional.ofNullable(keyWatcher);
   }
 
   /**
@@ -197,6 +408,40 @@ public abstract class ConsulBundle<C extends Configuration>
     return Consul.DEFAULT_HTTP_PORT;
   }
 
+  /**
+   * Override as necessary to fetch all keys referenced by the configuration in bulk, with one
+   * recursive request per directory shared by several keys, instead of one request per variable.
+   *
+   * @return By default, false
+   */
+  @VisibleForTesting
+  public boolean isPrefetchEnabled() {
+    return false;
+  }
+
+  /**
+   * Override as necessary to change how many keys are fetched concurrently during configuration
+   * substitution. Use 1 to fetch keys one at a time.
+   *
+   * @return By default, 8
+   */
+  @VisibleForTesting
+  public int getLookupParallelism() {
+    return ConsulLookup.DEFAULT_PARALLELISM;
+  }
+
+  /**
+   * Override as necessary to keep a local snapshot of the Consul KV values used in the
+   * configuration. When Consul cannot be reached during startup, variables are resolved from the
+   * snapshot instead of disabling substitution.
+   *
+   * @return By default, empty (no snapshot)
+   */
+  @VisibleForTesting
+  public Optional<Path> getSnapshotPath() {
+    return Optional.empty();
+  }
+
   /**
    * Override as necessary to provide an alternative ACL Token. This is only required if using
    * Consul KV for configuration variable substitution.
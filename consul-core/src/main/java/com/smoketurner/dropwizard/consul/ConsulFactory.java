@@ -19,22 +19,35 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.net.HostAndPort;
 import com.orbitz.consul.Consul;
 import io.dropwizard.util.Duration;
+import io.dropwizard.validation.MaxDuration;
 import io.dropwizard.validation.MinDuration;
+import io.dropwizard.validation.ValidationMethod;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 import javax.annotation.Nullable;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 import org.apache.commons.net.util.SubnetUtils;
 
 public class ConsulFactory {
   private static final String CONSUL_AUTH_HEADER_KEY = "X-Consul-Token";
 
+  /** How Consul learns about the health of the service */
+  public enum CheckMode {
+    /** Consul polls the health check endpoint of the admin server every check interval */
+    HTTP,
+    /** The bundle runs the health checks itself and pushes their status to Consul */
+    TTL
+  }
+
   @NotNull
   private HostAndPort endpoint =
       HostAndPort.fromParts(Consul.DEFAULT_HTTP_HOST, Consul.DEFAULT_HTTP_PORT);
@@ -57,6 +70,18 @@ public class ConsulFactory {
   @MinDuration(value = 1, unit = TimeUnit.SECONDS)
   private Duration retryInterval;
 
+  @NotNull
+  @MinDuration(value = 1, unit = TimeUnit.SECONDS)
+  private Duration maxRetryInterval = Duration.minutes(1);
+
+  @Nullable
+  @Min(1)
+  private Integer registrationAttempts;
+
+  @Nullable
+  @MinDuration(value = 1, unit = TimeUnit.SECONDS)
+  private Duration reconcileInterval = Duration.seconds(30);
+
   @NotNull
   @MinDuration(value = 1, unit = TimeUnit.SECONDS)
   private Duration checkInterval = Duration.seconds(1);
@@ -65,8 +90,46 @@ public class ConsulFactory {
   @MinDuration(value = 1, unit = TimeUnit.MINUTES)
   private Duration deregisterInterval = Duration.minutes(1);
 
+  @NotNull private CheckMode checkMode = CheckMode.HTTP;
+
+  @NotNull
+  @MinDuration(value = 2, unit = TimeUnit.SECONDS)
+  private Duration checkTtl = Duration.seconds(30);
+
+  @NotNull private Set<String> nonCriticalHealthChecks = ImmutableSet.of();
+
   private Optional<String> healthCheckPath = Optional.empty();
 
+  @Nullable
+  @MinDuration(value = 100, unit = TimeUnit.MILLISECONDS)
+  private Duration healthCheckCacheInterval;
+
+  @NotNull
+  @MinDuration(value = 1, unit = TimeUnit.MILLISECONDS)
+  private Duration healthCheckTimeout = Duration.seconds(5);
+
+  @Nullable
+  @MinDuration(value = 100, unit = TimeUnit.MILLISECONDS)
+  private Duration pingInterval = Duration.seconds(10);
+
+  @NotNull
+  @MinDuration(value = 1, unit = TimeUnit.MILLISECONDS)
+  private Duration pingTimeout = Duration.seconds(2);
+
+  @Min(1)
+  private int pingFailureThreshold = 3;
+
+  @Nullable
+  @MinDuration(value = 1, unit = TimeUnit.SECONDS)
+  private Duration readTimeout;
+
+  private boolean watchKeys = false;
+
+  @NotNull
+  @MinDuration(value = 1, unit = TimeUnit.SECONDS)
+  @MaxDuration(value = 10, unit = TimeUnit.MINUTES)
+  private Duration keyWatchTimeout = Duration.seconds(30);
+
   @JsonProperty
   public boolean isEnabled() {
     return enabled;
@@ -164,6 +227,36 @@ public class ConsulFactory {
     this.retryInterval = interval;
   }
 
+  @JsonProperty
+  public Duration getMaxRetryInterval() {
+    return maxRetryInterval;
+  }
+
+  @JsonProperty
+  public void setMaxRetryInterval(Duration interval) {
+    this.maxRetryInterval = interval;
+  }
+
+  @JsonProperty
+  public Optional<Integer> getRegistrationAttempts() {
+    return Optional.ofNullable(registrationAttempts);
+  }
+
+  @JsonProperty
+  public void setRegistrationAttempts(@Nullable Integer attempts) {
+    this.registrationAttempts = attempts;
+  }
+
+  @JsonProperty
+  public Optional<Duration> getReconcileInterval() {
+    return Optional.ofNullable(reconcileInterval);
+  }
+
+  @JsonProperty
+  public void setReconcileInterval(@Nullable Duration interval) {
+    this.reconcileInterval = interval;
+  }
+
   @JsonProperty
   public Duration getCheckInterval() {
     return checkInterval;
@@ -184,6 +277,86 @@ public class ConsulFactory {
     this.deregisterInterval = interval;
   }
 
+  @JsonProperty
+  public CheckMode getCheckMode() {
+    return checkMode;
+  }
+
+  @JsonProperty
+  public void setCheckMode(CheckMode checkMode) {
+    this.checkMode = checkMode;
+  }
+
+  @JsonProperty
+  public Duration getCheckTtl() {
+    return checkTtl;
+  }
+
+  @JsonProperty
+  public void setCheckTtl(Duration ttl) {
+    this.checkTtl = ttl;
+  }
+
+  @JsonProperty
+  public Set<String> getNonCriticalHealthChecks() {
+    return nonCriticalHealthChecks;
+  }
+
+  @JsonProperty
+  public void setNonCriticalHealthChecks(Set<String> healthChecks) {
+    this.nonCriticalHealthChecks = ImmutableSet.copyOf(healthChecks);
+  }
+
+  @JsonProperty
+  public Optional<Duration> getHealthCheckCacheInterval() {
+    return Optional.ofNullable(healthCheckCacheInterval);
+  }
+
+  @JsonProperty
+  public void setHealthCheckCacheInterval(@Nullable Duration interval) {
+    this.healthCheckCacheInterval = interval;
+  }
+
+  @JsonProperty
+  public Duration getHealthCheckTimeout() {
+    return healthCheckTimeout;
+  }
+
+  @JsonProperty
+  public void setHealthCheckTimeout(Duration timeout) {
+    this.healthCheckTimeout = timeout;
+  }
+
+  @JsonProperty
+  public Optional<Duration> getPingInterval() {
+    return Optional.ofNullable(pingInterval);
+  }
+
+  @JsonProperty
+  public void setPingInterval(@Nullable Duration interval) {
+    this.pingInterval = interval;
+  }
+
+  @JsonProperty
+  public Duration getPingTimeout() {
+    return pingTimeout;
+  }
+
+  @JsonProperty
+  public void setPingTimeout(Duration timeout) {
+    this.pingTimeout = timeout;
+  }
+
+  @JsonProperty
+  public int getPingFailureThreshold() {
+    return pingFailureThreshold;
+  }
+
+  @JsonProperty
+  public void setPingFailureThreshold(int threshold) {
+    this.pingFailureThreshold = threshold;
+  }
+
   @JsonProperty
   public Optional<String> getAclToken() {
     return aclToken;
@@ -240,6 +413,50 @@ public class ConsulFactory {
       this.healthCheckPath = Optional.ofNullable(healthCheckPath);
   }
 
+  @JsonProperty
+  public Optional<Duration> getReadTimeout() {
+    return Optional.ofNullable(readTimeout);
+  }
+
+  @JsonProperty
+  public void setReadTimeout(@Nullable Duration timeout) {
+    this.readTimeout = timeout;
+  }
+
+  @JsonProperty
+  public boolean isWatchKeys() {
+    return watchKeys;
+  }
+
+  @JsonProperty
+  public void setWatchKeys(boolean watchKeys) {
+    this.watchKeys = watchKeys;
+  }
+
+  @JsonProperty
+  public Duration getKeyWatchTimeout() {
+    return keyWatchTimeout;
+  }
+
+  @JsonProperty
+  public void setKeyWatchTimeout(Duration timeout) {
+    this.keyWatchTimeout = timeout;
+  }
+
+  /**
+   * The TTL check is pushed on the first check interval after half of the TTL has elapsed, so the
+   * TTL must leave room for at least two check intervals after that or the check expires between
+   * two pushes.
+   *
+   * @return true if the TTL is long enough for the check interval
+   */
+  @JsonIgnore
+  @ValidationMethod(message = "checkTtl must be at least 4 times checkInterval in TTL mode")
+  public boolean isCheckTtlLongEnough() {
+    return checkMode != CheckMode.TTL
+        || checkTtl.toNanoseconds() >= 4 * checkInterval.toNanoseconds();
+  }
+
   @JsonIgnore
   public Consul build() {
 
@@ -255,6 +472,15 @@ public class ConsulFactory {
           builder.withAclToken(token).withHeaders(ImmutableMap.of(CONSUL_AUTH_HEADER_KEY, token));
         });
 
+    // blocking queries (watches) need a read timeout longer than their wait time
+    if (readTimeout != null) {
+      builder.withReadTimeoutMillis(readTimeout.toMilliseconds());
+    } else if (watchKeys) {
+      // Consul adds up to 1/16th of the wait time as jitter
+      builder.withReadTimeoutMillis(
+          keyWatchTimeout.toMilliseconds() + TimeUnit.SECONDS.toMillis(15));
+    }
+
     return builder.build();
   }
 
@@ -269,11 +495,25 @@ public class ConsulFactory {
         serviceAddress,
         tags,
         retryInterval,
+        maxRetryInterval,
+        registrationAttempts,
+        reconcileInterval,
         checkInterval,
         deregisterInterval,
+        checkMode,
+        checkTtl,
+        nonCriticalHealthChecks,
+        healthCheckCacheInterval,
+        healthCheckTimeout,
+        pingInterval,
+        pingTimeout,
+        pingFailureThreshold,
         aclToken,
         serviceMeta,
-        servicePing);
+        servicePing,
+        readTimeout,
+        watchKeys,
+        keyWatchTimeout);
   }
 
   @Override
@@ -293,11 +533,25 @@ public class ConsulFactory {
         && Objects.equals(this.serviceAddress, other.serviceAddress)
         && Objects.equals(this.tags, other.tags)
         && Objects.equals(this.retryInterval, other.retryInterval)
+        && Objects.equals(this.maxRetryInterval, other.maxRetryInterval)
+        && Objects.equals(this.registrationAttempts, other.registrationAttempts)
+        && Objects.equals(this.reconcileInterval, other.reconcileInterval)
         && Objects.equals(this.checkInterval, other.checkInterval)
         && Objects.equals(this.deregisterInterval, other.deregisterInterval)
+        && Objects.equals(this.checkMode, other.checkMode)
+        && Objects.equals(this.checkTtl, other.checkTtl)
+        && Objects.equals(this.nonCriticalHealthChecks, other.nonCriticalHealthChecks)
+        && Objects.equals(this.healthCheckCacheInterval, other.healthCheckCacheInterval)
+        && Objects.equals(this.healthCheckTimeout, other.healthCheckTimeout)
+        && Objects.equals(this.pingInterval, other.pingInterval)
+        && Objects.equals(this.pingTimeout, other.pingTimeout)
+        && Objects.equals(this.pingFailureThreshold, other.pingFailureThreshold)
         && Objects.equals(this.aclToken, other.aclToken)
         && Objects.equals(this.serviceMeta, other.serviceMeta)
-        && Objects.equals(this.servicePing, other.servicePing);
+        && Objects.equals(this.servicePing, other.servicePing)
+        && Objects.equals(this.readTimeout, other.readTimeout)
+        && Objects.equals(this.watchKeys, other.watchKeys)
+        && Objects.equals(this.keyWatchTimeout, other.keyWatchTimeout);
   }
 
   private static boolean isValidCidrIp(String cidrIp) {
@@ -0,0 +1,306 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.consul.config;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.primitives.Ints;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.orbitz.consul.Consul;
+import com.orbitz.consul.ConsulException;
+import com.orbitz.consul.model.ConsulResponse;
+import com.orbitz.consul.model.kv.Value;
+import com.orbitz.consul.option.ImmutableQueryOptions;
+import com.orbitz.consul.option.QueryOptions;
+import io.dropwizard.lifecycle.Managed;
+import io.dropwizard.util.Duration;
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches keys in Consul KV using blocking queries and notifies listeners when their values change,
+ * so that an application can apply new settings without restarting. Keys are grouped by directory
+ * like {@link ConsulLookup#prefetch(java.util.Collection)} does, and each group is watched with one
+ * recursive blocking query, so watching many keys under the same directory only keeps a single
+ * request open without waking up on changes elsewhere in the store.
+ *
+ * <p>Note: the read timeout of the Consul client must be larger than the watch timeout, otherwise
+ * every blocking query that does not see a change will fail with a socket timeout.
+ */
+public class ConsulKeyWatcher implements Managed {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ConsulKeyWatcher.class);
+  private static final long MIN_BACKOFF_MS = 250;
+  private static final long MAX_BACKOFF_MS = TimeUnit.SECONDS.toMillis(30);
+
+  private final Consul consul;
+  private final int watchSeconds;
+  private final ConcurrentMap<String, Optional<String>> values = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, List<Subscription<?>>> subscriptions =
+      new ConcurrentHashMap<>();
+  private final Set<String> prefixes = ConcurrentHashMap.newKeySet();
+  private final ConcurrentMap<String, String> keyPrefixes = new ConcurrentHashMap<>();
+  private final ExecutorService executor;
+
+  private volatile boolean running = false;
+
+  /**
+   * Constructor
+   *
+   * @param consul Consul client
+   * @param keys Keys to watch, with their last known values
+   * @param watchTimeout Maximum duration of each blocking query
+   */
+  public ConsulKeyWatcher(
+      final Consul consul, final Map<String, Optional<String>> keys, final Duration watchTimeout) {
+    this.consul = Objects.requireNonNull(consul);
+    this.watchSeconds = Math.max(1, Ints.checkedCast(watchTimeout.toSeconds()));
+    this.values.putAll(keys);
+    this.executor =
+        Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setNameFormat("consul-kv-watch-%d").setDaemon(true).build());
+  }
+
+  /**
+   * Return the watched keys
+   *
+   * @return watched keys
+   */
+  public Set<String> getKeys() {
+    return ImmutableSet.copyOf(values.keySet());
+  }
+
+  /**
+   * Return the current value of a watched key
+   *
+   * @param key Key
+   * @return the current value, or empty if the key does not exist or is not watched
+   */
+  public Optional<String> getValue(final String key) {
+    return values.getOrDefault(key, Optional.empty());
+  }
+
+  /**
+   * Return the current value of all watched keys that exist
+   *
+   * @return values by key
+   */
+  public Map<String, String> getValues() {
+    final Map<String, String> current = new HashMap<>();
+    values.forEach((key, value) -> value.ifPresent(v -> current.put(key, v)));
+    return ImmutableMap.copyOf(current);
+  }
+
+  /**
+   * Add a listener that is notified when the value of a key changes. The key is watched if it is
+   * not already.
+   *
+   * @param key Key to watch
+   * @param listener Listener to notify
+   */
+  public void addListener(final String key, final KeyChangeListener<String> listener) {
+    addListener(key, Function.identity(), listener);
+  }
+
+  /**
+   * Add a listener that is notified with the parsed value when the value of a key changes. Values
+   * that cannot be parsed are logged and skipped, so the listener only ever sees valid values. The
+   * key is watched if it is not already.
+   *
+   * @param key Key to watch
+   * @param parser Function parsing the raw value, such as {@code Integer::valueOf}
+   * @param listener Listener to notify
+   * @param <T> Type the value is parsed into
+   */
+  public <T> void addListener(
+      final String key, final Function<String, T> parser, final KeyChangeListener<T> listener) {
+    Objects.requireNonNull(key);
+    if (!values.containsKey(key)) {
+      Optional<String> value = Optional.empty();
+      try {
+        value = consul.keyValueClient().getValueAsString(key);
+      } catch (ConsulException e) {
+        LOGGER.warn("Unable to get current value of key '{}'", key, e);
+      }
+      values.putIfAbsent(key, value);
+    }
+
+    final Subscription<T> subscription = new Subscription<>(key, parser, listener);
+    subscription.initialize(getValue(key));
+    subscriptions.computeIfAbsent(key, k -> new CopyOnWriteArrayList<>()).add(subscription);
+
+    if (running && !keyPrefixes.containsKey(key)) {
+      // a key added later joins a watched prefix covering it, or is watched on its own
+      final String prefix = prefixes.stream().filter(key::startsWith).findFirst().orElse(key);
+      keyPrefixes.put(key, prefix);
+      watch(prefix);
+    }
+  }
+
+  @Override
+  public void start() throws Exception {
+    running = true;
+    ConsulLookup.groupByPrefix(values.keySet())
+        .forEach(
+            (prefix, keys) -> {
+              keys.forEach(key -> keyPrefixes.put(key, prefix));
+              watch(prefix);
+            });
+  }
+
+  @Override
+  public void stop() throws Exception {
+    running = false;
+    executor.shutdownNow();
+  }
+
+  private void watch(final String prefix) {
+    if (prefixes.add(prefix)) {
+      executor.execute(() -> watchPrefix(prefix));
+    }
+  }
+
+  private void watchPrefix(final String prefix) {
+    LOGGER.debug("Watching keys under '{}'", prefix);
+    BigInteger index = BigInteger.ZERO;
+    long backoff = MIN_BACKOFF_MS;
+    while (running) {
+      try {
+        final QueryOptions options =
+            ImmutableQueryOptions.builder()
+                .wait(String.format("%ss", watchSeconds))
+                .index(index)
+                .build();
+        final ConsulResponse<List<Value>> response =
+            consul.keyValueClient().getConsulResponseWithValues(prefix, options);
+
+        BigInteger newIndex = response.getIndex();
+        // Consul may reset the index (for example after a snapshot restore), in which case the
+        // watch must start over from zero.
+        if (newIndex == null || newIndex.signum() <= 0 || newIndex.compareTo(index) < 0) {
+          newIndex = BigInteger.ZERO;
+        }
+        if (!newIndex.equals(index)) {
+          update(prefix, response.getResponse());
+        }
+        index = newIndex;
+        backoff = MIN_BACKOFF_MS;
+      } catch (RuntimeException e) {
+        // any failure, not only Consul errors, must not end the loop and stop delivering changes
+        if (!running) {
+          return;
+        }
+        LOGGER.warn("Unable to watch keys under '{}', retrying in {}ms", prefix, backoff, e);
+        try {
+          Thread.sleep(backoff);
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+        backoff = Math.min(backoff * 2, MAX_BACKOFF_MS);
+      }
+    }
+  }
+
+  /**
+   * Compare the values of a prefix to the last known values, and notify the listeners of every
+   * watched key that changed.
+   *
+   * @param prefix Watched prefix
+   * @param response Values under the prefix, or null if there are none
+   */
+  private void update(final String prefix, @Nullable final List<Value> response) {
+    final Map<String, String> latest = new HashMap<>();
+    if (response != null) {
+      for (Value value : response) {
+        value.getValueAsString().ifPresent(v -> latest.put(value.getKey(), v));
+      }
+    }
+
+    for (Map.Entry<String, Optional<String>> entry : values.entrySet()) {
+      final String key = entry.getKey();
+      if (!prefix.equals(keyPrefixes.get(key))) {
+        continue;
+      }
+      final Optional<String> current = Optional.ofNullable(latest.get(key));
+      if (!current.equals(entry.getValue())) {
+        LOGGER.info("Key '{}' changed in Consul", key);
+        values.put(key, current);
+        for (Subscription<?> subscription : subscriptions.getOrDefault(key, ImmutableList.of())) {
+          subscription.publish(current);
+        }
+      }
+    }
+  }
+
+  private static final class Subscription<T> {
+    private final String key;
+    private final Function<String, T> parser;
+    private final KeyChangeListener<T> listener;
+    private volatile Optional<T> last = Optional.empty();
+
+    Subscription(
+        final String key, final Function<String, T> parser, final KeyChangeListener<T> listener) {
+      this.key = key;
+      this.parser = Objects.requireNonNull(parser);
+      this.listener = Objects.requireNonNull(listener);
+    }
+
+    void initialize(final Optional<String> value) {
+      try {
+        last = value.map(parser);
+      } catch (RuntimeException e) {
+        LOGGER.warn("Unable to parse value of key '{}'", key, e);
+      }
+    }
+
+    void publish(final Optional<String> value) {
+      final Optional<T> current;
+      try {
+        current = value.map(parser);
+      } catch (RuntimeException e) {
+        LOGGER.warn("Unable to parse value of key '{}', ignoring change", key, e);
+        return;
+      }
+      if (current.equals(last)) {
+        return;
+      }
+      final KeyChangeEvent<T> event = new KeyChangeEvent<>(key, last, current);
+      last = current;
+      try {
+        listener.onChange(event);
+      } catch (RuntimeException e) {
+        LOGGER.warn("Listener of key '{}' failed", key, e);
+      }
+    }
+  }
+}
@@ -15,10 +15,33 @@
  */
 package com.smoketurner.dropwizard.consul.config;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.orbitz.consul.Consul;
+import com.orbitz.consul.model.kv.Value;
+import com.smoketurner.dropwizard.consul.metrics.ConsulMetrics;
+import com.smoketurner.dropwizard.consul.snapshot.ConsulSnapshotStore;
 import io.dropwizard.configuration.UndefinedEnvironmentVariableException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import javax.annotation.Nullable;
 import org.apache.commons.text.lookup.StringLookup;
 import org.slf4j.Logger;
@@ -26,13 +49,24 @@ import org.slf4j.LoggerFactory;
 
 /**
  * A custom {@link org.apache.commons.text.lookup.StringLookup} implementation using Consul KV as
- * lookup source.
+ * lookup source. Values are memoized per key for the lifetime of the lookup, so a key referenced
+ * several times is only fetched once.
  */
 public class ConsulLookup implements StringLookup {
 
+  public static final int DEFAULT_PARALLELISM = 8;
+
   private static final Logger LOGGER = LoggerFactory.getLogger(ConsulLookup.class);
   private final boolean strict;
   private final Consul consul;
+  private final int parallelism;
+  private final Map<String, Optional<String>> values = new ConcurrentHashMap<>();
+  private final Map<String, Duration> timings = new ConcurrentHashMap<>();
+  private final Set<String> prefetchedPrefixes = ConcurrentHashMap.newKeySet();
+  private final Set<String> referenced = ConcurrentHashMap.newKeySet();
+  private final Optional<ConsulSnapshotStore> snapshot;
+  private final ConsulMetrics metrics = new ConsulMetrics();
+  private volatile boolean unavailable = false;
 
   /**
    * Create a new instance with strict behavior.
@@ -53,8 +87,207 @@ public class ConsulLookup implements StringLookup {
    *     strict behavior is enabled.
    */
   public ConsulLookup(final Consul consul, final boolean strict) {
+    this(consul, strict, DEFAULT_PARALLELISM);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param consul Consul client
+   * @param strict {@code true} if looking up undefined environment variables should throw a {@link
+   *     UndefinedEnvironmentVariableException}, {@code false} otherwise.
+   * @param parallelism Maximum number of keys fetched concurrently by {@link #resolve(Collection)}
+   */
+  public ConsulLookup(final Consul consul, final boolean strict, final int parallelism) {
+    this(consul, strict, parallelism, Optional.empty());
+  }
+
+  /**
+   * Constructor
+   *
+   * @param consul Consul client
+   * @param strict {@code true} if looking up undefined environment variables should throw a {@link
+   *     UndefinedEnvironmentVariableException}, {@code false} otherwise.
+   * @param parallelism Maximum number of keys fetched concurrently by {@link #resolve(Collection)}
+   * @param snapshot Optional snapshot that fetched values are saved to, and that values are read
+   *     from once Consul cannot be reached
+   */
+  public ConsulLookup(
+      final Consul consul,
+      final boolean strict,
+      final int parallelism,
+      final Optional<ConsulSnapshotStore> snapshot) {
     this.consul = Objects.requireNonNull(consul);
     this.strict = strict;
+    this.parallelism = parallelism;
+    this.snapshot = Objects.requireNonNull(snapshot);
+    metrics.gauge("keys", (Gauge<Integer>) values::size);
+  }
+
+  /**
+   * Load the values of the given keys in bulk, with one recursive request per group of keys sharing
+   * a directory (see {@link #groupByPrefix(Collection)}) instead of one request per key. Subsequent
+   * lookups of keys under a fetched prefix are answered from memory. Keys that do not share a
+   * directory with another key, keys missing from a fetched prefix (an ACL may allow reading a key
+   * but not listing it) and prefixes that could not be fetched are still looked up individually.
+   *
+   * @param keys Keys to prefetch
+   */
+  public void prefetch(final Collection<String> keys) {
+    final Set<String> prefixes = new TreeSet<>();
+    groupByPrefix(keys)
+        .forEach(
+            (prefix, group) -> {
+              if (group.size() > 1) {
+                prefixes.add(prefix);
+              }
+            });
+    prefixes.removeAll(prefetchedPrefixes);
+
+    for (String prefix : prefixes) {
+      if (isOffline()) {
+        break;
+      }
+      try {
+        for (Value value :
+            metrics.time("prefetch", () -> consul.keyValueClient().getValues(prefix))) {
+          value
+              .getValueAsString()
+              .ifPresent(
+                  v -> {
+                    values.put(value.getKey(), Optional.of(v));
+                    snapshot.ifPresent(s -> s.putValue(value.getKey(), Optional.of(v)));
+                  });
+        }
+        prefetchedPrefixes.add(prefix);
+      } catch (Exception e) {
+        LOGGER.warn("Unable to prefetch keys under '{}' from consul", prefix, e);
+        unavailable = true;
+      }
+    }
+    LOGGER.debug("Prefetched {} values under {} prefixes", values.size(), prefixes.size());
+  }
+
+  /**
+   * Group keys by the narrowest directory covering them, so that a recursive request for the prefix
+   * only returns the subtree the keys live in rather than everything under their top-level
+   * directory. Keys are grouped by their parent directory (the part of the key up to the last
+   * {@code /}), and a group whose directory contains the directory of another group absorbs it;
+   * sibling directories are never merged into their common parent. A key that does not share a
+   * directory with another key, or that has no directory, forms a group of its own with the key
+   * itself as prefix.
+   *
+   * @param keys Keys to group
+   * @return keys by prefix, sorted by prefix
+   */
+  static Map<String, Set<String>> groupByPrefix(final Collection<String> keys) {
+    final TreeMap<String, Set<String>> directories = new TreeMap<>();
+    final Map<String, Set<String>> groups = new TreeMap<>();
+    for (String key : keys) {
+      final int separator = key.lastIndexOf('/');
+      if (separator > 0) {
+        directories.computeIfAbsent(key.substring(0, separator + 1), d -> new TreeSet<>()).add(key);
+      } else {
+        groups.put(key, new TreeSet<>(ImmutableSet.of(key)));
+      }
+    }
+
+    // in sorted order, the subdirectories of a directory directly follow it
+    @Nullable String prefix = null;
+    Set<String> group = new TreeSet<>();
+    for (Map.Entry<String, Set<String>> entry : directories.entrySet()) {
+      if (prefix == null || !entry.getKey().startsWith(prefix)) {
+        prefix = entry.getKey();
+        group = new TreeSet<>();
+        groups.put(prefix, group);
+      }
+      group.addAll(entry.getValue());
+    }
+
+    // a lone key is fetched on its own, not with everything else under its directory
+    final Map<String, Set<String>> result = new TreeMap<>();
+    groups.forEach(
+        (p, g) -> {
+          if (g.size() == 1) {
+            result.put(g.iterator().next(), g);
+          } else {
+            result.put(p, g);
+          }
+        });
+    return result;
+  }
+
+  /**
+   * Fetch the values of the given keys concurrently, so that resolving a configuration takes as
+   * long as its slowest key rather than the sum of all keys. Keys that were already fetched or
+   * prefetched are skipped. Failures are not memoized, and are reported when the key is looked up.
+   *
+   * @param keys Keys to resolve
+   */
+  public void resolve(final Collection<String> keys) {
+    final Set<String> pending = new LinkedHashSet<>();
+    for (String key : keys) {
+      if (!values.containsKey(key)) {
+        pending.add(key);
+      }
+    }
+    if (pending.size() < 2 || parallelism < 2 || isOffline()) {
+      return;
+    }
+
+    final List<Callable<Optional<String>>> tasks = new ArrayList<>(pending.size());
+    for (String key : pending) {
+      tasks.add(() -> fetch(key));
+    }
+
+    final long start = System.nanoTime();
+    final ExecutorService executor =
+        Executors.newFixedThreadPool(Math.min(parallelism, pending.size()), newThreadFactory());
+    try {
+      executor.invokeAll(tasks);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      executor.shutdownNow();
+    }
+    LOGGER.debug(
+        "Resolved {} keys in {}ms",
+        pending.size(),
+        Duration.ofNanos(System.nanoTime() - start).toMillis());
+  }
+
+  /**
+   * Return the values of every key looked up so far, for example to watch them for changes with a
+   * {@link ConsulKeyWatcher}.
+   *
+   * @return last known value per key, empty if the key did not exist or could not be fetched
+   */
+  public Map<String, Optional<String>> getResolvedValues() {
+    final Map<String, Optional<String>> resolved = new HashMap<>();
+    for (String key : referenced) {
+      resolved.put(key, values.getOrDefault(key, Optional.empty()));
+    }
+    return ImmutableMap.copyOf(resolved);
+  }
+
+  /**
+   * Return how long fetching each key from Consul took. Keys answered by {@link
+   * #prefetch(Collection)} are not included.
+   *
+   * @return fetch duration per key
+   */
+  public Map<String, Duration> getTimings() {
+    return ImmutableMap.copyOf(timings);
+  }
+
+  /**
+   * Register the timers of the lookups, the error meters and the number of known keys. Lookups made
+   * before registration are included.
+   *
+   * @param metricRegistry Metric registry
+   */
+  public void registerMetrics(final MetricRegistry metricRegistry) {
+    metrics.registerMetrics(metricRegistry, MetricRegistry.name(ConsulLookup.class));
   }
 
   /**
@@ -66,13 +299,25 @@ public class ConsulLookup implements StringLookup {
   @Nullable
   @Override
   public String lookup(String key) {
-    try {
-      final Optional<String> value = consul.keyValueClient().getValueAsString(key);
+    referenced.add(key);
+    @Nullable Optional<String> value = values.get(key);
+    if (value == null && !isOffline()) {
+      try {
+        value = fetch(key);
+      } catch (Exception e) {
+        LOGGER.warn("Unable to lookup key in consul", e);
+        unavailable = true;
+      }
+    }
+    if (value == null && snapshot.isPresent()) {
+      value = snapshot.get().getValue(key);
       if (value.isPresent()) {
-        return value.get();
+        LOGGER.info("Using value of key '{}' from snapshot", key);
+        metrics.meter("snapshot-hits").mark();
       }
-    } catch (Exception e) {
-      LOGGER.warn("Unable to lookup key in consul", e);
+    }
+    if (value != null && value.isPresent()) {
+      return value.get();
     }
 
     if (strict) {
@@ -84,4 +329,45 @@ public class ConsulLookup implements StringLookup {
     }
     return null;
   }
+
+  private Optional<String> fetch(final String key) {
+    final long start = System.nanoTime();
+    try {
+      final Optional<String> value =
+          metrics.time("lookup", () -> consul.keyValueClient().getValueAsString(key));
+      values.put(key, value);
+      snapshot.ifPresent(s -> s.putValue(key, value));
+      return value;
+    } finally {
+      final Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+      timings.put(key, elapsed);
+      LOGGER.debug("Fetched key '{}' in {}ms", key, elapsed.toMillis());
+    }
+  }
+
+  /**
+   * Create a factory for the threads resolving keys, using virtual threads when the runtime
+   * supports them.
+   */
+  private static ThreadFactory newThreadFactory() {
+    try {
+      final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      builder =
+          builderClass
+              .getMethod("name", String.class, long.class)
+              .invoke(builder, "consul-lookup-", 0L);
+      return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return new ThreadFactoryBuilder().setNameFormat("consul-lookup-%d").setDaemon(true).build();
+    }
+  }
+
+  /**
+   * Return whether keys should be read from the snapshot without asking Consul, because Consul
+   * failed to answer a previous lookup.
+   */
+  private boolean isOffline() {
+    return unavailable && snapshot.isPresent();
+  }
 }
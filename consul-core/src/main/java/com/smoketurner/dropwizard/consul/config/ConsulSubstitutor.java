@@ -18,10 +18,19 @@ package com.smoketurner.dropwizard.consul.config;
 import com.orbitz.consul.Consul;
 import io.dropwizard.configuration.EnvironmentVariableSubstitutor;
 import io.dropwizard.configuration.UndefinedEnvironmentVariableException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.Objects;
+import java.util.Set;
+import javax.annotation.Nullable;
 
 /** A custom {@link EnvironmentVariableSubstitutor} using Consul KV as lookup source. */
 public class ConsulSubstitutor extends EnvironmentVariableSubstitutor {
 
+  private final ConsulLookup lookup;
+  private final boolean prefetch;
+
   public ConsulSubstitutor(final Consul consul) {
     this(consul, true, false);
   }
@@ -40,8 +49,120 @@ public class ConsulSubstitutor extends EnvironmentVariableSubstitutor {
    * @see org.apache.commons.text.StringSubstitutor#setEnableSubstitutionInVariables(boolean)
    */
   public ConsulSubstitutor(final Consul consul, boolean strict, boolean substitutionInVariables) {
+    this(consul, strict, substitutionInVariables, false);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param consul Consul client
+   * @param strict {@code true} if looking up undefined environment variables should throw a {@link
+   *     UndefinedEnvironmentVariableException}, {@code false} otherwise.
+   * @param substitutionInVariables a flag whether substitution is done in variable names.
+   * @param prefetch {@code true} if all keys referenced by a source should be fetched in bulk
+   *     before substituting it, {@code false} to look up each key individually.
+   * @see ConsulLookup#prefetch(java.util.Collection)
+   */
+  public ConsulSubstitutor(
+      final Consul consul, boolean strict, boolean substitutionInVariables, boolean prefetch) {
+    this(consul, strict, substitutionInVariables, prefetch, ConsulLookup.DEFAULT_PARALLELISM);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param consul Consul client
+   * @param strict {@code true} if looking up undefined environment variables should throw a {@link
+   *     UndefinedEnvironmentVariableException}, {@code false} otherwise.
+   * @param substitutionInVariables a flag whether substitution is done in variable names.
+   * @param prefetch {@code true} if all keys referenced by a source should be fetched in bulk
+   *     before substituting it, {@code false} to look up each key individually.
+   * @param parallelism Maximum number of keys fetched concurrently, or 1 to fetch keys one at a
+   *     time during substitution
+   * @see ConsulLookup#resolve(java.util.Collection)
+   */
+  public ConsulSubstitutor(
+      final Consul consul,
+      boolean strict,
+      boolean substitutionInVariables,
+      boolean prefetch,
+      int parallelism) {
+    this(new ConsulLookup(consul, strict, parallelism), strict, substitutionInVariables, prefetch);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param lookup Consul lookup
+   * @param strict {@code true} if looking up undefined environment variables should throw a {@link
+   *     UndefinedEnvironmentVariableException}, {@code false} otherwise.
+   * @param substitutionInVariables a flag whether substitution is done in variable names.
+   * @param prefetch {@code true} if all keys referenced by a source should be fetched in bulk
+   *     before substituting it, {@code false} to look up each key individually.
+   */
+  public ConsulSubstitutor(
+      final ConsulLookup lookup,
+      boolean strict,
+      boolean substitutionInVariables,
+      boolean prefetch) {
     super(strict);
-    this.setVariableResolver(new ConsulLookup(consul, strict));
+    this.lookup = Objects.requireNonNull(lookup);
+    this.prefetch = prefetch;
+    this.setVariableResolver(lookup);
     this.setEnableSubstitutionInVariables(substitutionInVariables);
   }
+
+  @Nullable
+  @Override
+  public String replace(@Nullable final String source) {
+    if (source != null) {
+      final Set<String> variables = findVariables(source);
+      if (prefetch) {
+        lookup.prefetch(variables);
+      }
+      lookup.resolve(variables);
+    }
+    return super.replace(source);
+  }
+
+  /**
+   * Return the lookup used to resolve variables
+   *
+   * @return Consul lookup
+   */
+  public ConsulLookup getLookup() {
+    return lookup;
+  }
+
+  /**
+   * Find the names of the variables referenced by a source, without their default values. Variables
+   * whose names are themselves built from other variables are skipped, as their names are only
+   * known during substitution.
+   *
+   * @param source Source to scan
+   * @return variable names, in order of appearance
+   */
+  static Set<String> findVariables(final String source) {
+    final Set<String> variables = new LinkedHashSet<>();
+    final Deque<Integer> starts = new ArrayDeque<>();
+    for (int i = 0; i < source.length(); i++) {
+      if (source.startsWith("$${", i)) {
+        // escaped variable
+        i += 2;
+      } else if (source.startsWith("${", i)) {
+        starts.push(i + 2);
+        i++;
+      } else if (source.charAt(i) == '}' && !starts.isEmpty()) {
+        String variable = source.substring(starts.pop(), i);
+        final int defaultValue = variable.indexOf(":-");
+        if (defaultValue >= 0) {
+          variable = variable.substring(0, defaultValue);
+        }
+        if (!variable.isEmpty() && !variable.contains("${")) {
+          variables.add(variable);
+        }
+      }
+    }
+    return variables;
+  }
 }
@@ -0,0 +1,80 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.consul.config;
+
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * A change of the value of a key in Consul KV
+ *
+ * @param <T> Type the value is parsed into
+ */
+public final class KeyChangeEvent<T> {
+
+  private final String key;
+  private final Optional<T> previous;
+  private final Optional<T> current;
+
+  /**
+   * Constructor
+   *
+   * @param key Key that changed
+   * @param previous Previous value, or empty if the key did not exist
+   * @param current Current value, or empty if the key was deleted
+   */
+  public KeyChangeEvent(final String key, final Optional<T> previous, final Optional<T> current) {
+    this.key = Objects.requireNonNull(key);
+    this.previous = Objects.requireNonNull(previous);
+    this.current = Objects.requireNonNull(current);
+  }
+
+  public String getKey() {
+    return key;
+  }
+
+  public Optional<T> getPrevious() {
+    return previous;
+  }
+
+  public Optional<T> getCurrent() {
+    return current;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (obj == null || getClass() != obj.getClass()) {
+      return false;
+    }
+    final KeyChangeEvent<?> other = (KeyChangeEvent<?>) obj;
+    return key.equals(other.key)
+        && previous.equals(other.previous)
+        && current.equals(other.current);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(key, previous, current);
+  }
+
+  @Override
+  public String toString() {
+    return "KeyChangeEvent{key=" + key + ", previous=" + previous + ", current=" + current + "}";
+  }
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.consul.config;
+
+/**
+ * Listener notified by a {@link ConsulKeyWatcher} when the value of a watched key changes.
+ *
+ * @param <T> Type the value is parsed into
+ */
+@FunctionalInterface
+public interface KeyChangeListener<T> {
+
+  /**
+   * Called on the watcher thread after the value of a key has changed
+   *
+   * @param event Change event
+   */
+  void onChange(KeyChangeEvent<T> event);
+}
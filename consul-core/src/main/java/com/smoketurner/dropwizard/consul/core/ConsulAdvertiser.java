@@ -17,20 +17,25 @@ package com.smoketurner.dropwizard.consul.core;
 
 import static java.util.Objects.nonNull;
 
+import com.codahale.metrics.MetricRegistry;
 import com.orbitz.consul.AgentClient;
 import com.orbitz.consul.Consul;
 import com.orbitz.consul.ConsulException;
 import com.orbitz.consul.model.agent.ImmutableRegCheck;
 import com.orbitz.consul.model.agent.ImmutableRegistration;
 import com.orbitz.consul.model.agent.Registration;
+import com.orbitz.consul.model.health.Service;
 import com.smoketurner.dropwizard.consul.ConsulFactory;
+import com.smoketurner.dropwizard.consul.metrics.ConsulMetrics;
 import io.dropwizard.setup.Environment;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Supplier;
+import javax.annotation.Nullable;
 import javax.ws.rs.core.UriBuilder;
 import org.apache.commons.net.util.SubnetUtils;
 import org.slf4j.Logger;
@@ -55,6 +60,8 @@ public class ConsulAdvertiser {
   private final Consul consul;
   private final String serviceId;
   private final AtomicReference<String> healthCheckPath = new AtomicReference<>();
+  private final AtomicReference<Registration> registration = new AtomicReference<>();
+  private final ConsulMetrics metrics = new ConsulMetrics();
 
   /**
    * Constructor
@@ -140,14 +147,15 @@ public class ConsulAdvertiser {
               serviceMeta.set(newServiceMeta);
             });
 
-      configuration
-          .getHealthCheckPath()
-          .ifPresent(
-              newHealthCheckPath -> {
-                  LOGGER.info(
-                      "Using \"{}\" as health check path from the configuration file", newHealthCheckPath);
-                  healthCheckPath.set(newHealthCheckPath);
-              });
+    configuration
+        .getHealthCheckPath()
+        .ifPresent(
+            newHealthCheckPath -> {
+              LOGGER.info(
+                  "Using \"{}\" as health check path from the configuration file",
+                  newHealthCheckPath);
+              healthCheckPath.set(newHealthCheckPath);
+            });
   }
 
   /**
@@ -159,6 +167,24 @@ public class ConsulAdvertiser {
     return serviceId;
   }
 
+  /**
+   * Return the ID of the check the agent creates for the service
+   *
+   * @return check ID
+   */
+  public String getCheckId() {
+    return "service:" + serviceId;
+  }
+
+  /**
+   * Register the timers and error meters of the calls made to the agent
+   *
+   * @param metricRegistry Metric registry
+   */
+  public void registerMetrics(final MetricRegistry metricRegistry) {
+    metrics.registerMetrics(metricRegistry, MetricRegistry.name(ConsulAdvertiser.class));
+  }
+
   public boolean register(
       final String applicationScheme, final int applicationPort, final int adminPort) {
     return register(applicationScheme, applicationPort, adminPort, null);
@@ -179,13 +205,6 @@ public class ConsulAdvertiser {
       final int applicationPort,
       final int adminPort,
       Collection<String> ipAddresses) {
-    final AgentClient agent = consul.agentClient();
-    if (agent.isRegistered(serviceId)) {
-      LOGGER.info(
-          "Service ({}) [{}] already registered", configuration.getServiceName(), serviceId);
-      return false;
-    }
-
     // If we haven't set the servicePort via the configuration file already,
     // set it from the listening applicationPort.
     servicePort.compareAndSet(null, applicationPort);
@@ -201,13 +220,18 @@ public class ConsulAdvertiser {
         healthCheckPath.get(),
         configuration.getCheckInterval().toSeconds());
 
-    final Registration.RegCheck check =
+    final ImmutableRegCheck.Builder checkBuilder =
         ImmutableRegCheck.builder()
-            .http(getHealthCheckUrl(applicationScheme, ipAddresses))
-            .interval(String.format("%ds", configuration.getCheckInterval().toSeconds()))
             .deregisterCriticalServiceAfter(
-                String.format("%dm", configuration.getDeregisterInterval().toMinutes()))
-            .build();
+                String.format("%dm", configuration.getDeregisterInterval().toMinutes()));
+    if (configuration.getCheckMode() == ConsulFactory.CheckMode.TTL) {
+      checkBuilder.ttl(String.format("%ds", configuration.getCheckTtl().toSeconds()));
+    } else {
+      checkBuilder
+          .http(getHealthCheckUrl(applicationScheme, ipAddresses))
+          .interval(String.format("%ds", configuration.getCheckInterval().toSeconds()));
+    }
+    final Registration.RegCheck check = checkBuilder.build();
 
     final ImmutableRegistration.Builder builder =
         ImmutableRegistration.builder().port(servicePort.get()).check(check).id(serviceId);
@@ -232,10 +256,72 @@ public class ConsulAdvertiser {
 
     builder.putMeta("scheme", applicationScheme);
 
-    consul.agentClient().register(builder.build());
+    final Registration newRegistration = builder.build();
+    registration.set(newRegistration);
+
+    final AgentClient agent = consul.agentClient();
+    if (metrics.time("is-registered", () -> agent.isRegistered(serviceId))) {
+      LOGGER.info(
+          "Service ({}) [{}] already registered", configuration.getServiceName(), serviceId);
+      return false;
+    }
+
+    metrics.run("register", () -> agent.register(newRegistration));
     return true;
   }
 
+  /**
+   * Compare the registration of the service in the local agent to the last registration made by
+   * {@link #register(String, int, int, Collection)}, and register the service again if the agent
+   * lost it (for example after an agent restart) or if it no longer matches. The agent is only
+   * updated when there is a difference.
+   *
+   * @return true if the service was registered again, otherwise false
+   * @throws ConsulException When the agent cannot be queried or updated
+   */
+  public boolean reconcile() {
+    @Nullable final Registration expected = registration.get();
+    if (expected == null) {
+      return false;
+    }
+
+    final AgentClient agent = consul.agentClient();
+    @Nullable
+    final Service actual = metrics.time("get-services", agent::getServices).get(serviceId);
+    if (actual == null) {
+      LOGGER.warn(
+          "Service ({}) [{}] is no longer registered, registering again",
+          configuration.getServiceName(),
+          serviceId);
+    } else if (isDrifted(expected, actual)) {
+      LOGGER.warn(
+          "Registration of service ({}) [{}] has drifted, registering again",
+          configuration.getServiceName(),
+          serviceId);
+    } else {
+      return false;
+    }
+
+    metrics.run("register", () -> agent.register(expected));
+    metrics.meter("reregistrations").mark();
+    return true;
+  }
+
+  /**
+   * Return whether a service registered in the agent differs from the expected registration
+   *
+   * @param expected Expected registration
+   * @param actual Service registered in the agent
+   * @return true if the registration differs, otherwise false
+   */
+  private static boolean isDrifted(final Registration expected, final Service actual) {
+    return !expected.getName().equals(actual.getService())
+        || !expected.getAddress().orElse("").equals(actual.getAddress())
+        || expected.getPort().orElse(0) != actual.getPort()
+        || !new HashSet<>(expected.getTags()).equals(new HashSet<>(actual.getTags()))
+        || !expected.getMeta().equals(actual.getMeta());
+  }
+
   /**
    * Returns the service address from best provided options. The order of precedence is as follows:
    * serviceAddress, if provided, then the subnet resolution, lastly the supplier. If none of the
@@ -283,7 +369,7 @@ public class ConsulAdvertiser {
   public void deregister() {
     final AgentClient agent = consul.agentClient();
     try {
-      if (!agent.isRegistered(serviceId)) {
+      if (!metrics.time("is-registered", () -> agent.isRegistered(serviceId))) {
         LOGGER.info("No service registered with ID \"{}\"", serviceId);
         return;
       }
@@ -295,7 +381,7 @@ public class ConsulAdvertiser {
     LOGGER.info("Deregistering service ID \"{}\"", serviceId);
 
     try {
-      consul.agentClient().deregister(serviceId);
+      metrics.run("deregister", () -> agent.deregister(serviceId));
     } catch (ConsulException e) {
       LOGGER.error("Failed to deregister service from Consul", e);
     }
@@ -24,8 +24,13 @@ import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 import org.eclipse.jetty.server.Connector;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.ServerConnector;
@@ -37,10 +42,15 @@ public class ConsulServiceListener implements ServerLifecycleListener {
 
   private static final String APPLICATION_NAME = "application";
   private static final String ADMIN_NAME = "admin";
+  private static final Duration DEFAULT_MAX_RETRY_INTERVAL = Duration.minutes(1);
 
   private final ConsulAdvertiser advertiser;
   private final Optional<Duration> retryInterval;
   private final Optional<ScheduledExecutorService> scheduler;
+  private final Duration maxRetryInterval;
+  private final Optional<Integer> maxAttempts;
+  private final AtomicInteger attempts = new AtomicInteger();
+  private final CompletableFuture<Boolean> registration = new CompletableFuture<>();
 
   /**
    * Constructor
@@ -53,10 +63,42 @@ public class ConsulServiceListener implements ServerLifecycleListener {
       final ConsulAdvertiser advertiser,
       final Optional<Duration> retryInterval,
       final Optional<ScheduledExecutorService> scheduler) {
+    this(advertiser, retryInterval, scheduler, DEFAULT_MAX_RETRY_INTERVAL, Optional.empty());
+  }
+
+  /**
+   * Constructor
+   *
+   * @param advertiser Consul advertiser
+   * @param retryInterval When specified, will retry if service registration fails, doubling the
+   *     interval after every failed attempt
+   * @param scheduler When specified, registration runs on this scheduler instead of the Jetty
+   *     startup thread, and failed registrations are retried
+   * @param maxRetryInterval Upper bound of the interval between retries
+   * @param maxAttempts When specified, the maximum number of registration attempts
+   */
+  public ConsulServiceListener(
+      final ConsulAdvertiser advertiser,
+      final Optional<Duration> retryInterval,
+      final Optional<ScheduledExecutorService> scheduler,
+      final Duration maxRetryInterval,
+      final Optional<Integer> maxAttempts) {
 
     this.advertiser = Objects.requireNonNull(advertiser, "advertiser == null");
     this.retryInterval = Objects.requireNonNull(retryInterval, "retryInterval == null");
     this.scheduler = Objects.requireNonNull(scheduler, "scheduler == null");
+    this.maxRetryInterval = Objects.requireNonNull(maxRetryInterval, "maxRetryInterval == null");
+    this.maxAttempts = Objects.requireNonNull(maxAttempts, "maxAttempts == null");
+  }
+
+  /**
+   * Return a future that completes once the service has been registered, with {@code false} if it
+   * was already registered, or completes exceptionally once registration has been given up.
+   *
+   * @return registration future
+   */
+  public CompletableFuture<Boolean> getRegistration() {
+    return registration.thenApply(Function.identity());
   }
 
   @Override
@@ -89,7 +131,19 @@ public class ConsulServiceListener implements ServerLifecycleListener {
         applicationPort,
         adminPort);
 
-    register(applicationScheme, applicationPort, adminPort, hosts);
+    // register in the background so that Jetty startup does not wait for Consul
+    final String scheme = applicationScheme;
+    final int port = applicationPort;
+    final int admin = adminPort;
+    if (scheduler.isPresent()) {
+      try {
+        scheduler.get().execute(() -> register(scheme, port, admin, hosts));
+        return;
+      } catch (RejectedExecutionException e) {
+        LOGGER.debug("Registration scheduler is shut down, registering synchronously", e);
+      }
+    }
+    register(scheme, port, admin, hosts);
   }
 
   /**
@@ -115,24 +169,53 @@ public class ConsulServiceListener implements ServerLifecycleListener {
    */
   void register(
       String applicationScheme, int applicationPort, int adminPort, Collection<String> hosts) {
+    if (registration.isDone()) {
+      return;
+    }
+
+    final int attempt = attempts.incrementAndGet();
     try {
-      advertiser.register(applicationScheme, applicationPort, adminPort, hosts);
-      scheduler.ifPresent(ScheduledExecutorService::shutdownNow);
+      registration.complete(
+          advertiser.register(applicationScheme, applicationPort, adminPort, hosts));
     } catch (ConsulException e) {
-      LOGGER.error("Failed to register service in Consul", e);
-
-      retryInterval.ifPresent(
-          (interval) -> {
-            scheduler.ifPresent(
-                (service) -> {
-                  LOGGER.info(
-                      "Will try to register service again in {} seconds", interval.toSeconds());
-                  service.schedule(
-                      () -> register(applicationScheme, applicationPort, adminPort, hosts),
-                      interval.toSeconds(),
-                      TimeUnit.SECONDS);
-                });
-          });
+      LOGGER.error("Failed to register service in Consul (attempt {})", attempt, e);
+
+      if (!retryInterval.isPresent()
+          || !scheduler.isPresent()
+          || maxAttempts.map(max -> attempt >= max).orElse(false)) {
+        registration.completeExceptionally(e);
+        return;
+      }
+
+      final long delay = getRetryDelay(retryInterval.get(), attempt);
+      LOGGER.info("Will try to register service again in {}ms", delay);
+      try {
+        scheduler
+            .get()
+            .schedule(
+                () -> register(applicationScheme, applicationPort, adminPort, hosts),
+                delay,
+                TimeUnit.MILLISECONDS);
+      } catch (RejectedExecutionException ree) {
+        registration.completeExceptionally(e);
+      }
     }
   }
+
+  /**
+   * Return the delay before the next registration attempt. The delay grows exponentially from the
+   * retry interval up to the maximum retry interval, and is randomized between half and all of that
+   * value so that instances restarted together do not retry in lockstep.
+   *
+   * @param interval Base retry interval
+   * @param attempt Number of failed attempts so far
+   * @return delay in milliseconds
+   */
+  long getRetryDelay(final Duration interval, final int attempt) {
+    final long base = interval.toMilliseconds();
+    final long cap = Math.max(base, maxRetryInterval.toMilliseconds());
+    final long backoff = Math.min(cap, base * (1L << Math.min(attempt - 1, 20)));
+    final long half = backoff / 2;
+    return half + ThreadLocalRandom.current().nextLong(backoff - half + 1);
+  }
 }
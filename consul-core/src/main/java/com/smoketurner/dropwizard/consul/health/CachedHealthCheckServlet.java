@@ -0,0 +1,61 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.consul.health;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Objects;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Health check endpoint for the Consul agent that answers with the last results of a {@link
+ * HealthCheckCache} instead of running the health checks, so that requests from Consul cost the
+ * same regardless of how many health checks are registered or how long they take.
+ */
+public class CachedHealthCheckServlet extends HttpServlet {
+
+  public static final String PATH = "consul-healthcheck";
+
+  private static final long serialVersionUID = 1L;
+  private final transient HealthCheckCache cache;
+
+  /**
+   * Constructor
+   *
+   * @param cache Cached health check results
+   */
+  public CachedHealthCheckServlet(final HealthCheckCache cache) {
+    this.cache = Objects.requireNonNull(cache);
+  }
+
+  @Override
+  protected void doGet(final HttpServletRequest req, final HttpServletResponse resp)
+      throws IOException {
+    final HealthCheckCache.Snapshot snapshot = cache.getSnapshot();
+    resp.setStatus(
+        snapshot.isHealthy()
+            ? HttpServletResponse.SC_OK
+            : HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+    resp.setHeader("Cache-Control", "must-revalidate,no-cache,no-store");
+    resp.setContentType("application/json");
+    resp.setContentLength(snapshot.getBody().length);
+    try (OutputStream output = resp.getOutputStream()) {
+      output.write(snapshot.getBody());
+    }
+  }
+}
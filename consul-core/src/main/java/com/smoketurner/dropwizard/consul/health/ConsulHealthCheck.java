@@ -15,35 +15,172 @@
  */
 package com.smoketurner.dropwizard.consul.health;
 
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.health.HealthCheck;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.orbitz.consul.Consul;
 import com.orbitz.consul.ConsulException;
+import io.dropwizard.lifecycle.Managed;
+import io.dropwizard.util.Duration;
 import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class ConsulHealthCheck extends HealthCheck {
+/**
+ * Checks that the Consul agent can be reached. When created with a probe interval, the agent is
+ * pinged in the background once {@link #start() started}, and {@link #check()} returns the cached
+ * state without any request to the agent. The check only turns unhealthy after a number of
+ * consecutive failed pings, so that a single slow or failed ping does not fail the health check. A
+ * ping is not sent while the previous one is still running, so a ping that hangs past its timeout
+ * holds a single thread rather than one more per probe.
+ */
+public class ConsulHealthCheck extends HealthCheck implements Managed {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(ConsulHealthCheck.class);
   private final Consul consul;
 
+  @Nullable private final Histogram latency;
+  @Nullable private final Duration interval;
+  @Nullable private final Duration timeout;
+  private final int failureThreshold;
+  @Nullable private final ScheduledExecutorService scheduler;
+  @Nullable private final ExecutorService executor;
+  private final AtomicBoolean pinging = new AtomicBoolean(false);
+
+  private volatile int consecutiveFailures = 0;
+
   /**
-   * Constructor
+   * Create a health check that pings the agent each time it is run.
    *
    * @param consul Consul client
    */
   public ConsulHealthCheck(final Consul consul) {
     this.consul = Objects.requireNonNull(consul);
+    this.latency = null;
+    this.interval = null;
+    this.timeout = null;
+    this.failureThreshold = 1;
+    this.scheduler = null;
+    this.executor = null;
+  }
+
+  /**
+   * Create a health check that pings the agent in the background.
+   *
+   * @param consul Consul client
+   * @param metrics Registry of the ping latency histogram, in microseconds
+   * @param interval Delay between two pings
+   * @param timeout Maximum duration of a ping before it is considered failed
+   * @param failureThreshold Number of consecutive failed pings before the check is unhealthy
+   */
+  public ConsulHealthCheck(
+      final Consul consul,
+      final MetricRegistry metrics,
+      final Duration interval,
+      final Duration timeout,
+      final int failureThreshold) {
+    this.consul = Objects.requireNonNull(consul);
+    this.latency = metrics.histogram(MetricRegistry.name(ConsulHealthCheck.class, "ping-latency"));
+    this.interval = Objects.requireNonNull(interval);
+    this.timeout = Objects.requireNonNull(timeout);
+    this.failureThreshold = failureThreshold;
+    this.scheduler =
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("consul-ping-%d").setDaemon(true).build());
+    this.executor =
+        Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder()
+                .setNameFormat("consul-ping-worker-%d")
+                .setDaemon(true)
+                .build());
+  }
+
+  @Override
+  public void start() throws Exception {
+    if (scheduler != null && interval != null) {
+      scheduler.scheduleWithFixedDelay(
+          this::probe, 0, interval.toMilliseconds(), TimeUnit.MILLISECONDS);
+    }
+  }
+
+  @Override
+  public void stop() throws Exception {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+    }
+    if (executor != null) {
+      executor.shutdownNow();
+    }
   }
 
   @Override
   protected Result check() throws Exception {
+    if (executor == null) {
+      try {
+        consul.agentClient().ping();
+        return Result.healthy();
+      } catch (ConsulException e) {
+        LOGGER.warn("Unable to ping consul", e);
+      }
+      return Result.unhealthy("Could not ping consul");
+    }
+
+    final int failures = consecutiveFailures;
+    if (failures >= failureThreshold) {
+      return Result.unhealthy("Could not ping consul (%d consecutive failures)", failures);
+    }
+    return Result.healthy();
+  }
+
+  /** Ping the agent once and update the cached state. */
+  @VisibleForTesting
+  void probe() {
+    if (executor == null || timeout == null || latency == null) {
+      return;
+    }
+    if (!pinging.compareAndSet(false, true)) {
+      LOGGER.warn("Previous ping to consul is still running after {}", timeout);
+      consecutiveFailures++;
+      return;
+    }
+    final long start = System.nanoTime();
+    final Future<?> ping =
+        executor.submit(
+            () -> {
+              try {
+                consul.agentClient().ping();
+              } finally {
+                pinging.set(false);
+              }
+            });
     try {
-      consul.agentClient().ping();
-      return Result.healthy();
-    } catch (ConsulException e) {
-      LOGGER.warn("Unable to ping consul", e);
+      ping.get(timeout.toNanoseconds(), TimeUnit.NANOSECONDS);
+      latency.update(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+      if (consecutiveFailures > 0) {
+        LOGGER.info("Consul agent reachable again after {} failed pings", consecutiveFailures);
+      }
+      consecutiveFailures = 0;
+    } catch (TimeoutException e) {
+      ping.cancel(true);
+      LOGGER.warn("Ping to consul timed out after {}", timeout);
+      consecutiveFailures++;
+    } catch (ExecutionException e) {
+      LOGGER.warn("Unable to ping consul", e.getCause());
+      consecutiveFailures++;
+    } catch (InterruptedException e) {
+      ping.cancel(true);
+      Thread.currentThread().interrupt();
     }
-    return Result.unhealthy("Could not ping consul");
   }
 }
@@ -0,0 +1,178 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.consul.health;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.health.HealthCheck;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableSet;
+import com.orbitz.consul.AgentClient;
+import com.orbitz.consul.Consul;
+import com.orbitz.consul.ConsulException;
+import com.orbitz.consul.NotRegisteredException;
+import com.orbitz.consul.model.State;
+import com.smoketurner.dropwizard.consul.metrics.ConsulMetrics;
+import io.dropwizard.util.Duration;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.StringJoiner;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pushes the aggregate status of the health checks of the application to a TTL check of the Consul
+ * agent. The status is read from the results cached by a {@link HealthCheckCache}, so the health
+ * checks run on the cadence of the cache rather than on every update. The agent is only updated
+ * when the status changes, or when half of the TTL has elapsed since the last update, so that a
+ * healthy service costs one request per half TTL instead of one health check request per check
+ * interval.
+ *
+ * <p>The service is critical when any health check is unhealthy, unless all unhealthy checks are
+ * listed as non-critical, in which case it is in the warning state.
+ */
+public class ConsulTtlCheck implements Runnable {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ConsulTtlCheck.class);
+  private final Consul consul;
+  private final HealthCheckCache healthChecks;
+  private final String checkId;
+  private final long refreshNanos;
+  private final Set<String> nonCriticalHealthChecks;
+  private final Ticker ticker;
+  private final ConsulMetrics metrics = new ConsulMetrics();
+
+  @Nullable private volatile State lastState;
+  private volatile long lastUpdate;
+
+  /**
+   * Constructor
+   *
+   * @param consul Consul client
+   * @param healthChecks Cached results of the health checks of the application
+   * @param checkId ID of the TTL check in the Consul agent
+   * @param ttl TTL of the check
+   * @param nonCriticalHealthChecks Names of the health checks that only put the service in warning
+   */
+  public ConsulTtlCheck(
+      final Consul consul,
+      final HealthCheckCache healthChecks,
+      final String checkId,
+      final Duration ttl,
+      final Set<String> nonCriticalHealthChecks) {
+    this(consul, healthChecks, checkId, ttl, nonCriticalHealthChecks, Ticker.systemTicker());
+  }
+
+  @VisibleForTesting
+  ConsulTtlCheck(
+      final Consul consul,
+      final HealthCheckCache healthChecks,
+      final String checkId,
+      final Duration ttl,
+      final Set<String> nonCriticalHealthChecks,
+      final Ticker ticker) {
+    this.consul = Objects.requireNonNull(consul);
+    this.healthChecks = Objects.requireNonNull(healthChecks);
+    this.checkId = Objects.requireNonNull(checkId);
+    this.refreshNanos = ttl.toNanoseconds() / 2;
+    this.nonCriticalHealthChecks = ImmutableSet.copyOf(nonCriticalHealthChecks);
+    this.ticker = Objects.requireNonNull(ticker);
+  }
+
+  @Override
+  public void run() {
+    final HealthCheckCache.Snapshot snapshot = healthChecks.getSnapshot();
+    if (snapshot.isPending()) {
+      // a registration starts critical, so there is nothing to push until the checks have run
+      return;
+    }
+    final SortedMap<String, HealthCheck.Result> results = snapshot.getResults();
+
+    State state = State.PASS;
+    final StringJoiner note = new StringJoiner("; ");
+    for (Map.Entry<String, HealthCheck.Result> entry : results.entrySet()) {
+      final HealthCheck.Result result = entry.getValue();
+      if (result.isHealthy()) {
+        continue;
+      }
+      note.add(
+          result.getMessage() == null
+              ? entry.getKey()
+              : entry.getKey() + ": " + result.getMessage());
+      if (!nonCriticalHealthChecks.contains(entry.getKey())) {
+        state = State.FAIL;
+      } else if (state == State.PASS) {
+        state = State.WARN;
+      }
+    }
+
+    final long now = ticker.read();
+    if (state == lastState && now - lastUpdate < refreshNanos) {
+      return;
+    }
+
+    try {
+      update(state, note.toString());
+      if (state != lastState) {
+        LOGGER.info("Consul check [{}] is now {}", checkId, state.getName());
+      }
+      lastState = state;
+      lastUpdate = now;
+    } catch (NotRegisteredException e) {
+      LOGGER.warn("Consul check [{}] is not registered", checkId);
+      reset();
+    } catch (ConsulException e) {
+      LOGGER.warn("Unable to update Consul check [{}]", checkId, e);
+      reset();
+    }
+  }
+
+  /**
+   * Register the timers and error meters of the check updates
+   *
+   * @param metricRegistry Metric registry
+   */
+  public void registerMetrics(final MetricRegistry metricRegistry) {
+    metrics.registerMetrics(metricRegistry, MetricRegistry.name(ConsulTtlCheck.class));
+  }
+
+  /**
+   * Forget the last status pushed to Consul, so that the next run pushes the status even if it did
+   * not change. This should be called when the service was registered again, as a new registration
+   * starts in the critical state.
+   */
+  public void reset() {
+    lastState = null;
+  }
+
+  private void update(final State state, final String note) throws NotRegisteredException {
+    final AgentClient agent = consul.agentClient();
+    switch (state) {
+      case PASS:
+        metrics.run("pass", () -> agent.pass(checkId, note));
+        break;
+      case WARN:
+        metrics.run("warn", () -> agent.warn(checkId, note));
+        break;
+      default:
+        metrics.run("fail", () -> agent.fail(checkId, note));
+        break;
+    }
+  }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.consul.health;
+
+import com.codahale.metrics.health.HealthCheck;
+import com.codahale.metrics.health.HealthCheckRegistry;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.dropwizard.lifecycle.Managed;
+import io.dropwizard.util.Duration;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the health checks of the application in the background at a fixed rate and keeps the last
+ * results, so that answering a health check request from Consul does not run any health check.
+ * Checks run concurrently, and a check that does not complete within the timeout is reported as
+ * unhealthy. A check is not started again while its previous run is still going, so a check that
+ * hangs and ignores interruption holds a single thread rather than one more per refresh.
+ */
+public class HealthCheckCache implements Managed, Runnable {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(HealthCheckCache.class);
+  private static final Snapshot PENDING =
+      new Snapshot(false, ImmutableSortedMap.of(), "{}".getBytes(StandardCharsets.UTF_8));
+
+  private final HealthCheckRegistry healthChecks;
+  private final ObjectMapper mapper;
+  private final Duration interval;
+  private final Duration timeout;
+  private final ScheduledExecutorService scheduler;
+  private final ExecutorService executor;
+  private final Set<String> running = ConcurrentHashMap.newKeySet();
+
+  private volatile Snapshot snapshot = PENDING;
+
+  /**
+   * Constructor
+   *
+   * @param healthChecks Health checks of the application
+   * @param mapper Object mapper used to serialize the results
+   * @param interval Delay between two runs of the health checks
+   * @param timeout Maximum duration of each health check
+   */
+  public HealthCheckCache(
+      final HealthCheckRegistry healthChecks,
+      final ObjectMapper mapper,
+      final Duration interval,
+      final Duration timeout) {
+    this.healthChecks = Objects.requireNonNull(healthChecks);
+    this.mapper = Objects.requireNonNull(mapper);
+    this.interval = Objects.requireNonNull(interval);
+    this.timeout = Objects.requireNonNull(timeout);
+    this.scheduler =
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                .setNameFormat("consul-health-cache-%d")
+                .setDaemon(true)
+                .build());
+    this.executor =
+        Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder()
+                .setNameFormat("consul-health-check-%d")
+                .setDaemon(true)
+                .build());
+  }
+
+  @Override
+  public void start() throws Exception {
+    scheduler.scheduleWithFixedDelay(this, 0, interval.toMilliseconds(), TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public void stop() throws Exception {
+    scheduler.shutdownNow();
+    executor.shutdownNow();
+  }
+
+  /**
+   * Return the results of the last run of the health checks
+   *
+   * @return last snapshot, unhealthy until the health checks ran once
+   */
+  public Snapshot getSnapshot() {
+    return snapshot;
+  }
+
+  /** Run every health check and replace the snapshot with their results. */
+  @Override
+  public void run() {
+    try {
+      snapshot = refresh();
+    } catch (RuntimeException | JsonProcessingException e) {
+      LOGGER.warn("Unable to refresh health check results", e);
+    }
+  }
+
+  @VisibleForTesting
+  Snapshot refresh() throws JsonProcessingException {
+    final SortedSet<String> names = healthChecks.getNames();
+    final Map<String, Future<HealthCheck.Result>> futures = new LinkedHashMap<>();
+    for (String name : names) {
+      if (running.add(name)) {
+        futures.put(name, executor.submit(() -> runHealthCheck(name)));
+      } else {
+        LOGGER.warn("Health check '{}' is still running, skipping it", name);
+        futures.put(
+            name, CompletableFuture.completedFuture(HealthCheck.Result.unhealthy("Timed out")));
+      }
+    }
+
+    final long deadline = System.nanoTime() + timeout.toNanoseconds();
+    final SortedMap<String, HealthCheck.Result> results = new TreeMap<>();
+    final Map<String, Map<String, Object>> json = new LinkedHashMap<>();
+    boolean healthy = true;
+    for (Map.Entry<String, Future<HealthCheck.Result>> entry : futures.entrySet()) {
+      final HealthCheck.Result result = await(entry.getKey(), entry.getValue(), deadline);
+      healthy &= result.isHealthy();
+      results.put(entry.getKey(), result);
+
+      final Map<String, Object> value = new LinkedHashMap<>();
+      value.put("healthy", result.isHealthy());
+      if (result.getMessage() != null) {
+        value.put("message", result.getMessage());
+      }
+      json.put(entry.getKey(), value);
+    }
+    return new Snapshot(
+        healthy, ImmutableSortedMap.copyOfSorted(results), mapper.writeValueAsBytes(json));
+  }
+
+  private HealthCheck.Result runHealthCheck(final String name) {
+    try {
+      return healthChecks.runHealthCheck(name);
+    } finally {
+      running.remove(name);
+    }
+  }
+
+  private static HealthCheck.Result await(
+      final String name, final Future<HealthCheck.Result> future, final long deadline) {
+    try {
+      return future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+    } catch (TimeoutException e) {
+      future.cancel(true);
+      LOGGER.warn("Health check '{}' timed out", name);
+      return HealthCheck.Result.unhealthy("Timed out");
+    } catch (InterruptedException e) {
+      future.cancel(true);
+      Thread.currentThread().interrupt();
+      return HealthCheck.Result.unhealthy("Interrupted");
+    } catch (ExecutionException e) {
+      return HealthCheck.Result.unhealthy(e.getCause());
+    }
+  }
+
+  /** Results of one run of the health checks, serialized once when they are computed */
+  public static final class Snapshot {
+    private final boolean healthy;
+    private final SortedMap<String, HealthCheck.Result> results;
+    private final byte[] body;
+
+    Snapshot(
+        final boolean healthy,
+        final SortedMap<String, HealthCheck.Result> results,
+        final byte[] body) {
+      this.healthy = healthy;
+      this.results = results;
+      this.body = body;
+    }
+
+    /** Return whether the health checks have not run yet */
+    public boolean isPending() {
+      return this == PENDING;
+    }
+
+    public boolean isHealthy() {
+      return healthy;
+    }
+
+    public SortedMap<String, HealthCheck.Result> getResults() {
+      return results;
+    }
+
+    public byte[] getBody() {
+      return body;
+    }
+  }
+}
@@ -45,7 +45,8 @@ public class ConsulAdvertiserManager implements Managed {
 
   @Override
   public void stop() throws Exception {
-    advertiser.deregister();
+    // stop any pending registration attempt before deregistering
     scheduler.ifPresent(ScheduledExecutorService::shutdownNow);
+    advertiser.deregister();
   }
 }
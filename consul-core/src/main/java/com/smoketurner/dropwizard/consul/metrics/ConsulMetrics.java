@@ -0,0 +1,189 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.consul.metrics;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Metrics of the calls a component makes to Consul. Metrics are recorded from the moment the
+ * component is created, and published under a prefix once {@link #registerMetrics(MetricRegistry,
+ * String) registered}, so that calls made before the Dropwizard environment exists (such as
+ * configuration lookups) are not lost. Metrics created after registration are published
+ * immediately.
+ *
+ * <p>Each call is timed with a timer named after the operation. Failed calls also mark a meter
+ * named {@code <operation>.errors} and a meter named {@code errors.<exception type>}.
+ */
+public class ConsulMetrics {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ConsulMetrics.class);
+  private final Map<String, Metric> metrics = new ConcurrentHashMap<>();
+
+  @Nullable private volatile MetricRegistry registry;
+  @Nullable private volatile String prefix;
+
+  /** A call to Consul */
+  @FunctionalInterface
+  public interface Call<T, E extends Exception> {
+    T call() throws E;
+  }
+
+  /** A call to Consul without a result */
+  @FunctionalInterface
+  public interface Task<E extends Exception> {
+    void run() throws E;
+  }
+
+  /**
+   * Time a call to Consul, counting its failures by type
+   *
+   * @param operation Name of the operation
+   * @param call Call to Consul
+   * @return result of the call
+   * @throws E if the call fails
+   */
+  public <T, E extends Exception> T time(final String operation, final Call<T, E> call) throws E {
+    final Timer.Context context = timer(operation).time();
+    try {
+      return call.call();
+    } catch (Exception e) {
+      meter(name(operation, "errors")).mark();
+      meter(name("errors", e.getClass().getSimpleName())).mark();
+      throw e;
+    } finally {
+      context.stop();
+    }
+  }
+
+  /**
+   * Time a call to Consul without a result, counting its failures by type
+   *
+   * @param operation Name of the operation
+   * @param task Call to Consul
+   * @throws E if the call fails
+   */
+  public <E extends Exception> void run(final String operation, final Task<E> task) throws E {
+    time(
+        operation,
+        () -> {
+          task.run();
+          return null;
+        });
+  }
+
+  /**
+   * Return the timer with the given name, creating it if needed
+   *
+   * @param name Timer name
+   * @return timer
+   */
+  public Timer timer(final String name) {
+    return getOrAdd(name, Timer.class, Timer::new);
+  }
+
+  /**
+   * Return the meter with the given name, creating it if needed
+   *
+   * @param name Meter name
+   * @return meter
+   */
+  public Meter meter(final String name) {
+    return getOrAdd(name, Meter.class, Meter::new);
+  }
+
+  /**
+   * Add a gauge, unless there already is a metric with that name
+   *
+   * @param name Gauge name
+   * @param gauge Gauge
+   */
+  public void gauge(final String name, final Gauge<?> gauge) {
+    getOrAdd(name, Gauge.class, () -> gauge);
+  }
+
+  /**
+   * Publish every metric, current and future, to a registry
+   *
+   * @param metricRegistry Metric registry
+   * @param metricPrefix Prefix of the metric names
+   */
+  public synchronized void registerMetrics(
+      final MetricRegistry metricRegistry, final String metricPrefix) {
+    this.registry = Objects.requireNonNull(metricRegistry);
+    this.prefix = Objects.requireNonNull(metricPrefix);
+    metrics.forEach(this::publish);
+  }
+
+  private <M extends Metric> M getOrAdd(
+      final String name, final Class<M> type, final Supplier<M> factory) {
+    // every call to Consul looks up its metrics, so existing metrics are read without locking
+    final Metric existing = metrics.get(name);
+    if (existing != null) {
+      return cast(name, type, existing);
+    }
+    return add(name, type, factory);
+  }
+
+  private synchronized <M extends Metric> M add(
+      final String name, final Class<M> type, final Supplier<M> factory) {
+    final Metric existing = metrics.get(name);
+    if (existing != null) {
+      return cast(name, type, existing);
+    }
+    final M metric = factory.get();
+    metrics.put(name, metric);
+    publish(name, metric);
+    return metric;
+  }
+
+  private static <M extends Metric> M cast(
+      final String name, final Class<M> type, final Metric metric) {
+    if (!type.isInstance(metric)) {
+      throw new IllegalArgumentException(name + " is already used for a different metric");
+    }
+    return type.cast(metric);
+  }
+
+  private void publish(final String name, final Metric metric) {
+    final MetricRegistry metricRegistry = registry;
+    if (metricRegistry == null || prefix == null) {
+      return;
+    }
+    final String fullName = name(prefix, name);
+    try {
+      metricRegistry.register(fullName, metric);
+    } catch (IllegalArgumentException e) {
+      if (metricRegistry.getMetrics().get(fullName) != metric) {
+        LOGGER.warn(
+            "Metric {} is already registered by another component, its values are not published",
+            fullName);
+      }
+    }
+  }
+}
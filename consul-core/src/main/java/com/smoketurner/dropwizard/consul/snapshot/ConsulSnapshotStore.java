@@ -0,0 +1,256 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.consul.snapshot;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.orbitz.consul.model.health.ServiceHealth;
+import io.dropwizard.jackson.Jackson;
+import io.dropwizard.lifecycle.Managed;
+import io.dropwizard.util.Duration;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A local snapshot of the last known Consul KV values and healthy service instances, so that an
+ * application can start while Consul is slow or unavailable. The snapshot is loaded once when the
+ * store is created, and changes are written back to disk after a short debounce delay. Writes go to
+ * a temporary file that atomically replaces the snapshot, so a crash never leaves a partially
+ * written snapshot behind.
+ */
+public class ConsulSnapshotStore implements Managed {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ConsulSnapshotStore.class);
+  private static final Duration DEFAULT_DEBOUNCE = Duration.seconds(1);
+
+  private final ObjectMapper mapper = Jackson.newObjectMapper();
+  private final Path path;
+  private final long debounceMs;
+  private final ConcurrentMap<String, String> values = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, List<ServiceHealth>> services = new ConcurrentHashMap<>();
+  private final AtomicBoolean scheduled = new AtomicBoolean(false);
+  private final ScheduledExecutorService scheduler;
+
+  /**
+   * Constructor
+   *
+   * @param path Snapshot file
+   */
+  public ConsulSnapshotStore(final Path path) {
+    this(path, DEFAULT_DEBOUNCE);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param path Snapshot file
+   * @param debounce Delay between a change and writing the snapshot, to batch changes together
+   */
+  public ConsulSnapshotStore(final Path path, final Duration debounce) {
+    this.path = Objects.requireNonNull(path);
+    this.debounceMs = debounce.toMilliseconds();
+    this.scheduler =
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("consul-snapshot-%d").setDaemon(true).build());
+    load();
+  }
+
+  /**
+   * Return the snapshot file
+   *
+   * @return snapshot file
+   */
+  public Path getPath() {
+    return path;
+  }
+
+  /**
+   * Return the last known value of a key
+   *
+   * @param key Key
+   * @return the value, or empty if the key is not in the snapshot
+   */
+  public Optional<String> getValue(final String key) {
+    return Optional.ofNullable(values.get(key));
+  }
+
+  /**
+   * Record the current value of a key
+   *
+   * @param key Key
+   * @param value Current value, or empty if the key does not exist
+   */
+  public void putValue(final String key, final Optional<String> value) {
+    final boolean changed;
+    if (value.isPresent()) {
+      changed = !value.get().equals(values.put(key, value.get()));
+    } else {
+      changed = values.remove(key) != null;
+    }
+    if (changed) {
+      scheduleFlush();
+    }
+  }
+
+  /**
+   * Return the last known healthy instances of a service
+   *
+   * @param service Service name
+   * @return healthy instances, or empty if the service is not in the snapshot
+   */
+  public Optional<List<ServiceHealth>> getService(final String service) {
+    return Optional.ofNullable(services.get(service));
+  }
+
+  /**
+   * Record the current healthy instances of a service
+   *
+   * @param service Service name
+   * @param instances Healthy instances
+   */
+  public void putService(final String service, final Collection<ServiceHealth> instances) {
+    final List<ServiceHealth> list = ImmutableList.copyOf(instances);
+    if (!list.equals(services.put(service, list))) {
+      scheduleFlush();
+    }
+  }
+
+  /**
+   * Write the snapshot to disk now
+   *
+   * @throws IOException if the snapshot cannot be written
+   */
+  public void flush() throws IOException {
+    scheduled.set(false);
+    final Snapshot snapshot = new Snapshot();
+    snapshot.values = ImmutableMap.copyOf(values);
+    snapshot.services = ImmutableMap.copyOf(services);
+    final byte[] bytes = mapper.writeValueAsBytes(snapshot);
+
+    synchronized (this) {
+      @Nullable final Path parent = path.toAbsolutePath().getParent();
+      if (parent != null) {
+        Files.createDirectories(parent);
+      }
+      final Path temp = Files.createTempFile(parent, path.getFileName().toString(), ".tmp");
+      try {
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+          final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+          while (buffer.hasRemaining()) {
+            channel.write(buffer);
+          }
+          channel.force(true);
+        }
+        try {
+          Files.move(
+              temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+          Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+      } finally {
+        Files.deleteIfExists(temp);
+      }
+    }
+    LOGGER.debug("Wrote Consul snapshot to {} ({} bytes)", path, bytes.length);
+  }
+
+  @Override
+  public void start() throws Exception {
+    // the snapshot is loaded when the store is created
+  }
+
+  @Override
+  public void stop() throws Exception {
+    scheduler.shutdownNow();
+    if (scheduled.get()) {
+      flush();
+    }
+  }
+
+  private void scheduleFlush() {
+    if (scheduled.compareAndSet(false, true)) {
+      scheduler.schedule(this::flushQuietly, debounceMs, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private void flushQuietly() {
+    try {
+      flush();
+    } catch (IOException e) {
+      LOGGER.warn("Unable to write Consul snapshot to {}", path, e);
+    }
+  }
+
+  /** Load the snapshot file, if it exists, by mapping it into memory. */
+  private void load() {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      final long size = channel.size();
+      if (size == 0) {
+        return;
+      }
+      final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      final Snapshot snapshot;
+      try (InputStream input = new ByteBufferBackedInputStream(buffer)) {
+        snapshot = mapper.readValue(input, Snapshot.class);
+      }
+      values.putAll(snapshot.values);
+      services.putAll(snapshot.services);
+      LOGGER.info(
+          "Loaded Consul snapshot from {} ({} values, {} services)",
+          path,
+          values.size(),
+          services.size());
+    } catch (NoSuchFileException e) {
+      LOGGER.debug("No Consul snapshot found at {}", path);
+    } catch (IOException | RuntimeException e) {
+      LOGGER.warn("Unable to read Consul snapshot from {}, ignoring it", path, e);
+    }
+  }
+
+  /** Serialized form of the snapshot */
+  static final class Snapshot {
+    @JsonProperty private Map<String, String> values = new HashMap<>();
+    @JsonProperty private Map<String, List<ServiceHealth>> services = new HashMap<>();
+  }
+}
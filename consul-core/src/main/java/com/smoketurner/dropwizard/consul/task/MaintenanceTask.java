@@ -15,8 +15,11 @@
  */
 package com.smoketurner.dropwizard.consul.task;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
 import com.google.common.base.Strings;
 import com.orbitz.consul.Consul;
+import com.smoketurner.dropwizard.consul.metrics.ConsulMetrics;
 import io.dropwizard.servlets.tasks.Task;
 import java.io.PrintWriter;
 import java.util.List;
@@ -30,6 +33,8 @@ public class MaintenanceTask extends Task {
   private static final Logger LOGGER = LoggerFactory.getLogger(MaintenanceTask.class);
   private final Consul consul;
   private final String serviceId;
+  private final ConsulMetrics metrics = new ConsulMetrics();
+  private volatile boolean maintenance = false;
 
   /**
    * Constructor
@@ -41,6 +46,17 @@ public class MaintenanceTask extends Task {
     super("maintenance");
     this.consul = Objects.requireNonNull(consul);
     this.serviceId = Objects.requireNonNull(serviceId);
+    metrics.gauge("enabled", (Gauge<Integer>) () -> maintenance ? 1 : 0);
+  }
+
+  /**
+   * Register the timer and error meters of the maintenance toggles, and a gauge reporting whether
+   * maintenance mode was last enabled or disabled
+   *
+   * @param metricRegistry Metric registry
+   */
+  public void registerMetrics(final MetricRegistry metricRegistry) {
+    metrics.registerMetrics(metricRegistry, MetricRegistry.name(MaintenanceTask.class));
   }
 
   @Override
@@ -68,7 +84,9 @@ public class MaintenanceTask extends Task {
       LOGGER.warn("Disabling maintenance mode for service {}", serviceId);
     }
 
-    consul.agentClient().toggleMaintenanceMode(serviceId, enable, reason);
+    metrics.run(
+        "toggle", () -> consul.agentClient().toggleMaintenanceMode(serviceId, enable, reason));
+    maintenance = enable;
 
     output.println("OK");
     output.flush();
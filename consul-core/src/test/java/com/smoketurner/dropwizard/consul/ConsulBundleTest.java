@@ -16,6 +16,7 @@
 package com.smoketurner.dropwizard.consul;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
@@ -23,8 +24,14 @@ import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
+import com.orbitz.consul.ConsulException;
+import com.smoketurner.dropwizard.consul.testing.FakeConsulServer;
 import io.dropwizard.Configuration;
 import io.dropwizard.setup.Environment;
+import io.dropwizard.util.Duration;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -89,6 +96,49 @@ public class ConsulBundleTest {
     assertThat(factory.getServiceName()).isEqualTo("test-service-name");
   }
 
+  @Test
+  public void testReconciliationRegistersAfterRegistrationWasGivenUp() throws Exception {
+    try (FakeConsulServer consul = new FakeConsulServer()) {
+      final ConsulFactory consulFactory = new ConsulFactory();
+      consulFactory.setEndpoint(consul.getHostAndPort());
+      consulFactory.setSeviceName("test");
+      consulFactory.setServiceId("test-1");
+      consulFactory.setServiceAddress("127.0.0.1");
+      consulFactory.setRegistrationAttempts(1);
+      consulFactory.setReconcileInterval(Duration.milliseconds(100));
+      final ConsulBundle<TestConfiguration> consulBundle =
+          new ConsulBundle<TestConfiguration>("test") {
+            @Override
+            public ConsulFactory getConsulFactory(TestConfiguration c) {
+              return consulFactory;
+            }
+          };
+      final Environment env = new Environment("test");
+      consulBundle.run(config, env);
+
+      final Server jetty = new Server();
+      final ServerConnector connector = new ServerConnector(jetty);
+      connector.setHost("127.0.0.1");
+      jetty.addConnector(connector);
+      env.lifecycle().attach(jetty);
+      consul.setFailureRate(1.0);
+      jetty.start();
+      try {
+        assertThatThrownBy(() -> consulBundle.getRegistration().get().get(5, TimeUnit.SECONDS))
+            .hasCauseInstanceOf(ConsulException.class);
+
+        // the agent is back, the reconciliation registers the service
+        consul.setFailureRate(0.0);
+        for (int i = 0; i < 100 && !consul.isRegistered("test-1"); i++) {
+          Thread.sleep(50);
+        }
+        assertThat(consul.isRegistered("test-1")).isTrue();
+      } finally {
+        jetty.stop();
+      }
+    }
+  }
+
   @Test
   public void testAclToken() throws Exception {
     String token = "acl-token";
@@ -75,6 +75,20 @@ public class ConsulFactoryTest {
     assertThat(consulFactory.getServiceName()).isEqualTo(serviceName);
   }
 
+  @Test
+  public void testCheckTtlMustBeLongerThanCheckInterval() {
+    final ConsulFactory factory = new ConsulFactory();
+    factory.setCheckInterval(Duration.seconds(10));
+    factory.setCheckTtl(Duration.seconds(20));
+    assertThat(factory.isCheckTtlLongEnough()).isTrue();
+
+    factory.setCheckMode(ConsulFactory.CheckMode.TTL);
+    assertThat(factory.isCheckTtlLongEnough()).isFalse();
+
+    factory.setCheckTtl(Duration.seconds(40));
+    assertThat(factory.isCheckTtlLongEnough()).isTrue();
+  }
+
   private ConsulFactory createFullyPopulatedConsulFactory() {
     final ConsulFactory consulFactory = new ConsulFactory();
     consulFactory.setSeviceName("serviceName");
@@ -0,0 +1,157 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.consul.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.BaseEncoding;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.orbitz.consul.Consul;
+import com.orbitz.consul.KeyValueClient;
+import com.orbitz.consul.model.ConsulResponse;
+import com.orbitz.consul.model.kv.ImmutableValue;
+import com.orbitz.consul.model.kv.Value;
+import com.orbitz.consul.option.QueryOptions;
+import com.smoketurner.dropwizard.consul.testing.FakeConsulServer;
+import io.dropwizard.util.Duration;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConsulKeyWatcherTest {
+
+  private final BlockingQueue<KeyChangeEvent<Integer>> events = new LinkedBlockingQueue<>();
+  private FakeConsulServer server;
+  private Consul consul;
+  private ConsulKeyWatcher watcher;
+
+  @Before
+  public void setUp() throws Exception {
+    server = new FakeConsulServer();
+    consul = server.newClient();
+    server.putValue("app/pool", "10");
+    watcher =
+        new ConsulKeyWatcher(
+            consul, ImmutableMap.of("app/pool", Optional.of("10")), Duration.seconds(1));
+    watcher.addListener("app/pool", Integer::valueOf, events::add);
+    watcher.start();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    watcher.stop();
+    consul.destroy();
+    server.close();
+  }
+
+  @Test
+  public void testChange() throws Exception {
+    server.putValue("app/other", "unrelated");
+    server.putValue("app/pool", "20");
+
+    assertThat(events.poll(5, TimeUnit.SECONDS))
+        .isEqualTo(new KeyChangeEvent<>("app/pool", Optional.of(10), Optional.of(20)));
+    assertThat(watcher.getValue("app/pool")).contains("20");
+    assertThat(watcher.getKeys()).containsOnly("app/pool");
+  }
+
+  @Test
+  public void testInvalidValueIsSkipped() throws Exception {
+    server.putValue("app/pool", "twenty");
+    server.putValue("app/pool", "30");
+
+    assertThat(events.poll(5, TimeUnit.SECONDS))
+        .isEqualTo(new KeyChangeEvent<>("app/pool", Optional.of(10), Optional.of(30)));
+  }
+
+  @Test
+  public void testDelete() throws Exception {
+    server.deleteValue("app/pool");
+
+    assertThat(events.poll(5, TimeUnit.SECONDS))
+        .isEqualTo(new KeyChangeEvent<>("app/pool", Optional.of(10), Optional.empty()));
+    assertThat(watcher.getValue("app/pool")).isEmpty();
+  }
+
+  @Test
+  public void testAddListenerForNewKey() throws Exception {
+    server.putValue("feature", "false");
+    final BlockingQueue<KeyChangeEvent<Boolean>> toggles = new LinkedBlockingQueue<>();
+    watcher.addListener("feature", Boolean::valueOf, toggles::add);
+
+    server.putValue("feature", "true");
+
+    assertThat(toggles.poll(5, TimeUnit.SECONDS))
+        .isEqualTo(new KeyChangeEvent<>("feature", Optional.of(false), Optional.of(true)));
+  }
+
+  @Test
+  public void testWatchRecoversFromUnexpectedException() throws Exception {
+    final Consul mockConsul = mock(Consul.class);
+    final KeyValueClient keyValueClient = mock(KeyValueClient.class);
+    final ConsulResponse<List<Value>> response =
+        new ConsulResponse<>(
+            ImmutableList.of(
+                ImmutableValue.builder()
+                    .createIndex(1)
+                    .modifyIndex(5)
+                    .lockIndex(0)
+                    .key("app/pool")
+                    .flags(0)
+                    .value(BaseEncoding.base64().encode("20".getBytes(StandardCharsets.UTF_8)))
+                    .build()),
+            0,
+            true,
+            BigInteger.valueOf(5),
+            Optional.empty());
+    when(mockConsul.keyValueClient()).thenReturn(keyValueClient);
+    when(keyValueClient.getConsulResponseWithValues(eq("app/pool"), any(QueryOptions.class)))
+        .thenThrow(new IllegalStateException("unexpected"))
+        .thenReturn(response)
+        .thenAnswer(
+            invocation -> {
+              // stands in for a blocking query that does not see a change
+              Uninterruptibles.sleepUninterruptibly(100, TimeUnit.MILLISECONDS);
+              return response;
+            });
+
+    final ConsulKeyWatcher mockWatcher =
+        new ConsulKeyWatcher(
+            mockConsul, ImmutableMap.of("app/pool", Optional.of("10")), Duration.seconds(1));
+    final BlockingQueue<KeyChangeEvent<Integer>> changes = new LinkedBlockingQueue<>();
+    mockWatcher.addListener("app/pool", Integer::valueOf, changes::add);
+    mockWatcher.start();
+    try {
+      assertThat(changes.poll(5, TimeUnit.SECONDS))
+          .isEqualTo(new KeyChangeEvent<>("app/pool", Optional.of(10), Optional.of(20)));
+    } finally {
+      mockWatcher.stop();
+    }
+  }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.consul.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.entry;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.orbitz.consul.Consul;
+import com.smoketurner.dropwizard.consul.snapshot.ConsulSnapshotStore;
+import com.smoketurner.dropwizard.consul.testing.FakeConsulServer;
+import io.dropwizard.configuration.UndefinedEnvironmentVariableException;
+import io.dropwizard.util.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ConsulLookupTest {
+
+  @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+  private FakeConsulServer server;
+  private Consul consul;
+
+  @Before
+  public void setUp() throws Exception {
+    server = new FakeConsulServer();
+    consul = server.newClient();
+    server.putValue("database/url", "jdbc:postgresql://db/app");
+  }
+
+  @After
+  public void tearDown() {
+    consul.destroy();
+    server.close();
+  }
+
+  @Test
+  public void testLookup() {
+    final ConsulLookup lookup = new ConsulLookup(consul);
+    assertThat(lookup.lookup("database/url")).isEqualTo("jdbc:postgresql://db/app");
+  }
+
+  @Test
+  public void testLookupMissingStrict() {
+    final ConsulLookup lookup = new ConsulLookup(consul);
+    assertThatThrownBy(() -> lookup.lookup("database/user"))
+        .isInstanceOf(UndefinedEnvironmentVariableException.class);
+  }
+
+  @Test
+  public void testLookupMissingNotStrict() {
+    final ConsulLookup lookup = new ConsulLookup(consul, false);
+    assertThat(lookup.lookup("database/user")).isNull();
+  }
+
+  @Test
+  public void testLookupFailureNotStrict() {
+    final ConsulLookup lookup = new ConsulLookup(consul, false);
+    server.failNextRequests(1);
+    assertThat(lookup.lookup("database/url")).isNull();
+    assertThat(lookup.lookup("database/url")).isEqualTo("jdbc:postgresql://db/app");
+  }
+
+  @Test
+  public void testPrefetch() {
+    server.putValue("database/user", "app");
+    server.putValue("cache/ttl", "60");
+
+    final ConsulLookup lookup = new ConsulLookup(consul, false);
+    lookup.prefetch(ImmutableList.of("database/url", "database/user", "database/missing"));
+    final long requests = server.getRequestCount();
+
+    assertThat(lookup.lookup("database/url")).isEqualTo("jdbc:postgresql://db/app");
+    assertThat(lookup.lookup("database/user")).isEqualTo("app");
+    assertThat(server.getRequestCount()).isEqualTo(requests);
+
+    // a key missing from the prefix may only be hidden from listings, so it is still fetched
+    assertThat(lookup.lookup("database/missing")).isNull();
+    assertThat(server.getRequestCount()).isEqualTo(requests + 1);
+
+    assertThat(lookup.lookup("cache/ttl")).isEqualTo("60");
+    assertThat(server.getRequestCount()).isEqualTo(requests + 2);
+  }
+
+  @Test
+  public void testPrefetchFallsBackForUnlistedKeys() {
+    server.putValue("database/password", "secret");
+    server.unlistValue("database/password");
+
+    final ConsulLookup lookup = new ConsulLookup(consul);
+    lookup.prefetch(ImmutableList.of("database/url", "database/password"));
+
+    assertThat(lookup.lookup("database/url")).isEqualTo("jdbc:postgresql://db/app");
+    assertThat(lookup.lookup("database/password")).isEqualTo("secret");
+  }
+
+  @Test
+  public void testPrefetchFailureFallsBack() {
+    server.putValue("database/user", "app");
+    final ConsulLookup lookup = new ConsulLookup(consul);
+    server.failNextRequests(1);
+    lookup.prefetch(ImmutableList.of("database/url", "database/user"));
+    assertThat(lookup.lookup("database/url")).isEqualTo("jdbc:postgresql://db/app");
+  }
+
+  @Test
+  public void testPrefetchOnlyFetchesTheDirectoryOfTheKeys() {
+    server.putValue("config/app/db/url", "jdbc:postgresql://db/app");
+    server.putValue("config/app/port", "8080");
+    server.putValue("config/other/port", "9090");
+
+    final ConsulLookup lookup = new ConsulLookup(consul, false);
+    lookup.prefetch(ImmutableList.of("config/app/db/url", "config/app/port"));
+    final long requests = server.getRequestCount();
+
+    assertThat(lookup.lookup("config/app/db/url")).isEqualTo("jdbc:postgresql://db/app");
+    assertThat(lookup.lookup("config/app/port")).isEqualTo("8080");
+    assertThat(server.getRequestCount()).isEqualTo(requests);
+
+    // the sibling directory of another application was not downloaded
+    assertThat(lookup.lookup("config/other/port")).isEqualTo("9090");
+    assertThat(server.getRequestCount()).isEqualTo(requests + 1);
+  }
+
+  @Test
+  public void testPrefetchSkipsLoneKeys() {
+    final ConsulLookup lookup = new ConsulLookup(consul, false);
+    final long requests = server.getRequestCount();
+    lookup.prefetch(ImmutableList.of("database/url"));
+    assertThat(server.getRequestCount()).isEqualTo(requests);
+  }
+
+  @Test
+  public void testGroupByPrefix() {
+    assertThat(
+            ConsulLookup.groupByPrefix(
+                ImmutableList.of(
+                    "config/app/db/url",
+                    "config/app/db/user",
+                    "config/app/port",
+                    "config/other/port",
+                    "feature")))
+        .containsOnly(
+            entry(
+                "config/app/",
+                ImmutableSet.of("config/app/db/url", "config/app/db/user", "config/app/port")),
+            entry("config/other/port", ImmutableSet.of("config/other/port")),
+            entry("feature", ImmutableSet.of("feature")));
+  }
+
+  @Test
+  public void testResolveConcurrently() {
+    for (int i = 0; i < 10; i++) {
+      server.putValue("key-" + i, "value-" + i);
+    }
+    final List<String> keys = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      keys.add("key-" + i);
+    }
+    server.setLatency(100, TimeUnit.MILLISECONDS);
+
+    final ConsulLookup lookup = new ConsulLookup(consul, true, 10);
+    final long start = System.nanoTime();
+    lookup.resolve(keys);
+    assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(900L);
+    assertThat(lookup.getTimings()).containsOnlyKeys(keys);
+
+    final long requests = server.getRequestCount();
+    for (String key : keys) {
+      assertThat(lookup.lookup(key)).isEqualTo(key.replace("key", "value"));
+    }
+    assertThat(server.getRequestCount()).isEqualTo(requests);
+  }
+
+  @Test
+  public void testLookupIsMemoized() {
+    final ConsulLookup lookup = new ConsulLookup(consul, false);
+    assertThat(lookup.lookup("database/url")).isEqualTo("jdbc:postgresql://db/app");
+    assertThat(lookup.lookup("database/missing")).isNull();
+    final long requests = server.getRequestCount();
+    assertThat(lookup.lookup("database/url")).isEqualTo("jdbc:postgresql://db/app");
+    assertThat(lookup.lookup("database/missing")).isNull();
+    assertThat(server.getRequestCount()).isEqualTo(requests);
+  }
+
+  @Test
+  public void testSnapshotFallback() throws Exception {
+    final ConsulSnapshotStore snapshot =
+        new ConsulSnapshotStore(
+            folder.getRoot().toPath().resolve("consul.json"), Duration.hours(1));
+    final ConsulLookup online = new ConsulLookup(consul, true, 1, Optional.of(snapshot));
+    assertThat(online.lookup("database/url")).isEqualTo("jdbc:postgresql://db/app");
+
+    server.setFailureRate(1.0);
+    final ConsulLookup offline = new ConsulLookup(consul, true, 1, Optional.of(snapshot));
+    assertThat(offline.lookup("database/url")).isEqualTo("jdbc:postgresql://db/app");
+    assertThatThrownBy(() -> offline.lookup("database/user"))
+        .isInstanceOf(UndefinedEnvironmentVariableException.class);
+  }
+
+  @Test
+  public void testFindVariables() {
+    assertThat(
+            ConsulSubstitutor.findVariables(
+                "a: ${database/url}\nb: ${cache/ttl:-30}\nc: $${escaped}\nd: ${x/${y}}"))
+        .containsExactly("database/url", "cache/ttl", "y");
+  }
+
+  @Test
+  public void testSubstitutorPrefetch() {
+    server.putValue("database/user", "app");
+    final ConsulSubstitutor substitutor = new ConsulSubstitutor(consul, true, false, true);
+    final long requests = server.getRequestCount();
+    assertThat(substitutor.replace("${database/url} ${database/user}"))
+        .isEqualTo("jdbc:postgresql://db/app app");
+    assertThat(server.getRequestCount()).isEqualTo(requests + 1);
+  }
+
+  @Test
+  public void testSubstitutor() {
+    final ConsulSubstitutor substitutor = new ConsulSubstitutor(consul, false, false);
+    assertThat(substitutor.replace("url: ${database/url}"))
+        .isEqualTo("url: jdbc:postgresql://db/app");
+  }
+}
@@ -16,6 +16,7 @@
 package com.smoketurner.dropwizard.consul.core;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.anyLong;
@@ -24,6 +25,7 @@ import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -33,6 +35,9 @@ import com.orbitz.consul.Consul;
 import com.orbitz.consul.ConsulException;
 import com.orbitz.consul.model.agent.ImmutableRegCheck;
 import com.orbitz.consul.model.agent.ImmutableRegistration;
+import com.orbitz.consul.model.agent.Registration;
+import com.orbitz.consul.model.health.ImmutableService;
+import com.orbitz.consul.model.health.Service;
 import com.smoketurner.dropwizard.consul.ConsulFactory;
 import io.dropwizard.jetty.MutableServletContextHandler;
 import io.dropwizard.setup.Environment;
@@ -430,4 +435,50 @@ public class ConsulAdvertiserTest {
     advertiser.deregister();
     verify(agent).deregister(anyString());
   }
+
+  @Test
+  public void testReconcileBeforeRegister() {
+    assertThat(advertiser.reconcile()).isFalse();
+    verify(agent, never()).getServices();
+  }
+
+  @Test
+  public void testReconcileUnchanged() {
+    when(agent.isRegistered(serviceId)).thenReturn(false);
+    advertiser.register("http", 8080, 8081);
+    when(agent.getServices()).thenReturn(ImmutableMap.of(serviceId, service(8080)));
+
+    assertThat(advertiser.reconcile()).isFalse();
+    verify(agent, times(1)).register(any(Registration.class));
+  }
+
+  @Test
+  public void testReconcileLost() {
+    when(agent.isRegistered(serviceId)).thenReturn(false);
+    advertiser.register("http", 8080, 8081);
+    when(agent.getServices()).thenReturn(ImmutableMap.of());
+
+    assertThat(advertiser.reconcile()).isTrue();
+    verify(agent, times(2)).register(any(Registration.class));
+  }
+
+  @Test
+  public void testReconcileDrifted() {
+    when(agent.isRegistered(serviceId)).thenReturn(false);
+    advertiser.register("http", 8080, 8081);
+    when(agent.getServices()).thenReturn(ImmutableMap.of(serviceId, service(9090)));
+
+    assertThat(advertiser.reconcile()).isTrue();
+    verify(agent, times(2)).register(any(Registration.class));
+  }
+
+  private Service service(int port) {
+    return ImmutableService.builder()
+        .id(serviceId)
+        .service("test")
+        .address("")
+        .port(port)
+        .meta(ImmutableMap.of("scheme", "http"))
+        .build();
+  }
 }
@@ -15,11 +15,14 @@
  */
 package com.smoketurner.dropwizard.consul.core;
 
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyCollection;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -30,6 +33,7 @@ import java.util.Collection;
 import java.util.Optional;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -66,4 +70,71 @@ public class ConsulServiceListenerTest {
 
     verify(advertiser, timeout(100).atLeast(1)).register("http", 0, 0, hosts);
   }
+
+  @Test
+  public void testRegistrationFuture() throws Exception {
+    final ConsulServiceListener listener =
+        new ConsulServiceListener(
+            advertiser, Optional.of(Duration.milliseconds(1)), Optional.of(scheduler));
+
+    when(advertiser.register(any(), anyInt(), anyInt(), anyCollection()))
+        .thenThrow(new ConsulException("Cannot connect to Consul"))
+        .thenReturn(true);
+
+    listener.register("http", 0, 0, Sets.of("192.168.1.22"));
+
+    assertThat(listener.getRegistration().get(1, TimeUnit.SECONDS)).isTrue();
+  }
+
+  @Test
+  public void testAttemptBudget() throws Exception {
+    final ConsulServiceListener listener =
+        new ConsulServiceListener(
+            advertiser,
+            Optional.of(Duration.milliseconds(1)),
+            Optional.of(scheduler),
+            Duration.milliseconds(2),
+            Optional.of(3));
+
+    when(advertiser.register(any(), anyInt(), anyInt(), anyCollection()))
+        .thenThrow(new ConsulException("Cannot connect to Consul"));
+
+    final Collection<String> hosts = Sets.of("192.168.1.22");
+    listener.register("http", 0, 0, hosts);
+
+    assertThatThrownBy(() -> listener.getRegistration().get(1, TimeUnit.SECONDS))
+        .hasCauseInstanceOf(ConsulException.class);
+    verify(advertiser, times(3)).register("http", 0, 0, hosts);
+  }
+
+  @Test
+  public void testNoRetry() {
+    final ConsulServiceListener listener =
+        new ConsulServiceListener(advertiser, Optional.empty(), Optional.of(scheduler));
+
+    when(advertiser.register(any(), anyInt(), anyInt(), anyCollection()))
+        .thenThrow(new ConsulException("Cannot connect to Consul"));
+
+    listener.register("http", 0, 0, Sets.of("192.168.1.22"));
+
+    assertThat(listener.getRegistration()).isCompletedExceptionally();
+  }
+
+  @Test
+  public void testRetryDelay() {
+    final ConsulServiceListener listener =
+        new ConsulServiceListener(
+            advertiser,
+            Optional.of(Duration.seconds(1)),
+            Optional.of(scheduler),
+            Duration.seconds(30),
+            Optional.empty());
+
+    for (int i = 0; i < 100; i++) {
+      assertThat(listener.getRetryDelay(Duration.seconds(1), 1)).isBetween(500L, 1000L);
+      assertThat(listener.getRetryDelay(Duration.seconds(1), 3)).isBetween(2000L, 4000L);
+      assertThat(listener.getRetryDelay(Duration.seconds(1), 10)).isBetween(15000L, 30000L);
+      assertThat(listener.getRetryDelay(Duration.seconds(1), 100)).isBetween(15000L, 30000L);
+    }
+  }
 }
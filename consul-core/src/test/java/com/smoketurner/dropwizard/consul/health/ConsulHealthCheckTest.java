@@ -16,15 +16,21 @@
 package com.smoketurner.dropwizard.consul.health;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.health.HealthCheck.Result;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.orbitz.consul.AgentClient;
 import com.orbitz.consul.Consul;
 import com.orbitz.consul.ConsulException;
+import io.dropwizard.util.Duration;
+import java.util.concurrent.CountDownLatch;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -53,4 +59,62 @@ public class ConsulHealthCheckTest {
     verify(agent).ping();
     assertThat(actual.isHealthy()).isFalse();
   }
+
+  @Test
+  public void testBackgroundCheckIsCached() throws Exception {
+    final MetricRegistry metrics = new MetricRegistry();
+    final ConsulHealthCheck background =
+        new ConsulHealthCheck(consul, metrics, Duration.minutes(1), Duration.seconds(1), 2);
+    try {
+      background.probe();
+      assertThat(background.check().isHealthy()).isTrue();
+      assertThat(background.check().isHealthy()).isTrue();
+      verify(agent, times(1)).ping();
+      final String name = MetricRegistry.name(ConsulHealthCheck.class, "ping-latency");
+      assertThat(metrics.histogram(name).getCount()).isEqualTo(1);
+    } finally {
+      background.stop();
+    }
+  }
+
+  @Test
+  public void testBackgroundCheckUnhealthyAfterConsecutiveFailures() throws Exception {
+    doThrow(new ConsulException("error")).when(agent).ping();
+    final ConsulHealthCheck background =
+        new ConsulHealthCheck(
+            consul, new MetricRegistry(), Duration.minutes(1), Duration.seconds(1), 2);
+    try {
+      background.probe();
+      assertThat(background.check().isHealthy()).isTrue();
+      background.probe();
+      assertThat(background.check().isHealthy()).isFalse();
+    } finally {
+      background.stop();
+    }
+  }
+
+  @Test
+  public void testHungPingIsNotSentAgain() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    doAnswer(
+            invocation -> {
+              // like blocking socket I/O, ignores interruption
+              Uninterruptibles.awaitUninterruptibly(release);
+              return null;
+            })
+        .when(agent)
+        .ping();
+    final ConsulHealthCheck background =
+        new ConsulHealthCheck(
+            consul, new MetricRegistry(), Duration.minutes(1), Duration.milliseconds(50), 2);
+    try {
+      background.probe();
+      background.probe();
+      assertThat(background.check().isHealthy()).isFalse();
+      verify(agent, times(1)).ping();
+    } finally {
+      release.countDown();
+      background.stop();
+    }
+  }
 }
@@ -0,0 +1,184 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.consul.health;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.codahale.metrics.health.HealthCheck;
+import com.codahale.metrics.health.HealthCheckRegistry;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableSet;
+import com.orbitz.consul.AgentClient;
+import com.orbitz.consul.Consul;
+import com.orbitz.consul.ConsulException;
+import com.orbitz.consul.NotRegisteredException;
+import io.dropwizard.jackson.Jackson;
+import io.dropwizard.util.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConsulTtlCheckTest {
+
+  private static final String CHECK_ID = "service:test";
+
+  private final Consul consul = mock(Consul.class);
+  private final AgentClient agent = mock(AgentClient.class);
+  private final HealthCheckRegistry registry = new HealthCheckRegistry();
+  private final AtomicReference<HealthCheck.Result> database =
+      new AtomicReference<>(HealthCheck.Result.healthy());
+  private final AtomicReference<HealthCheck.Result> cache =
+      new AtomicReference<>(HealthCheck.Result.healthy());
+  private final AtomicInteger runs = new AtomicInteger();
+  private final AtomicLong nanos = new AtomicLong();
+  private final Ticker ticker =
+      new Ticker() {
+        @Override
+        public long read() {
+          return nanos.get();
+        }
+      };
+  private final HealthCheckCache healthCheckCache =
+      new HealthCheckCache(
+          registry, Jackson.newObjectMapper(), Duration.seconds(1), Duration.seconds(5));
+  private final ConsulTtlCheck check =
+      new ConsulTtlCheck(
+          consul,
+          healthCheckCache,
+          CHECK_ID,
+          Duration.seconds(30),
+          ImmutableSet.of("cache"),
+          ticker);
+
+  @Before
+  public void setUp() {
+    when(consul.agentClient()).thenReturn(agent);
+    registry.register(
+        "database",
+        new HealthCheck() {
+          @Override
+          protected Result check() {
+            runs.incrementAndGet();
+            return database.get();
+          }
+        });
+    registry.register(
+        "cache",
+        new HealthCheck() {
+          @Override
+          protected Result check() {
+            return cache.get();
+          }
+        });
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    healthCheckCache.stop();
+  }
+
+  @Test
+  public void testDoesNotPushBeforeChecksRan() throws Exception {
+    check.run();
+    verify(agent, never()).pass(anyString(), anyString());
+    verify(agent, never()).fail(anyString(), anyString());
+  }
+
+  @Test
+  public void testUsesCachedResults() throws Exception {
+    healthCheckCache.run();
+    check.run();
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(15));
+    check.run();
+    verify(agent, times(2)).pass(CHECK_ID, "");
+    assertThat(runs.get()).isEqualTo(1);
+
+    database.set(HealthCheck.Result.unhealthy("down"));
+    check.run();
+    verify(agent, never()).fail(anyString(), anyString());
+    healthCheckCache.run();
+    check.run();
+    verify(agent).fail(CHECK_ID, "database: down");
+  }
+
+  @Test
+  public void testPushesOnlyOnChangeOrHalfTtl() throws Exception {
+    healthCheckCache.run();
+    check.run();
+    check.run();
+    verify(agent, times(1)).pass(CHECK_ID, "");
+
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(15));
+    check.run();
+    verify(agent, times(2)).pass(CHECK_ID, "");
+
+    database.set(HealthCheck.Result.unhealthy("down"));
+    healthCheckCache.run();
+    check.run();
+    verify(agent).fail(CHECK_ID, "database: down");
+  }
+
+  @Test
+  public void testNonCriticalCheckWarns() throws Exception {
+    cache.set(HealthCheck.Result.unhealthy("slow"));
+    healthCheckCache.run();
+    check.run();
+    verify(agent).warn(CHECK_ID, "cache: slow");
+    verify(agent, never()).fail(anyString(), anyString());
+  }
+
+  @Test
+  public void testPushesAgainAfterFailure() throws Exception {
+    doThrow(new ConsulException("error")).doNothing().when(agent).pass(eq(CHECK_ID), anyString());
+    healthCheckCache.run();
+    check.run();
+    check.run();
+    verify(agent, times(2)).pass(CHECK_ID, "");
+  }
+
+  @Test
+  public void testPushesAgainWhenNotRegistered() throws Exception {
+    doThrow(new NotRegisteredException("not registered"))
+        .doNothing()
+        .when(agent)
+        .pass(eq(CHECK_ID), anyString());
+    healthCheckCache.run();
+    check.run();
+    check.run();
+    verify(agent, times(2)).pass(CHECK_ID, "");
+  }
+
+  @Test
+  public void testPushesAgainAfterReset() throws Exception {
+    healthCheckCache.run();
+    check.run();
+    check.reset();
+    check.run();
+    verify(agent, times(2)).pass(CHECK_ID, "");
+  }
+}
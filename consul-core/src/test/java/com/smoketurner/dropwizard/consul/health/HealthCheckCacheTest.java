@@ -0,0 +1,123 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.consul.health;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.codahale.metrics.health.HealthCheck;
+import com.codahale.metrics.health.HealthCheckRegistry;
+import com.google.common.util.concurrent.Uninterruptibles;
+import io.dropwizard.jackson.Jackson;
+import io.dropwizard.util.Duration;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HealthCheckCacheTest {
+
+  private final HealthCheckRegistry registry = new HealthCheckRegistry();
+  private final AtomicInteger runs = new AtomicInteger();
+  private final HealthCheckCache cache =
+      new HealthCheckCache(
+          registry, Jackson.newObjectMapper(), Duration.seconds(10), Duration.milliseconds(200));
+
+  @Before
+  public void setUp() {
+    registry.register(
+        "fast",
+        new HealthCheck() {
+          @Override
+          protected Result check() {
+            runs.incrementAndGet();
+            return Result.healthy();
+          }
+        });
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    cache.stop();
+  }
+
+  @Test
+  public void testPendingUntilRefreshed() {
+    assertThat(cache.getSnapshot().isHealthy()).isFalse();
+    cache.run();
+    assertThat(cache.getSnapshot().isHealthy()).isTrue();
+    assertThat(new String(cache.getSnapshot().getBody(), StandardCharsets.UTF_8))
+        .isEqualTo("{\"fast\":{\"healthy\":true}}");
+  }
+
+  @Test
+  public void testSnapshotDoesNotRunChecks() {
+    cache.run();
+    cache.getSnapshot();
+    cache.getSnapshot();
+    assertThat(runs.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void testSlowCheckTimesOut() throws Exception {
+    registry.register(
+        "slow",
+        new HealthCheck() {
+          @Override
+          protected Result check() throws Exception {
+            Thread.sleep(10_000);
+            return Result.healthy();
+          }
+        });
+
+    final long start = System.nanoTime();
+    final HealthCheckCache.Snapshot snapshot = cache.refresh();
+    assertThat(System.nanoTime() - start).isLessThan(5_000_000_000L);
+    assertThat(snapshot.isHealthy()).isFalse();
+    assertThat(new String(snapshot.getBody(), StandardCharsets.UTF_8))
+        .contains("\"slow\":{\"healthy\":false,\"message\":\"Timed out\"}");
+  }
+
+  @Test
+  public void testHungCheckIsNotStartedAgain() throws Exception {
+    final AtomicInteger hungRuns = new AtomicInteger();
+    final CountDownLatch release = new CountDownLatch(1);
+    registry.register(
+        "hung",
+        new HealthCheck() {
+          @Override
+          protected Result check() {
+            hungRuns.incrementAndGet();
+            // like blocking socket I/O, ignores interruption
+            Uninterruptibles.awaitUninterruptibly(release);
+            return Result.healthy();
+          }
+        });
+
+    try {
+      for (int i = 0; i < 3; i++) {
+        final HealthCheckCache.Snapshot snapshot = cache.refresh();
+        assertThat(snapshot.getResults().get("hung").getMessage()).isEqualTo("Timed out");
+        assertThat(snapshot.getResults().get("fast").isHealthy()).isTrue();
+      }
+      assertThat(hungRuns.get()).isEqualTo(1);
+      assertThat(runs.get()).isEqualTo(3);
+    } finally {
+      release.countDown();
+    }
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.consul.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.orbitz.consul.ConsulException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+
+public class ConsulMetricsTest {
+
+  private final ConsulMetrics metrics = new ConsulMetrics();
+  private final MetricRegistry registry = new MetricRegistry();
+
+  @Test
+  public void testTimesCalls() {
+    assertThat(metrics.time("lookup", () -> "value")).isEqualTo("value");
+    assertThat(metrics.timer("lookup").getCount()).isEqualTo(1);
+    assertThat(metrics.meter("lookup.errors").getCount()).isZero();
+  }
+
+  @Test
+  public void testCountsErrorsByType() {
+    assertThatThrownBy(
+            () ->
+                metrics.run(
+                    "register",
+                    () -> {
+                      throw new ConsulException("error");
+                    }))
+        .isInstanceOf(ConsulException.class);
+    assertThat(metrics.timer("register").getCount()).isEqualTo(1);
+    assertThat(metrics.meter("register.errors").getCount()).isEqualTo(1);
+    assertThat(metrics.meter("errors.ConsulException").getCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void testPublishesMetricsRecordedBeforeRegistration() {
+    metrics.time("lookup", () -> "value");
+    metrics.registerMetrics(registry, "consul");
+    metrics.time("prefetch", () -> "value");
+
+    assertThat(registry.timer("consul.lookup").getCount()).isEqualTo(1);
+    assertThat(registry.timer("consul.prefetch").getCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void testConcurrentCallsShareMetrics() throws Exception {
+    metrics.registerMetrics(registry, "consul");
+    final ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      final List<Callable<Timer>> tasks = new ArrayList<>();
+      for (int i = 0; i < 100; i++) {
+        tasks.add(
+            () -> {
+              metrics.time("lookup", () -> "value");
+              return metrics.timer("lookup");
+            });
+      }
+      final Set<Timer> timers = new HashSet<>();
+      for (Future<Timer> future : executor.invokeAll(tasks)) {
+        timers.add(future.get());
+      }
+      assertThat(timers).hasSize(1);
+      assertThat(registry.timer("consul.lookup").getCount()).isEqualTo(100);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testRejectsDifferentMetricType() {
+    metrics.timer("lookup");
+    assertThatThrownBy(() -> metrics.meter("lookup")).isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test
+  public void testIgnoresDuplicateRegistration() {
+    metrics.timer("lookup");
+    metrics.registerMetrics(registry, "consul");
+    new ConsulMetrics().registerMetrics(registry, "consul");
+    new ConsulMetrics().timer("lookup");
+    assertThat(registry.getTimers()).containsOnlyKeys("consul.lookup");
+  }
+}
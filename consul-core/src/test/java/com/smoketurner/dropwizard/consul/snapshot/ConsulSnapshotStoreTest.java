@@ -0,0 +1,119 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.consul.snapshot;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.orbitz.consul.model.health.ImmutableNode;
+import com.orbitz.consul.model.health.ImmutableService;
+import com.orbitz.consul.model.health.ImmutableServiceHealth;
+import com.orbitz.consul.model.health.ServiceHealth;
+import io.dropwizard.util.Duration;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ConsulSnapshotStoreTest {
+
+  @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+  private final ServiceHealth instance =
+      ImmutableServiceHealth.builder()
+          .node(ImmutableNode.builder().node("node-1").address("10.0.0.1").build())
+          .service(
+              ImmutableService.builder()
+                  .id("hello-world-1")
+                  .service("hello-world")
+                  .address("10.0.0.1")
+                  .port(8080)
+                  .build())
+          .build();
+
+  private Path path;
+
+  @Before
+  public void setUp() throws Exception {
+    path = folder.getRoot().toPath().resolve("snapshots/consul.json");
+  }
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    final ConsulSnapshotStore store = new ConsulSnapshotStore(path, Duration.hours(1));
+    store.putValue("database/url", Optional.of("jdbc:postgresql://db/app"));
+    store.putService("hello-world", ImmutableList.of(instance));
+    store.flush();
+
+    final ConsulSnapshotStore loaded = new ConsulSnapshotStore(path);
+    assertThat(loaded.getValue("database/url")).contains("jdbc:postgresql://db/app");
+    assertThat(loaded.getValue("database/user")).isEmpty();
+    assertThat(loaded.getService("hello-world")).contains(ImmutableList.of(instance));
+    assertThat(loaded.getService("goodbye-world")).isEmpty();
+  }
+
+  @Test
+  public void testRemoveValue() throws Exception {
+    final ConsulSnapshotStore store = new ConsulSnapshotStore(path, Duration.hours(1));
+    store.putValue("database/url", Optional.of("jdbc:postgresql://db/app"));
+    store.putValue("database/url", Optional.empty());
+    store.flush();
+
+    assertThat(new ConsulSnapshotStore(path).getValue("database/url")).isEmpty();
+  }
+
+  @Test
+  public void testFlushOnStop() throws Exception {
+    final ConsulSnapshotStore store = new ConsulSnapshotStore(path, Duration.hours(1));
+    store.putValue("database/url", Optional.of("jdbc:postgresql://db/app"));
+    store.stop();
+
+    assertThat(new ConsulSnapshotStore(path).getValue("database/url"))
+        .contains("jdbc:postgresql://db/app");
+  }
+
+  @Test
+  public void testDebouncedFlush() throws Exception {
+    final ConsulSnapshotStore store = new ConsulSnapshotStore(path, Duration.milliseconds(10));
+    store.putValue("database/url", Optional.of("jdbc:postgresql://db/app"));
+
+    final long deadline = System.currentTimeMillis() + 5000;
+    while (!Files.exists(path) && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(new ConsulSnapshotStore(path).getValue("database/url"))
+        .contains("jdbc:postgresql://db/app");
+  }
+
+  @Test
+  public void testMissingFile() {
+    final ConsulSnapshotStore store = new ConsulSnapshotStore(path);
+    assertThat(store.getValue("database/url")).isEmpty();
+  }
+
+  @Test
+  public void testCorruptFile() throws Exception {
+    Files.createDirectories(path.getParent());
+    Files.write(path, "{not json".getBytes(StandardCharsets.UTF_8));
+
+    final ConsulSnapshotStore store = new ConsulSnapshotStore(path);
+    assertThat(store.getValue("database/url")).isEmpty();
+  }
+}
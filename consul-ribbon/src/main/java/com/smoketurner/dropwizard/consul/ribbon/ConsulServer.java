@@ -0,0 +1,53 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.consul.ribbon;
+
+import com.netflix.loadbalancer.Server;
+import javax.annotation.Nullable;
+
+/** A {@link Server} discovered in Consul, carrying the routing weight of the service instance. */
+public class ConsulServer extends Server {
+
+  private final int weight;
+
+  /**
+   * Constructor
+   *
+   * @param scheme Scheme of the server, if any
+   * @param host Host of the server
+   * @param port Port of the server
+   * @param weight Routing weight of the server
+   */
+  public ConsulServer(
+      @Nullable final String scheme, final String host, final int port, final int weight) {
+    super(scheme, host, port);
+    this.weight = weight;
+  }
+
+  /**
+   * Return the routing weight of a server, 1 for servers that were not discovered in Consul
+   *
+   * @param server Server
+   * @return weight of the server
+   */
+  public static int getWeight(final Server server) {
+    return server instanceof ConsulServer ? ((ConsulServer) server).weight : 1;
+  }
+
+  public int getWeight() {
+    return weight;
+  }
+}
@@ -15,21 +15,46 @@
  */
 package com.smoketurner.dropwizard.consul.ribbon;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.Ints;
 import com.netflix.loadbalancer.Server;
 import com.netflix.loadbalancer.ServerList;
 import com.orbitz.consul.Consul;
+import com.orbitz.consul.model.health.HealthCheck;
 import com.orbitz.consul.model.health.ServiceHealth;
+import com.smoketurner.dropwizard.consul.metrics.ConsulMetrics;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-import java.util.stream.Collectors;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 import javax.annotation.Nullable;
 
 public class ConsulServerList implements ServerList<Server> {
 
+  private static final String WARNING = "warning";
+
   private final Consul consul;
   private final ConsulServiceDiscoverer serviceDiscoverer;
+  private final List<String> zoneMetaKeys;
+  private final Optional<String> weightMetaKey;
+  private final ConsulMetrics metrics = new ConsulMetrics();
+  private volatile int size = 0;
+  private volatile long lastUpdate = 0;
+  private final List<ServerListDiffListener> listeners = new CopyOnWriteArrayList<>();
+
+  // servers by node name and service ID, guarded by this
+  private Map<String, Map<String, ConsulServer>> index = Collections.emptyMap();
+  private List<Server> current = Collections.emptyList();
 
   /**
    * Constructor
@@ -38,28 +63,211 @@ public class ConsulServerList implements ServerList<Server> {
    * @param serviceDiscoverer Discoverer
    */
   public ConsulServerList(final Consul consul, final ConsulServiceDiscoverer serviceDiscoverer) {
+    this(consul, serviceDiscoverer, ImmutableList.of(), Optional.empty());
+  }
+
+  /**
+   * Constructor
+   *
+   * @param consul Consul client
+   * @param serviceDiscoverer Discoverer
+   * @param zoneMetaKeys Service or node metadata keys holding the zone of an instance, in order of
+   *     precedence, the datacenter being used when none is set
+   * @param weightMetaKey Service metadata key holding the routing weight of an instance, overriding
+   *     the weights of the service registration
+   */
+  public ConsulServerList(
+      final Consul consul,
+      final ConsulServiceDiscoverer serviceDiscoverer,
+      final List<String> zoneMetaKeys,
+      final Optional<String> weightMetaKey) {
     this.consul = Objects.requireNonNull(consul);
     this.serviceDiscoverer = Objects.requireNonNull(serviceDiscoverer);
+    this.zoneMetaKeys = ImmutableList.copyOf(zoneMetaKeys);
+    this.weightMetaKey = Objects.requireNonNull(weightMetaKey);
+    metrics.gauge("servers", (Gauge<Integer>) () -> size);
+    metrics.gauge(
+        "last-update-age",
+        (Gauge<Long>) () -> lastUpdate == 0 ? -1L : System.currentTimeMillis() - lastUpdate);
+  }
+
+  /**
+   * Register the refresh timer and error meters, the number of servers and the age of the last
+   * successful refresh in milliseconds (-1 until the first refresh)
+   *
+   * @param metricRegistry Metric registry
+   * @param name Name of the load balanced service
+   */
+  public void registerMetrics(final MetricRegistry metricRegistry, final String name) {
+    metrics.registerMetrics(metricRegistry, MetricRegistry.name(ConsulServerList.class, name));
   }
 
   @Override
   public List<Server> getInitialListOfServers() {
-    return buildServerList(serviceDiscoverer.discover(consul));
+    return refresh();
   }
 
   @Override
   public List<Server> getUpdatedListOfServers() {
-    return buildServerList(serviceDiscoverer.discover(consul));
+    return refresh();
   }
 
   /**
-   * Converts a list of {@link ServiceHealth} objects into {@link Server} objects
+   * Add a listener notified of the servers added and removed by each refresh
+   *
+   * @param listener Listener
+   */
+  public void addListener(final ServerListDiffListener listener) {
+    listeners.add(Objects.requireNonNull(listener));
+  }
+
+  /**
+   * Return the servers of the last refresh, without querying Consul
+   *
+   * @return list of server instances
+   */
+  public synchronized List<Server> getCachedServers() {
+    return current;
+  }
+
+  private List<Server> refresh() {
+    final List<Server> servers =
+        update(metrics.time("refresh", () -> serviceDiscoverer.discover(consul)));
+    size = servers.size();
+    lastUpdate = System.currentTimeMillis();
+    return servers;
+  }
+
+  /**
+   * Apply the instances returned by Consul to the index of servers. Unchanged instances keep their
+   * {@link Server}, and when nothing changed the previous list itself is returned, so a refresh of
+   * a stable service does not allocate any server.
    *
    * @param services list of healthy service instances
    * @return list of server instances
    */
-  private List<Server> buildServerList(final Collection<ServiceHealth> services) {
-    return services.stream().map(this::buildServer).collect(Collectors.toList());
+  private synchronized List<Server> update(final Collection<ServiceHealth> services) {
+    if (isUnchanged(services)) {
+      return current;
+    }
+
+    final Map<String, Map<String, ConsulServer>> next = new HashMap<>();
+    final List<Server> list = new ArrayList<>(services.size());
+    final List<Server> added = new ArrayList<>();
+    for (ServiceHealth service : services) {
+      @Nullable ConsulServer server = find(index, service);
+      if (server == null || !matches(server, service)) {
+        server = buildServer(service);
+        added.add(server);
+      }
+      next.computeIfAbsent(service.getNode().getNode(), n -> new HashMap<>())
+          .put(service.getService().getId(), server);
+      list.add(server);
+    }
+
+    final Set<Server> retained = Collections.newSetFromMap(new IdentityHashMap<>());
+    retained.addAll(list);
+    final List<Server> removed = new ArrayList<>();
+    for (Server server : current) {
+      if (!retained.contains(server)) {
+        removed.add(server);
+      }
+    }
+
+    index = next;
+    current = Collections.unmodifiableList(list);
+    if (!added.isEmpty() || !removed.isEmpty()) {
+      for (ServerListDiffListener listener : listeners) {
+        listener.onChange(added, removed);
+      }
+    }
+    return current;
+  }
+
+  /**
+   * Return whether every instance is already indexed with the same server, in the same order since
+   * Consul may sort the instances by round trip time
+   */
+  private boolean isUnchanged(final Collection<ServiceHealth> services) {
+    if (services.size() != current.size()) {
+      return false;
+    }
+    int i = 0;
+    for (ServiceHealth service : services) {
+      @Nullable final ConsulServer server = find(index, service);
+      if (server == null || server != current.get(i++) || !matches(server, service)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Nullable
+  private static ConsulServer find(
+      final Map<String, Map<String, ConsulServer>> servers, final ServiceHealth service) {
+    @Nullable final Map<String, ConsulServer> node = servers.get(service.getNode().getNode());
+    return node == null ? null : node.get(service.getService().getId());
+  }
+
+  /**
+   * Return whether a server still points to the address, port, scheme and zone of an instance, with
+   * the same weight
+   */
+  private boolean matches(final ConsulServer server, final ServiceHealth service) {
+    return server.getPort() == service.getService().getPort()
+        && server.getWeight() == getWeight(service)
+        && Objects.equals(server.getHost(), getAddress(service))
+        && Objects.equals(server.getScheme(), service.getService().getMeta().get("scheme"))
+        && Objects.equals(server.getZone(), getZone(service));
+  }
+
+  private static String getAddress(final ServiceHealth service) {
+    if (!Strings.isNullOrEmpty(service.getService().getAddress())) {
+      return service.getService().getAddress();
+    }
+    return service.getNode().getAddress();
+  }
+
+  /**
+   * Return the zone of an instance from the first metadata key set on the service or, failing that,
+   * on its node, defaulting to the datacenter of the node
+   */
+  private String getZone(final ServiceHealth service) {
+    for (String key : zoneMetaKeys) {
+      @Nullable String zone = service.getService().getMeta().get(key);
+      if (Strings.isNullOrEmpty(zone) && service.getNode().getNodeMeta().isPresent()) {
+        zone = service.getNode().getNodeMeta().get().get(key);
+      }
+      if (!Strings.isNullOrEmpty(zone)) {
+        return zone;
+      }
+    }
+    return service.getNode().getDatacenter().orElse(Server.UNKNOWN_ZONE);
+  }
+
+  /**
+   * Return the weight of an instance from the weight metadata key if it holds a number, otherwise
+   * from the passing or warning weight of the registration depending on the status of its checks
+   */
+  private int getWeight(final ServiceHealth service) {
+    if (weightMetaKey.isPresent()) {
+      @Nullable final String weight = service.getService().getMeta().get(weightMetaKey.get());
+      if (!Strings.isNullOrEmpty(weight)) {
+        @Nullable final Integer parsed = Ints.tryParse(weight);
+        if (parsed != null && parsed >= 0) {
+          return parsed;
+        }
+      }
+    }
+    if (!service.getService().getWeights().isPresent()) {
+      return 1;
+    }
+    for (HealthCheck check : service.getChecks()) {
+      if (WARNING.equals(check.getStatus())) {
+        return service.getService().getWeights().get().getWarning();
+      }
+    }
+    return service.getService().getWeights().get().getPassing();
   }
 
   /**
@@ -70,19 +278,13 @@ public class ConsulServerList implements ServerList<Server> {
    * @param service Consul service health record
    * @return Ribbon Server instance
    */
-  private Server buildServer(final ServiceHealth service) {
+  private ConsulServer buildServer(final ServiceHealth service) {
     @Nullable final String scheme = service.getService().getMeta().get("scheme");
     final int port = service.getService().getPort();
 
-    final String address;
-    if (!Strings.isNullOrEmpty(service.getService().getAddress())) {
-      address = service.getService().getAddress();
-    } else {
-      address = service.getNode().getAddress();
-    }
-
-    final Server server = new Server(scheme, address, port);
-    server.setZone(service.getNode().getDatacenter().orElse(Server.UNKNOWN_ZONE));
+    final ConsulServer server =
+        new ConsulServer(scheme, getAddress(service), port, getWeight(service));
+    server.setZone(getZone(service));
     server.setReadyToServe(true);
 
     return server;
@@ -0,0 +1,80 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.consul.ribbon;
+
+import com.netflix.loadbalancer.ServerListUpdater;
+import java.util.Date;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.annotation.Nullable;
+
+/**
+ * A {@link ServerListUpdater} that refreshes the load balancer whenever a {@link
+ * ConsulServiceWatcher} sees a change, rather than on a fixed polling interval.
+ */
+public class ConsulServerListUpdater implements ServerListUpdater {
+
+  private final ConsulServiceWatcher watcher;
+  private final AtomicReference<Runnable> listener = new AtomicReference<>();
+
+  /**
+   * Constructor
+   *
+   * @param watcher Service watcher
+   */
+  public ConsulServerListUpdater(final ConsulServiceWatcher watcher) {
+    this.watcher = Objects.requireNonNull(watcher);
+  }
+
+  @Override
+  public void start(final UpdateAction updateAction) {
+    final Runnable update = updateAction::doUpdate;
+    if (listener.compareAndSet(null, update)) {
+      watcher.addListener(update);
+      watcher.start();
+    }
+  }
+
+  @Override
+  public void stop() {
+    @Nullable final Runnable update = listener.getAndSet(null);
+    if (update != null) {
+      watcher.removeListener(update);
+      watcher.close();
+    }
+  }
+
+  @Override
+  public String getLastUpdate() {
+    return new Date(watcher.getLastUpdated()).toString();
+  }
+
+  @Override
+  public long getDurationSinceLastUpdateMs() {
+    return System.currentTimeMillis() - watcher.getLastUpdated();
+  }
+
+  @Override
+  public int getNumberMissedCycles() {
+    // updates are pushed by the watcher, so there are no cycles to miss
+    return 0;
+  }
+
+  @Override
+  public int getCoreThreads() {
+    return 1;
+  }
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.consul.ribbon;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.Ints;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.orbitz.consul.Consul;
+import com.orbitz.consul.model.ConsulResponse;
+import com.orbitz.consul.model.health.ServiceHealth;
+import com.orbitz.consul.option.ImmutableQueryOptions;
+import com.orbitz.consul.option.QueryOptions;
+import io.dropwizard.util.Duration;
+import java.io.Closeable;
+import java.math.BigInteger;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches the healthy instances of a service using Consul blocking queries. The watcher long-polls
+ * the health endpoint with the last seen {@code X-Consul-Index} and notifies its listeners as soon
+ * as Consul reports a change, instead of re-fetching the full list on a fixed interval.
+ *
+ * <p>Note: the read timeout of the Consul client must be larger than the watch timeout, otherwise
+ * every blocking query that does not see a change will fail with a socket timeout.
+ */
+public class ConsulServiceWatcher implements ConsulServiceDiscoverer, Closeable {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ConsulServiceWatcher.class);
+  private static final long MIN_BACKOFF_MS = 250;
+  private static final long MAX_BACKOFF_MS = TimeUnit.SECONDS.toMillis(30);
+
+  private final Consul consul;
+  private final String service;
+  private final QueryOptions queryOptions;
+  private final int watchSeconds;
+  private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+  private final AtomicBoolean started = new AtomicBoolean(false);
+  private final AtomicInteger references = new AtomicInteger(1);
+  private final ExecutorService executor;
+
+  private volatile List<ServiceHealth> instances = ImmutableList.of();
+  private volatile boolean initialized = false;
+  private volatile boolean running = true;
+  private volatile long lastUpdated = 0L;
+  private volatile long lastContacted = 0L;
+  private volatile BigInteger index = BigInteger.ZERO;
+  private volatile Runnable closeListener = () -> {};
+
+  /**
+   * Constructor
+   *
+   * @param consul Consul client
+   * @param service Service name
+   * @param watchTimeout Maximum duration of each blocking query
+   */
+  public ConsulServiceWatcher(
+      final Consul consul, final String service, final Duration watchTimeout) {
+    this(consul, service, QueryOptions.BLANK, watchTimeout);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param consul Consul client
+   * @param service Service name
+   * @param queryOptions Additional query options (tags, datacenter, etc.) for the health query
+   * @param watchTimeout Maximum duration of each blocking query
+   */
+  public ConsulServiceWatcher(
+      final Consul consul,
+      final String service,
+      final QueryOptions queryOptions,
+      final Duration watchTimeout) {
+    this.consul = Objects.requireNonNull(consul);
+    this.service = Objects.requireNonNull(service);
+    this.queryOptions = Objects.requireNonNull(queryOptions);
+    this.watchSeconds = Math.max(1, Ints.checkedCast(watchTimeout.toSeconds()));
+    this.executor =
+        Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder()
+                .setNameFormat("consul-watch-" + service + "-%d")
+                .setDaemon(true)
+                .build());
+  }
+
+  /**
+   * Return the name of the watched service
+   *
+   * @return service name
+   */
+  public String getService() {
+    return service;
+  }
+
+  /**
+   * Add a listener that is notified every time the list of healthy instances changes.
+   *
+   * @param listener Listener to notify
+   */
+  public void addListener(final Runnable listener) {
+    listeners.add(Objects.requireNonNull(listener));
+  }
+
+  /**
+   * Remove a previously added listener
+   *
+   * @param listener Listener to remove
+   */
+  public void removeListener(final Runnable listener) {
+    listeners.remove(listener);
+  }
+
+  /** Start the blocking query loop. Calling this method more than once has no effect. */
+  public void start() {
+    if (started.compareAndSet(false, true)) {
+      executor.execute(this::watch);
+    }
+  }
+
+  /**
+   * Return the time of the last change seen by this watcher
+   *
+   * @return epoch milliseconds of the last update, or zero if no update has been seen yet
+   */
+  public long getLastUpdated() {
+    return lastUpdated;
+  }
+
+  /**
+   * Return the time of the last successful response from Consul, whether or not it carried a
+   * change. The difference to the current time is how stale the list of instances may be.
+   *
+   * @return epoch milliseconds of the last response, or zero if Consul has not responded yet
+   */
+  public long getLastContacted() {
+    return lastContacted;
+  }
+
+  /**
+   * Acquire an additional reference to this watcher. Every reference must be released with {@link
+   * #close()}; the watcher is only stopped once the last reference has been released.
+   *
+   * @return true if a reference was acquired, false if the watcher has already been closed
+   */
+  public boolean retain() {
+    while (true) {
+      final int count = references.get();
+      if (count <= 0) {
+        return false;
+      }
+      if (references.compareAndSet(count, count + 1)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Return whether the last reference to this watcher has been released
+   *
+   * @return true if the watcher is closed, otherwise false
+   */
+  public boolean isClosed() {
+    return references.get() <= 0;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Returns the latest snapshot seen by the watcher. Until the first blocking query has
+   * completed, the instances are fetched with a regular (non-blocking) query.
+   */
+  @Override
+  public Collection<ServiceHealth> discover(final Consul consul) {
+    if (!initialized) {
+      final ConsulResponse<List<ServiceHealth>> response =
+          this.consul.healthClient().getHealthyServiceInstances(service, queryOptions);
+      update(response);
+    }
+    return instances;
+  }
+
+  /** Release a reference to this watcher, stopping it when the last reference is released. */
+  @Override
+  public void close() {
+    if (references.decrementAndGet() == 0) {
+      running = false;
+      executor.shutdownNow();
+      closeListener.run();
+    }
+  }
+
+  /**
+   * Set the listener notified once the last reference to this watcher has been released
+   *
+   * @param listener Listener to notify
+   */
+  void setCloseListener(final Runnable listener) {
+    closeListener = Objects.requireNonNull(listener);
+  }
+
+  private void watch() {
+    long backoff = MIN_BACKOFF_MS;
+    while (running) {
+      try {
+        final QueryOptions options =
+            ImmutableQueryOptions.builder()
+                .from(queryOptions)
+                .wait(String.format("%ss", watchSeconds))
+                .index(index)
+                .build();
+        final ConsulResponse<List<ServiceHealth>> response =
+            consul.healthClient().getHealthyServiceInstances(service, options);
+        if (update(response)) {
+          listeners.forEach(ConsulServiceWatcher::notifyListener);
+        }
+        backoff = MIN_BACKOFF_MS;
+      } catch (RuntimeException e) {
+        // any failure, not only Consul errors, must not end the loop and freeze the instances
+        if (!running) {
+          return;
+        }
+        LOGGER.warn("Unable to watch service ({}), retrying in {}ms", service, backoff, e);
+        try {
+          Thread.sleep(backoff);
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+        backoff = Math.min(backoff * 2, MAX_BACKOFF_MS);
+      }
+    }
+  }
+
+  /**
+   * Record a health query response
+   *
+   * @param response Consul response
+   * @return true if the response carried a new index, otherwise false
+   */
+  private synchronized boolean update(final ConsulResponse<List<ServiceHealth>> response) {
+    BigInteger newIndex = response.getIndex();
+    lastContacted = System.currentTimeMillis();
+
+    // Consul may reset the index (for example after a snapshot restore), in which case the
+    // watch must start over from zero.
+    if (newIndex == null || newIndex.signum() <= 0 || newIndex.compareTo(index) < 0) {
+      newIndex = BigInteger.ZERO;
+    }
+
+    final boolean changed = !initialized || !newIndex.equals(index);
+    index = newIndex;
+    if (changed) {
+      instances = ImmutableList.copyOf(response.getResponse());
+      lastUpdated = System.currentTimeMillis();
+      initialized = true;
+      LOGGER.debug("Service ({}) has {} healthy instances", service, instances.size());
+    }
+    return changed;
+  }
+
+  private static void notifyListener(final Runnable listener) {
+    try {
+      listener.run();
+    } catch (RuntimeException e) {
+      LOGGER.warn("Service watch listener failed", e);
+    }
+  }
+}
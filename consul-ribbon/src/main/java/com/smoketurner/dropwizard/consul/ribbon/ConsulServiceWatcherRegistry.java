@@ -0,0 +1,185 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.consul.ribbon;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+import com.orbitz.consul.Consul;
+import com.orbitz.consul.option.QueryOptions;
+import io.dropwizard.util.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.Nullable;
+
+/**
+ * A process-wide, reference-counted cache of {@link ConsulServiceWatcher}s. Every load balancer
+ * that watches the same service (with the same query options) on the same Consul client shares a
+ * single watcher, so the service is only queried once no matter how many clients route to it.
+ */
+public class ConsulServiceWatcherRegistry {
+
+  private static final ConsulServiceWatcherRegistry DEFAULT = new ConsulServiceWatcherRegistry();
+
+  private final Map<WatchKey, ConsulServiceWatcher> watchers = new HashMap<>();
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  /**
+   * Return the registry shared by all clients in this process
+   *
+   * @return shared registry
+   */
+  public static ConsulServiceWatcherRegistry getDefault() {
+    return DEFAULT;
+  }
+
+  /**
+   * Acquire a started watcher for a service, creating one if no other client is watching the
+   * service yet. The watcher must be released with {@link ConsulServiceWatcher#close()}.
+   *
+   * @param consul Consul client
+   * @param service Service name
+   * @param queryOptions Query options for the health query
+   * @param watchTimeout Maximum duration of each blocking query
+   * @return a started watcher
+   */
+  public synchronized ConsulServiceWatcher acquire(
+      final Consul consul,
+      final String service,
+      final QueryOptions queryOptions,
+      final Duration watchTimeout) {
+    final WatchKey key = new WatchKey(consul, service, queryOptions);
+
+    @Nullable final ConsulServiceWatcher existing = watchers.get(key);
+    if (existing != null && existing.retain()) {
+      hits.increment();
+      return existing;
+    }
+
+    misses.increment();
+    final ConsulServiceWatcher watcher =
+        new ConsulServiceWatcher(consul, service, queryOptions, watchTimeout);
+    watcher.setCloseListener(() -> release(key, watcher));
+    watchers.put(key, watcher);
+    watcher.start();
+    return watcher;
+  }
+
+  private synchronized void release(final WatchKey key, final ConsulServiceWatcher watcher) {
+    watchers.remove(key, watcher);
+  }
+
+  /**
+   * Return the number of services currently being watched
+   *
+   * @return number of open watchers
+   */
+  public synchronized int size() {
+    return watchers.size();
+  }
+
+  /**
+   * Return how stale the cached instances of a service may be, which is the time since the oldest
+   * watcher of the service last heard from Consul.
+   *
+   * @param service Service name
+   * @return staleness in milliseconds, or zero if the service is not watched
+   */
+  public synchronized long getStaleness(final String service) {
+    final long now = System.currentTimeMillis();
+    long staleness = 0L;
+    for (Map.Entry<WatchKey, ConsulServiceWatcher> entry : watchers.entrySet()) {
+      final ConsulServiceWatcher watcher = entry.getValue();
+      if (entry.getKey().service.equals(service) && !watcher.isClosed()) {
+        final long lastContacted = watcher.getLastContacted();
+        if (lastContacted > 0L) {
+          staleness = Math.max(staleness, now - lastContacted);
+        }
+      }
+    }
+    return staleness;
+  }
+
+  /**
+   * Register the cache metrics of this registry
+   *
+   * @param metrics Metric registry
+   */
+  public void registerMetrics(final MetricRegistry metrics) {
+    final String prefix = name(ConsulServiceWatcherRegistry.class);
+    metrics.gauge(name(prefix, "hits"), () -> (Gauge<Long>) hits::sum);
+    metrics.gauge(name(prefix, "misses"), () -> (Gauge<Long>) misses::sum);
+    metrics.gauge(name(prefix, "watchers"), () -> (Gauge<Integer>) this::size);
+    metrics.gauge(
+        name(prefix, "hit-ratio"),
+        () ->
+            new RatioGauge() {
+              @Override
+              protected Ratio getRatio() {
+                final long hitCount = hits.sum();
+                return Ratio.of(hitCount, hitCount + misses.sum());
+              }
+            });
+  }
+
+  /**
+   * Register a gauge reporting the staleness of a watched service
+   *
+   * @param metrics Metric registry
+   * @param service Service name
+   */
+  public void registerMetrics(final MetricRegistry metrics, final String service) {
+    metrics.gauge(
+        name(ConsulServiceWatcher.class, service, "staleness"),
+        () -> (Gauge<Long>) () -> getStaleness(service));
+  }
+
+  private static final class WatchKey {
+    private final Consul consul;
+    private final String service;
+    private final QueryOptions queryOptions;
+
+    WatchKey(final Consul consul, final String service, final QueryOptions queryOptions) {
+      this.consul = Objects.requireNonNull(consul);
+      this.service = Objects.requireNonNull(service);
+      this.queryOptions = Objects.requireNonNull(queryOptions);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (obj == null || getClass() != obj.getClass()) {
+        return false;
+      }
+      final WatchKey other = (WatchKey) obj;
+      return consul == other.consul
+          && service.equals(other.service)
+          && queryOptions.equals(other.queryOptions);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(System.identityHashCode(consul), service, queryOptions);
+    }
+  }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.consul.ribbon;
+
+import com.netflix.loadbalancer.Server;
+
+/**
+ * Notified by an {@link OutlierDetector} when it ejects a server. The server is readmitted once its
+ * ejection time has elapsed, without any further notification.
+ */
+@FunctionalInterface
+public interface EjectionListener {
+
+  /**
+   * Called after a server was ejected
+   *
+   * @param server Ejected server
+   * @param ejectionNanos Time in nanoseconds after which the server is readmitted
+   */
+  void onEjection(Server server, long ejectionNanos);
+}
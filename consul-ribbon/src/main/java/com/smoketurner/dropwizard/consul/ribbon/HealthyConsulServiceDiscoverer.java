@@ -17,12 +17,14 @@ package com.smoketurner.dropwizard.consul.ribbon;
 
 import com.orbitz.consul.Consul;
 import com.orbitz.consul.model.health.ServiceHealth;
+import com.orbitz.consul.option.QueryOptions;
 import java.util.Collection;
 import java.util.Objects;
 
 public class HealthyConsulServiceDiscoverer implements ConsulServiceDiscoverer {
 
   private final String service;
+  private final QueryOptions queryOptions;
 
   /**
    * Constructor
@@ -30,11 +32,23 @@ public class HealthyConsulServiceDiscoverer implements ConsulServiceDiscoverer {
    * @param service Service name
    */
   public HealthyConsulServiceDiscoverer(final String service) {
+    this(service, QueryOptions.BLANK);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param service Service name
+   * @param queryOptions Query options (tags, filter, datacenter, node metadata, etc.) applied by
+   *     Consul before returning the instances
+   */
+  public HealthyConsulServiceDiscoverer(final String service, final QueryOptions queryOptions) {
     this.service = Objects.requireNonNull(service);
+    this.queryOptions = Objects.requireNonNull(queryOptions);
   }
 
   @Override
   public Collection<ServiceHealth> discover(final Consul consul) {
-    return consul.healthClient().getHealthyServiceInstances(service).getResponse();
+    return consul.healthClient().getHealthyServiceInstances(service, queryOptions).getResponse();
   }
 }
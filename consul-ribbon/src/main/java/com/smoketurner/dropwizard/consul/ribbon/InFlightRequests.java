@@ -0,0 +1,86 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.consul.ribbon;
+
+import com.netflix.loadbalancer.Server;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Number of requests currently in flight to each server of a load balancer. Counters are updated
+ * with atomic operations only, so that tracking requests does not contend on a lock.
+ */
+public class InFlightRequests {
+
+  private final ConcurrentMap<Server, AtomicInteger> counters = new ConcurrentHashMap<>();
+
+  /**
+   * Record the start of a request to a server
+   *
+   * @param server Server
+   */
+  public void increment(final Server server) {
+    AtomicInteger counter = counters.get(server);
+    if (counter == null) {
+      counter = counters.computeIfAbsent(server, s -> new AtomicInteger());
+    }
+    counter.incrementAndGet();
+  }
+
+  /**
+   * Record the end of a request to a server
+   *
+   * @param server Server
+   */
+  public void decrement(final Server server) {
+    final AtomicInteger counter = counters.get(server);
+    if (counter != null) {
+      counter.updateAndGet(count -> count > 0 ? count - 1 : 0);
+    }
+  }
+
+  /**
+   * Return the number of requests in flight to a server
+   *
+   * @param server Server
+   * @return number of requests in flight
+   */
+  public int get(final Server server) {
+    final AtomicInteger counter = counters.get(server);
+    return counter == null ? 0 : counter.get();
+  }
+
+  /**
+   * Forget the counters of the servers removed from the server list
+   *
+   * @param servers Removed servers
+   */
+  public void remove(final Collection<Server> servers) {
+    servers.forEach(counters::remove);
+  }
+
+  /**
+   * Forget the counters of the servers that are no longer in the server list
+   *
+   * @param servers Current servers
+   */
+  public void retain(final Collection<Server> servers) {
+    counters.keySet().retainAll(new HashSet<>(servers));
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.consul.ribbon;
+
+import com.netflix.client.config.IClientConfig;
+import com.netflix.loadbalancer.AbstractLoadBalancerRule;
+import com.netflix.loadbalancer.ILoadBalancer;
+import com.netflix.loadbalancer.Server;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import javax.annotation.Nullable;
+
+/**
+ * Chooses the reachable server with the fewest requests in flight. Ties are broken starting from a
+ * random server, so that idle servers share the load.
+ */
+public class LeastOutstandingRule extends AbstractLoadBalancerRule {
+
+  private final InFlightRequests inFlightRequests;
+
+  /**
+   * Constructor
+   *
+   * @param inFlightRequests In-flight request counters
+   */
+  public LeastOutstandingRule(final InFlightRequests inFlightRequests) {
+    this.inFlightRequests = Objects.requireNonNull(inFlightRequests);
+  }
+
+  @Override
+  public void initWithNiwsConfig(final IClientConfig clientConfig) {
+    // nothing to configure
+  }
+
+  @Nullable
+  @Override
+  public Server choose(final Object key) {
+    @Nullable final ILoadBalancer loadBalancer = getLoadBalancer();
+    if (loadBalancer == null) {
+      return null;
+    }
+    final List<Server> servers = loadBalancer.getReachableServers();
+    final int size = servers.size();
+    if (size == 0) {
+      return null;
+    }
+
+    final int start = ThreadLocalRandom.current().nextInt(size);
+    @Nullable Server best = null;
+    int fewest = Integer.MAX_VALUE;
+    for (int i = 0; i < size; i++) {
+      final Server server = servers.get((start + i) % size);
+      final int count = inFlightRequests.get(server);
+      if (count < fewest) {
+        best = server;
+        fewest = count;
+      }
+    }
+    return best;
+  }
+}
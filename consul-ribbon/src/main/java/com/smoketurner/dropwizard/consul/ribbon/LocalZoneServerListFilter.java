@@ -0,0 +1,101 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.consul.ribbon;
+
+import com.netflix.loadbalancer.Server;
+import com.netflix.loadbalancer.ServerListFilter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps only the servers of the local zone, as long as the local zone has enough servers and enough
+ * of them are healthy (not ejected by the outlier detector). Otherwise traffic spills over to every
+ * zone until the local zone recovers. The filter is applied each time the server list is updated by
+ * the load balancer; clients built by {@link RibbonJerseyClientBuilder} also update it when the
+ * outlier detector ejects a server and when the server is readmitted, so that spilling over does
+ * not wait for a change in Consul.
+ */
+public class LocalZoneServerListFilter implements ServerListFilter<Server> {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(LocalZoneServerListFilter.class);
+
+  private final String zone;
+  private final int minAvailableServers;
+  private final int minHealthyPercent;
+  private final Optional<OutlierDetector> outlierDetector;
+  private volatile boolean spilling = false;
+
+  /**
+   * Constructor
+   *
+   * @param zone Local zone
+   * @param configuration Zone affinity configuration
+   * @param outlierDetector Outlier detector of the client, if enabled
+   */
+  public LocalZoneServerListFilter(
+      final String zone,
+      final ZoneAffinityConfiguration configuration,
+      final Optional<OutlierDetector> outlierDetector) {
+    this.zone = Objects.requireNonNull(zone);
+    this.minAvailableServers = configuration.getMinAvailableServers();
+    this.minHealthyPercent = configuration.getMinHealthyPercent();
+    this.outlierDetector = Objects.requireNonNull(outlierDetector);
+  }
+
+  @Override
+  public List<Server> getFilteredListOfServers(final List<Server> servers) {
+    final List<Server> local = new ArrayList<>(servers.size());
+    int healthy = 0;
+    for (Server server : servers) {
+      if (zone.equals(server.getZone())) {
+        local.add(server);
+        if (!outlierDetector.isPresent() || !outlierDetector.get().isEjected(server)) {
+          healthy++;
+        }
+      }
+    }
+
+    final boolean spill =
+        healthy < minAvailableServers || healthy * 100L < (long) minHealthyPercent * local.size();
+    if (spill != spilling) {
+      spilling = spill;
+      if (spill) {
+        LOGGER.warn(
+            "Zone {} has {} healthy out of {} servers, spilling over to all {} servers",
+            zone,
+            healthy,
+            local.size(),
+            servers.size());
+      } else {
+        LOGGER.info("Zone {} recovered, routing to its {} servers", zone, local.size());
+      }
+    }
+    return spill ? servers : local;
+  }
+
+  /**
+   * Return whether the traffic currently spills over to the other zones
+   *
+   * @return true if the servers of every zone are used
+   */
+  public boolean isSpilling() {
+    return spilling;
+  }
+}
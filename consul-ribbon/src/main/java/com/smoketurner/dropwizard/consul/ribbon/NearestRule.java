@@ -0,0 +1,78 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.consul.ribbon;
+
+import com.netflix.client.config.IClientConfig;
+import com.netflix.loadbalancer.AbstractLoadBalancerRule;
+import com.netflix.loadbalancer.ILoadBalancer;
+import com.netflix.loadbalancer.Server;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import javax.annotation.Nullable;
+
+/**
+ * Prefers the servers listed first, which are the nearest ones when Consul sorts the instances by
+ * round trip time (a {@code near} query or a prepared query with {@code "Near": "_agent"}). Two
+ * distinct servers are picked at random out of the nearest half of the reachable servers, and the
+ * one with fewer requests in flight is chosen, so the load is still spread over several servers.
+ */
+public class NearestRule extends AbstractLoadBalancerRule {
+
+  private final InFlightRequests inFlightRequests;
+
+  /**
+   * Constructor
+   *
+   * @param inFlightRequests In-flight request counters
+   */
+  public NearestRule(final InFlightRequests inFlightRequests) {
+    this.inFlightRequests = Objects.requireNonNull(inFlightRequests);
+  }
+
+  @Override
+  public void initWithNiwsConfig(final IClientConfig clientConfig) {
+    // nothing to configure
+  }
+
+  @Nullable
+  @Override
+  public Server choose(final Object key) {
+    @Nullable final ILoadBalancer loadBalancer = getLoadBalancer();
+    if (loadBalancer == null) {
+      return null;
+    }
+    final List<Server> servers = loadBalancer.getReachableServers();
+    final int size = Math.min(servers.size(), Math.max(2, (servers.size() + 1) / 2));
+    if (size == 0) {
+      return null;
+    }
+    if (size == 1) {
+      return servers.get(0);
+    }
+
+    final ThreadLocalRandom random = ThreadLocalRandom.current();
+    final int first = random.nextInt(size);
+    int second = random.nextInt(size - 1);
+    if (second >= first) {
+      second++;
+    }
+
+    final Server a = servers.get(first);
+    final Server b = servers.get(second);
+    return inFlightRequests.get(b) < inFlightRequests.get(a) ? b : a;
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.consul.ribbon;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.util.Duration;
+import io.dropwizard.validation.MinDuration;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+public class OutlierDetectionConfiguration {
+
+  private boolean enabled = false;
+
+  @Min(1)
+  private int consecutiveFailures = 5;
+
+  @Nullable
+  @DecimalMin("1.0")
+  private Double latencyFactor;
+
+  @Min(1)
+  private int minimumRequests = 20;
+
+  @NotNull
+  @MinDuration(value = 1, unit = TimeUnit.MILLISECONDS)
+  private Duration baseEjectionTime = Duration.seconds(30);
+
+  @NotNull
+  @MinDuration(value = 1, unit = TimeUnit.MILLISECONDS)
+  private Duration maxEjectionTime = Duration.minutes(5);
+
+  @Min(0)
+  @Max(100)
+  private int maxEjectionPercent = 50;
+
+  @JsonProperty
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  @JsonProperty
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  @JsonProperty
+  public int getConsecutiveFailures() {
+    return consecutiveFailures;
+  }
+
+  @JsonProperty
+  public void setConsecutiveFailures(int failures) {
+    this.consecutiveFailures = failures;
+  }
+
+  @JsonProperty
+  public Optional<Double> getLatencyFactor() {
+    return Optional.ofNullable(latencyFactor);
+  }
+
+  @JsonProperty
+  public void setLatencyFactor(@Nullable Double factor) {
+    this.latencyFactor = factor;
+  }
+
+  @JsonProperty
+  public int getMinimumRequests() {
+    return minimumRequests;
+  }
+
+  @JsonProperty
+  public void setMinimumRequests(int requests) {
+    this.minimumRequests = requests;
+  }
+
+  @JsonProperty
+  public Duration getBaseEjectionTime() {
+    return baseEjectionTime;
+  }
+
+  @JsonProperty
+  public void setBaseEjectionTime(Duration time) {
+    this.baseEjectionTime = time;
+  }
+
+  @JsonProperty
+  public Duration getMaxEjectionTime() {
+    return maxEjectionTime;
+  }
+
+  @JsonProperty
+  public void setMaxEjectionTime(Duration time) {
+    this.maxEjectionTime = time;
+  }
+
+  @JsonProperty
+  public int getMaxEjectionPercent() {
+    return maxEjectionPercent;
+  }
+
+  @JsonProperty
+  public void setMaxEjectionPercent(int percent) {
+    this.maxEjectionPercent = percent;
+  }
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.consul.ribbon;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.netflix.loadbalancer.Server;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Passive outlier detection for the servers of a load balancer. A server is ejected after a number
+ * of consecutive failed requests, or when its average response time exceeds a multiple of the
+ * median of all servers. An ejected server is readmitted once its ejection time has elapsed; the
+ * ejection time doubles each time the server is ejected again, up to a maximum, and is reset once
+ * the server has been healthy for the maximum ejection time. No more than a percentage of the
+ * servers is ejected at any time, so that a systemic failure does not eject every server.
+ */
+public class OutlierDetector {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(OutlierDetector.class);
+
+  /** Weight of the latest response time in the moving average of a server */
+  private static final double ALPHA = 0.2;
+
+  private static final long MEDIAN_REFRESH_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private final OutlierDetectionConfiguration configuration;
+  private final Ticker ticker;
+  private final ConcurrentMap<Server, ServerState> states = new ConcurrentHashMap<>();
+  private final List<EjectionListener> listeners = new CopyOnWriteArrayList<>();
+  private volatile int serverCount = 0;
+  private volatile double medianLatency = 0;
+  private volatile long medianUpdated = 0;
+  private volatile boolean medianComputed = false;
+
+  /**
+   * Constructor
+   *
+   * @param configuration Outlier detection configuration
+   */
+  public OutlierDetector(final OutlierDetectionConfiguration configuration) {
+    this(configuration, Ticker.systemTicker());
+  }
+
+  @VisibleForTesting
+  OutlierDetector(final OutlierDetectionConfiguration configuration, final Ticker ticker) {
+    this.configuration = Objects.requireNonNull(configuration);
+    this.ticker = Objects.requireNonNull(ticker);
+  }
+
+  /**
+   * Return whether a server is currently ejected
+   *
+   * @param server Server
+   * @return true if the server is ejected, otherwise false
+   */
+  public boolean isEjected(final Server server) {
+    final ServerState state = states.get(server);
+    return state != null && state.isEjected(ticker.read());
+  }
+
+  /**
+   * Record a successful request to a server
+   *
+   * @param server Server
+   * @param responseTime Response time in milliseconds
+   */
+  public void onSuccess(final Server server, final double responseTime) {
+    final ServerState state = getState(server);
+    state.consecutiveFailures.set(0);
+
+    final long now = ticker.read();
+    final double latency = state.record(responseTime, now);
+    if (!configuration.getLatencyFactor().isPresent()
+        || state.getRequests() < configuration.getMinimumRequests()) {
+      return;
+    }
+    final double median = getMedianLatency(now);
+    if (median > 0 && latency > median * configuration.getLatencyFactor().get()) {
+      eject(server, state, now, "average response time of " + Math.round(latency) + "ms");
+    }
+  }
+
+  /**
+   * Record a failed request to a server
+   *
+   * @param server Server
+   */
+  public void onFailure(final Server server) {
+    final ServerState state = getState(server);
+    final int failures = state.consecutiveFailures.incrementAndGet();
+    if (failures >= configuration.getConsecutiveFailures()) {
+      eject(server, state, ticker.read(), failures + " consecutive failures");
+    }
+  }
+
+  /**
+   * Add a listener notified each time a server is ejected
+   *
+   * @param listener Listener
+   */
+  public void addListener(final EjectionListener listener) {
+    listeners.add(Objects.requireNonNull(listener));
+  }
+
+  /**
+   * Forget the servers removed from the server list
+   *
+   * @param servers Removed servers
+   */
+  public void remove(final Collection<Server> servers) {
+    servers.forEach(states::remove);
+  }
+
+  /**
+   * Set the number of servers the load balancer routes to, which bounds the number of ejected
+   * servers
+   *
+   * @param count Number of servers
+   */
+  public void setServerCount(final int count) {
+    serverCount = count;
+  }
+
+  /**
+   * Forget the servers that are no longer in the server list
+   *
+   * @param servers Current servers
+   */
+  public void retain(final Collection<Server> servers) {
+    states.keySet().retainAll(new HashSet<>(servers));
+    serverCount = servers.size();
+  }
+
+  private ServerState getState(final Server server) {
+    final ServerState state = states.get(server);
+    if (state != null) {
+      return state;
+    }
+    return states.computeIfAbsent(server, s -> new ServerState());
+  }
+
+  private void eject(
+      final Server server, final ServerState state, final long now, final String reason) {
+    final long duration;
+    synchronized (this) {
+      if (state.isEjected(now)) {
+        return;
+      }
+      final int total = Math.max(serverCount, states.size());
+      long ejected = 0;
+      for (ServerState other : states.values()) {
+        if (other.isEjected(now)) {
+          ejected++;
+        }
+      }
+      if ((ejected + 1) * 100 > (long) total * configuration.getMaxEjectionPercent()) {
+        LOGGER.debug("Not ejecting {} ({}), too many servers are ejected", server, reason);
+        return;
+      }
+
+      duration = state.eject(now);
+      LOGGER.warn(
+          "Ejecting {} for {}ms after {}", server, TimeUnit.NANOSECONDS.toMillis(duration), reason);
+    }
+    for (EjectionListener listener : listeners) {
+      try {
+        listener.onEjection(server, duration);
+      } catch (RuntimeException e) {
+        LOGGER.warn("Ejection listener failed", e);
+      }
+    }
+  }
+
+  /**
+   * Return the median average response time of the servers that are not ejected, recomputed at most
+   * once per second.
+   */
+  private double getMedianLatency(final long now) {
+    // ticker values may be negative, so the first median is computed regardless of the time
+    if (medianComputed && now - medianUpdated < MEDIAN_REFRESH_NANOS) {
+      return medianLatency;
+    }
+    final double[] latencies =
+        states.values().stream()
+            .filter(s -> !s.isEjected(now) && s.getRequests() > 0)
+            .mapToDouble(ServerState::getLatency)
+            .toArray();
+    if (latencies.length < 2) {
+      medianLatency = 0;
+    } else {
+      Arrays.sort(latencies);
+      medianLatency = latencies[latencies.length / 2];
+    }
+    medianUpdated = now;
+    medianComputed = true;
+    return medianLatency;
+  }
+
+  private final class ServerState {
+    final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+    private double latency = 0;
+    private long requests = 0;
+    private int ejections = 0;
+    private volatile long ejectedUntil = Long.MIN_VALUE;
+    @Nullable private Long readmitted = null;
+
+    boolean isEjected(final long now) {
+      final long until = ejectedUntil;
+      return until != Long.MIN_VALUE && now < until;
+    }
+
+    synchronized double record(final double responseTime, final long now) {
+      latency = requests == 0 ? responseTime : ALPHA * responseTime + (1 - ALPHA) * latency;
+      requests++;
+
+      // forget past ejections once the server has been healthy for long enough
+      if (ejections > 0 && !isEjected(now)) {
+        if (readmitted == null) {
+          readmitted = now;
+        } else if (now - readmitted >= configuration.getMaxEjectionTime().toNanoseconds()) {
+          ejections = 0;
+          readmitted = null;
+        }
+      }
+      return latency;
+    }
+
+    synchronized double getLatency() {
+      return latency;
+    }
+
+    synchronized long getRequests() {
+      return requests;
+    }
+
+    /** Eject the server, returning the ejection time in nanoseconds */
+    synchronized long eject(final long now) {
+      final long base = configuration.getBaseEjectionTime().toNanoseconds();
+      final long max = configuration.getMaxEjectionTime().toNanoseconds();
+      final long duration = (long) Math.min(max, base * Math.pow(2, ejections));
+      ejections++;
+      ejectedUntil = now + duration;
+      readmitted = null;
+      consecutiveFailures.set(0);
+      // start the latency average over after readmission
+      latency = 0;
+      requests = 0;
+      return duration;
+    }
+  }
+}
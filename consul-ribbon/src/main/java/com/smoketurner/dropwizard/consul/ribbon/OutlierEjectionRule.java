@@ -0,0 +1,96 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.consul.ribbon;
+
+import com.netflix.client.config.IClientConfig;
+import com.netflix.loadbalancer.AbstractLoadBalancerRule;
+import com.netflix.loadbalancer.ILoadBalancer;
+import com.netflix.loadbalancer.IRule;
+import com.netflix.loadbalancer.Server;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import javax.annotation.Nullable;
+
+/**
+ * Skips the servers ejected by an {@link OutlierDetector} when choosing a server with another rule.
+ * Ejected servers stay in the server list, so they are readmitted as soon as their ejection time
+ * has elapsed, without waiting for the next server list refresh.
+ */
+public class OutlierEjectionRule extends AbstractLoadBalancerRule {
+
+  /** Number of times the delegate rule is asked for a server that is not ejected */
+  private static final int MAX_ATTEMPTS = 3;
+
+  private final IRule delegate;
+  private final OutlierDetector detector;
+
+  /**
+   * Constructor
+   *
+   * @param delegate Rule choosing the servers
+   * @param detector Outlier detector
+   */
+  public OutlierEjectionRule(final IRule delegate, final OutlierDetector detector) {
+    this.delegate = Objects.requireNonNull(delegate);
+    this.detector = Objects.requireNonNull(detector);
+  }
+
+  @Override
+  public void initWithNiwsConfig(final IClientConfig clientConfig) {
+    if (delegate instanceof AbstractLoadBalancerRule) {
+      ((AbstractLoadBalancerRule) delegate).initWithNiwsConfig(clientConfig);
+    }
+  }
+
+  @Override
+  public void setLoadBalancer(final ILoadBalancer lb) {
+    super.setLoadBalancer(lb);
+    delegate.setLoadBalancer(lb);
+  }
+
+  @Nullable
+  @Override
+  public Server choose(final Object key) {
+    @Nullable Server server = null;
+    for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+      server = delegate.choose(key);
+      if (server == null || !detector.isEjected(server)) {
+        return server;
+      }
+    }
+    if (server == null) {
+      return null;
+    }
+
+    // the delegate keeps choosing ejected servers, e.g. when it prefers them because they have no
+    // requests in flight, so pick any server that is not ejected, starting from a random one
+    @Nullable final ILoadBalancer loadBalancer = getLoadBalancer();
+    if (loadBalancer != null) {
+      final List<Server> servers = loadBalancer.getReachableServers();
+      final int size = servers.size();
+      final int start = size == 0 ? 0 : ThreadLocalRandom.current().nextInt(size);
+      for (int i = 0; i < size; i++) {
+        final Server candidate = servers.get((start + i) % size);
+        if (!detector.isEjected(candidate)) {
+          return candidate;
+        }
+      }
+    }
+    // every server is ejected, which the ejection percentage guard only allows for tiny lists
+    return server;
+  }
+}
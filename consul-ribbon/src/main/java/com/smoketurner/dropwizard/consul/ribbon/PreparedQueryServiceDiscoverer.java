@@ -0,0 +1,46 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.consul.ribbon;
+
+import com.orbitz.consul.Consul;
+import com.orbitz.consul.model.health.ServiceHealth;
+import java.util.Collection;
+import java.util.Objects;
+
+/**
+ * Discovers the instances of a service by executing a Consul prepared query. The query definition
+ * decides which instances are returned: with {@code "Near": "_agent"} they are sorted by the
+ * estimated round trip time from the local agent, and with {@code "Failover"} datacenters Consul
+ * falls back to the instances of the nearest other datacenters when none are healthy locally.
+ */
+public class PreparedQueryServiceDiscoverer implements ConsulServiceDiscoverer {
+
+  private final String query;
+
+  /**
+   * Constructor
+   *
+   * @param query Name or ID of the prepared query
+   */
+  public PreparedQueryServiceDiscoverer(final String query) {
+    this.query = Objects.requireNonNull(query);
+  }
+
+  @Override
+  public Collection<ServiceHealth> discover(final Consul consul) {
+    return consul.preparedQueryClient().execute(query).nodes();
+  }
+}
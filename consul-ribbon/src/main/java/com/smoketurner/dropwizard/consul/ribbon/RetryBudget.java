@@ -0,0 +1,107 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.consul.ribbon;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits retries and hedged requests to a ratio of the requests, plus a small number per second, so
+ * that retrying cannot multiply the load on servers that are already failing. Every request
+ * deposits a fraction of a token, every retry withdraws a whole token, and tokens are capped so
+ * that a long quiet period does not allow a burst of retries.
+ */
+public class RetryBudget {
+
+  /** Tokens are counted in thousandths, so that fractional deposits can be added atomically */
+  private static final long TOKEN = 1000;
+
+  private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  private final long deposit;
+  private final long reservePerSecond;
+  private final long capacity;
+  private final Ticker ticker;
+  private final AtomicLong tokens;
+  private final AtomicLong lastRefill;
+
+  /**
+   * Constructor
+   *
+   * @param ratio Retries allowed per request
+   * @param minRetriesPerSecond Retries allowed per second regardless of the number of requests
+   */
+  public RetryBudget(final double ratio, final int minRetriesPerSecond) {
+    this(ratio, minRetriesPerSecond, Ticker.systemTicker());
+  }
+
+  @VisibleForTesting
+  RetryBudget(final double ratio, final int minRetriesPerSecond, final Ticker ticker) {
+    this.deposit = Math.round(ratio * TOKEN);
+    this.reservePerSecond = minRetriesPerSecond * TOKEN;
+    this.capacity = Math.max(10, minRetriesPerSecond * 10L) * TOKEN;
+    this.ticker = Objects.requireNonNull(ticker);
+    this.tokens = new AtomicLong(reservePerSecond);
+    this.lastRefill = new AtomicLong(ticker.read());
+  }
+
+  /** Record a request, adding its share of retries to the budget. */
+  public void onRequest() {
+    add(deposit);
+  }
+
+  /**
+   * Take one retry out of the budget
+   *
+   * @return true if the retry is allowed, otherwise false
+   */
+  public boolean tryRetry() {
+    refill();
+    while (true) {
+      final long current = tokens.get();
+      if (current < TOKEN) {
+        return false;
+      }
+      if (tokens.compareAndSet(current, current - TOKEN)) {
+        return true;
+      }
+    }
+  }
+
+  private void refill() {
+    if (reservePerSecond == 0) {
+      return;
+    }
+    final long now = ticker.read();
+    final long last = lastRefill.get();
+    final long elapsed = now - last;
+    if (elapsed < NANOS_PER_SECOND / 10 || !lastRefill.compareAndSet(last, now)) {
+      return;
+    }
+    // beyond ten seconds the bucket is full anyway, and this keeps the product from overflowing
+    final long capped = Math.min(elapsed, 10 * NANOS_PER_SECOND);
+    add(reservePerSecond * capped / NANOS_PER_SECOND);
+  }
+
+  private void add(final long amount) {
+    if (amount > 0) {
+      tokens.accumulateAndGet(amount, (current, added) -> Math.min(capacity, current + added));
+    }
+  }
+}
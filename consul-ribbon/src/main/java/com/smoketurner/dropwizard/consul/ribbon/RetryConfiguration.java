@@ -0,0 +1,121 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.consul.ribbon;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.util.Duration;
+import io.dropwizard.validation.MinDuration;
+import java.util.concurrent.TimeUnit;
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+public class RetryConfiguration {
+
+  @Min(0)
+  private int maxRetries = 1;
+
+  private boolean hedge = false;
+
+  @DecimalMin("0.5")
+  @DecimalMax("0.999")
+  private double hedgePercentile = 0.95;
+
+  @NotNull
+  @MinDuration(value = 1, unit = TimeUnit.MILLISECONDS)
+  private Duration minHedgeDelay = Duration.milliseconds(10);
+
+  @Min(1)
+  private int maxHedgeThreads = 16;
+
+  @DecimalMin("0.0")
+  @DecimalMax("1.0")
+  private double budgetRatio = 0.1;
+
+  @Min(0)
+  private int minRetriesPerSecond = 10;
+
+  @JsonProperty
+  public int getMaxRetries() {
+    return maxRetries;
+  }
+
+  @JsonProperty
+  public void setMaxRetries(int retries) {
+    this.maxRetries = retries;
+  }
+
+  @JsonProperty
+  public boolean isHedge() {
+    return hedge;
+  }
+
+  @JsonProperty
+  public void setHedge(boolean hedge) {
+    this.hedge = hedge;
+  }
+
+  @JsonProperty
+  public double getHedgePercentile() {
+    return hedgePercentile;
+  }
+
+  @JsonProperty
+  public void setHedgePercentile(double percentile) {
+    this.hedgePercentile = percentile;
+  }
+
+  @JsonProperty
+  public Duration getMinHedgeDelay() {
+    return minHedgeDelay;
+  }
+
+  @JsonProperty
+  public void setMinHedgeDelay(Duration delay) {
+    this.minHedgeDelay = delay;
+  }
+
+  @JsonProperty
+  public int getMaxHedgeThreads() {
+    return maxHedgeThreads;
+  }
+
+  @JsonProperty
+  public void setMaxHedgeThreads(int threads) {
+    this.maxHedgeThreads = threads;
+  }
+
+  @JsonProperty
+  public double getBudgetRatio() {
+    return budgetRatio;
+  }
+
+  @JsonProperty
+  public void setBudgetRatio(double ratio) {
+    this.budgetRatio = ratio;
+  }
+
+  @JsonProperty
+  public int getMinRetriesPerSecond() {
+    return minRetriesPerSecond;
+  }
+
+  @JsonProperty
+  public void setMinRetriesPerSecond(int retries) {
+    this.minRetriesPerSecond = retries;
+  }
+}
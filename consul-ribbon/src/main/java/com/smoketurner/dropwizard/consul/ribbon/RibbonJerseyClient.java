@@ -15,36 +15,232 @@
  */
 package com.smoketurner.dropwizard.consul.ribbon;
 
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.SlidingTimeWindowArrayReservoir;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.netflix.loadbalancer.DynamicServerListLoadBalancer;
 import com.netflix.loadbalancer.Server;
-import com.netflix.loadbalancer.ZoneAwareLoadBalancer;
+import com.netflix.loadbalancer.ServerList;
+import com.netflix.loadbalancer.ServerStats;
 import java.io.Closeable;
 import java.net.URI;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.SSLContext;
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.ProcessingException;
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.Invocation.Builder;
 import javax.ws.rs.client.WebTarget;
 import javax.ws.rs.core.Configuration;
 import javax.ws.rs.core.Link;
+import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriBuilder;
 
 public class RibbonJerseyClient implements Client, Closeable {
-  private final ZoneAwareLoadBalancer<Server> loadBalancer;
+
+  /** Request property holding the {@link Server} a request was sent to */
+  public static final String SERVER_PROPERTY = RibbonJerseyClient.class.getName() + ".server";
+
+  /** Request property holding the {@link RibbonJerseyClient} that chose the server */
+  public static final String CLIENT_PROPERTY = RibbonJerseyClient.class.getName() + ".client";
+
+  private static final Set<String> IDEMPOTENT_METHODS =
+      ImmutableSet.of(
+          HttpMethod.GET,
+          HttpMethod.HEAD,
+          HttpMethod.OPTIONS,
+          HttpMethod.PUT,
+          HttpMethod.DELETE,
+          "TRACE");
+
+  /** Number of times the load balancer is asked for a server that was not tried yet */
+  private static final int MAX_CHOICES = 3;
+
+  private final DynamicServerListLoadBalancer<Server> loadBalancer;
   private final Client delegate;
+  private final InFlightRequests inFlightRequests;
+  private final Optional<OutlierDetector> outlierDetector;
+  private final RetryConfiguration retry;
+  private final RetryBudget retryBudget;
+  private final Histogram responseTimes =
+      new Histogram(new SlidingTimeWindowArrayReservoir(1, TimeUnit.MINUTES));
+  // negative until the delay is first computed, as nanoTime values may be negative
+  private volatile long hedgeDelay = -1;
+  private volatile long hedgeDelayUpdated = 0;
+  private final ExecutorService hedgeExecutor;
+  private final ScheduledExecutorService hedgeScheduler;
+  private final boolean ownsHedgeExecutors;
+
+  // pre-resolved targets for each server, dropped when the server leaves the list
+  private final ConcurrentMap<Server, ServerTarget> targets = new ConcurrentHashMap<>();
+
+  /**
+   * Constructor
+   *
+   * @param loadBalancer Load Balancer
+   * @param delegate Jersey Client delegate
+   */
+  public RibbonJerseyClient(
+      final DynamicServerListLoadBalancer<Server> loadBalancer, final Client delegate) {
+    this(loadBalancer, delegate, new InFlightRequests());
+  }
+
+  /**
+   * Constructor
+   *
+   * @param loadBalancer Load Balancer
+   * @param delegate Jersey Client delegate
+   * @param inFlightRequests In-flight request counters, updated by a {@link ServerStatsInterceptor}
+   *     registered on the delegate
+   */
+  public RibbonJerseyClient(
+      final DynamicServerListLoadBalancer<Server> loadBalancer,
+      final Client delegate,
+      final InFlightRequests inFlightRequests) {
+    this(loadBalancer, delegate, inFlightRequests, Optional.empty());
+  }
+
+  /**
+   * Constructor
+   *
+   * @param loadBalancer Load Balancer
+   * @param delegate Jersey Client delegate
+   * @param inFlightRequests In-flight request counters, updated by a {@link ServerStatsInterceptor}
+   *     registered on the delegate
+   * @param outlierDetector Optional outlier detector, fed by the same interceptor
+   */
+  public RibbonJerseyClient(
+      final DynamicServerListLoadBalancer<Server> loadBalancer,
+      final Client delegate,
+      final InFlightRequests inFlightRequests,
+      final Optional<OutlierDetector> outlierDetector) {
+    this(loadBalancer, delegate, inFlightRequests, outlierDetector, new RetryConfiguration());
+  }
 
   /**
    * Constructor
    *
    * @param loadBalancer Load Balancer
    * @param delegate Jersey Client delegate
+   * @param inFlightRequests In-flight request counters, updated by a {@link ServerStatsInterceptor}
+   *     registered on the delegate
+   * @param outlierDetector Optional outlier detector, fed by the same interceptor
+   * @param retry Retry and hedging configuration of {@link #invoke(String, Function)}
    */
   public RibbonJerseyClient(
-      final ZoneAwareLoadBalancer<Server> loadBalancer, final Client delegate) {
+      final DynamicServerListLoadBalancer<Server> loadBalancer,
+      final Client delegate,
+      final InFlightRequests inFlightRequests,
+      final Optional<OutlierDetector> outlierDetector,
+      final RetryConfiguration retry) {
+    this(
+        loadBalancer,
+        delegate,
+        inFlightRequests,
+        outlierDetector,
+        retry,
+        newHedgeExecutor(loadBalancer.getName(), retry.getMaxHedgeThreads()),
+        newHedgeScheduler(loadBalancer.getName()),
+        true);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param loadBalancer Load Balancer
+   * @param delegate Jersey Client delegate
+   * @param inFlightRequests In-flight request counters, updated by a {@link ServerStatsInterceptor}
+   *     registered on the delegate
+   * @param outlierDetector Optional outlier detector, fed by the same interceptor
+   * @param retry Retry and hedging configuration of {@link #invoke(String, Function)}
+   * @param hedgeExecutor Bounded executor sending blocking requests when hedging is enabled, which
+   *     is not shut down by {@link #close()}
+   * @param hedgeScheduler Scheduler starting the hedged copies after the hedging delay, which is
+   *     not shut down by {@link #close()}
+   */
+  public RibbonJerseyClient(
+      final DynamicServerListLoadBalancer<Server> loadBalancer,
+      final Client delegate,
+      final InFlightRequests inFlightRequests,
+      final Optional<OutlierDetector> outlierDetector,
+      final RetryConfiguration retry,
+      final ExecutorService hedgeExecutor,
+      final ScheduledExecutorService hedgeScheduler) {
+    this(
+        loadBalancer,
+        delegate,
+        inFlightRequests,
+        outlierDetector,
+        retry,
+        hedgeExecutor,
+        hedgeScheduler,
+        false);
+  }
+
+  private RibbonJerseyClient(
+      final DynamicServerListLoadBalancer<Server> loadBalancer,
+      final Client delegate,
+      final InFlightRequests inFlightRequests,
+      final Optional<OutlierDetector> outlierDetector,
+      final RetryConfiguration retry,
+      final ExecutorService hedgeExecutor,
+      final ScheduledExecutorService hedgeScheduler,
+      final boolean ownsHedgeExecutors) {
+    this.hedgeExecutor = Objects.requireNonNull(hedgeExecutor);
+    this.hedgeScheduler = Objects.requireNonNull(hedgeScheduler);
+    this.ownsHedgeExecutors = ownsHedgeExecutors;
+    this.retry = Objects.requireNonNull(retry);
+    this.retryBudget = new RetryBudget(retry.getBudgetRatio(), retry.getMinRetriesPerSecond());
     this.loadBalancer = Objects.requireNonNull(loadBalancer);
     this.delegate = Objects.requireNonNull(delegate);
+    this.inFlightRequests = Objects.requireNonNull(inFlightRequests);
+    this.outlierDetector = Objects.requireNonNull(outlierDetector);
+
+    loadBalancer.addServerListChangeListener(
+        (oldList, newList) ->
+            outlierDetector.ifPresent(detector -> detector.setServerCount(newList.size())));
+
+    final ServerList<Server> serverList = loadBalancer.getServerListImpl();
+    if (serverList instanceof ConsulServerList) {
+      // forget the instances that left Consul, but not the servers a filter skips for a while
+      ((ConsulServerList) serverList).addListener(this::forget);
+    } else {
+      loadBalancer.addServerListChangeListener(
+          (oldList, newList) -> {
+            final Set<Server> current = Collections.newSetFromMap(new IdentityHashMap<>());
+            current.addAll(newList);
+            targets.keySet().removeIf(server -> !current.contains(server));
+            inFlightRequests.retain(newList);
+            outlierDetector.ifPresent(detector -> detector.retain(newList));
+          });
+    }
+    outlierDetector.ifPresent(detector -> detector.retain(loadBalancer.getAllServers()));
   }
 
   /**
@@ -58,10 +254,24 @@ public class RibbonJerseyClient implements Client, Closeable {
   @Deprecated
   public RibbonJerseyClient(
       final String scheme,
-      final ZoneAwareLoadBalancer<Server> loadBalancer,
+      final DynamicServerListLoadBalancer<Server> loadBalancer,
       final Client delegate) {
-    this.loadBalancer = Objects.requireNonNull(loadBalancer);
-    this.delegate = Objects.requireNonNull(delegate);
+    this(loadBalancer, delegate);
+  }
+
+  /**
+   * Forget the in-flight counters, the outlier state and the targets of the servers removed from
+   * Consul, including the servers replaced by a new instance with the same ID
+   *
+   * @param added Servers added to the server list
+   * @param removed Servers removed from the server list
+   */
+  private void forget(final List<Server> added, final List<Server> removed) {
+    inFlightRequests.remove(removed);
+    outlierDetector.ifPresent(detector -> detector.remove(removed));
+    for (Server server : removed) {
+      targets.computeIfPresent(server, (key, target) -> target.server == server ? null : target);
+    }
   }
 
   /**
@@ -73,6 +283,391 @@ public class RibbonJerseyClient implements Client, Closeable {
     return loadBalancer.getServerList(true);
   }
 
+  /**
+   * Return the number of requests in flight to each server of this load balancing client
+   *
+   * @return in-flight request counters
+   */
+  public InFlightRequests getInFlightRequests() {
+    return inFlightRequests;
+  }
+
+  /**
+   * Send a request to a server chosen by the load balancer and wait for its response. Requests
+   * using an idempotent method that fail without a response or with a server error are retried on
+   * other servers. When hedging is enabled, they are sent from the hedging executor, and a second
+   * copy is sent to another server if no response arrived after the configured percentile of the
+   * recent response times; the first successful response of either copy is returned. Otherwise, and
+   * while every hedging thread is busy, requests are sent on the calling thread. Retries and hedged
+   * requests are limited by a retry budget, and the responses that are not returned are closed.
+   *
+   * <pre>{@code
+   * Response response =
+   *     client.invoke(HttpMethod.GET, target -> target.path("/users").request().get());
+   * }</pre>
+   *
+   * @param method HTTP method of the request, which decides whether it may be sent more than once
+   * @param request Function sending the request to the base target of a server; it may be called
+   *     several times, concurrently when hedging
+   * @return response of the request
+   * @throws IllegalStateException if there are no available servers
+   * @throws ProcessingException if the last attempt failed without a response
+   */
+  public Response invoke(final String method, final Function<WebTarget, Response> request) {
+    final boolean idempotent = isIdempotent(method);
+    retryBudget.onRequest();
+
+    final Set<Server> tried = ConcurrentHashMap.newKeySet();
+    for (int attempt = 0; ; attempt++) {
+      final Server server = chooseServer(tried);
+      tried.add(server);
+      final boolean last = !idempotent || attempt >= retry.getMaxRetries();
+      try {
+        final Response response =
+            idempotent && retry.isHedge()
+                ? sendHedged(server, tried, request)
+                : send(server, request);
+        if (last || !isRetryable(response) || !retryBudget.tryRetry()) {
+          return response;
+        }
+        response.close();
+      } catch (ProcessingException e) {
+        if (last || !retryBudget.tryRetry()) {
+          throw e;
+        }
+      }
+    }
+  }
+
+  /**
+   * Send a request to a server chosen by the load balancer without blocking the calling thread,
+   * typically using Jersey's reactive invoker. Retries and hedging behave as in {@link
+   * #invoke(String, Function)}, except that retries are chained to the previous attempt instead of
+   * waiting for it, and a new server is chosen for every attempt.
+   *
+   * <pre>{@code
+   * client.invokeAsync(HttpMethod.GET, target -> target.path("/users").request().rx().get())
+   *     .thenAccept(response -> ...);
+   * }</pre>
+   *
+   * @param method HTTP method of the request, which decides whether it may be sent more than once
+   * @param request Function sending the request to the base target of a server; it may be called
+   *     several times, concurrently when hedging
+   * @return stage completed with the response of the request, or with the failure of the last
+   *     attempt
+   */
+  public CompletionStage<Response> invokeAsync(
+      final String method, final Function<WebTarget, CompletionStage<Response>> request) {
+    retryBudget.onRequest();
+    final CompletableFuture<Response> result = new CompletableFuture<>();
+    attemptAsync(isIdempotent(method), request, ConcurrentHashMap.newKeySet(), 0, result);
+    return result;
+  }
+
+  /**
+   * Send one attempt of an asynchronous request, chaining the next attempt if it failed and may be
+   * retried
+   */
+  private void attemptAsync(
+      final boolean idempotent,
+      final Function<WebTarget, CompletionStage<Response>> request,
+      final Set<Server> tried,
+      final int attempt,
+      final CompletableFuture<Response> result) {
+    final Server server;
+    try {
+      server = chooseServer(tried);
+    } catch (IllegalStateException e) {
+      result.completeExceptionally(e);
+      return;
+    }
+    tried.add(server);
+    final boolean last = !idempotent || attempt >= retry.getMaxRetries();
+
+    final CompletableFuture<Response> stage =
+        idempotent && retry.isHedge()
+            ? sendHedgedAsync(server, tried, request)
+            : sendAsync(server, request);
+    stage.whenComplete(
+        (response, error) -> {
+          if (error == null) {
+            if (last || !isRetryable(response) || !retryBudget.tryRetry()) {
+              result.complete(response);
+              return;
+            }
+            response.close();
+          } else {
+            final Throwable cause = unwrap(error);
+            if (last || !(cause instanceof ProcessingException) || !retryBudget.tryRetry()) {
+              result.completeExceptionally(cause);
+              return;
+            }
+          }
+          attemptAsync(idempotent, request, tried, attempt + 1, result);
+        });
+  }
+
+  /**
+   * Return the outlier detector of this load balancing client, if outlier detection is enabled
+   *
+   * @return outlier detector
+   */
+  public Optional<OutlierDetector> getOutlierDetector() {
+    return outlierDetector;
+  }
+
+  /**
+   * Return the statistics the load balancer keeps about a server
+   *
+   * @param server Server
+   * @return server statistics
+   */
+  public ServerStats getServerStats(final Server server) {
+    return loadBalancer.getLoadBalancerStats().getSingleServerStat(server);
+  }
+
+  /**
+   * Send a request to a server, recording its response time for the hedging delay
+   *
+   * @param server Server
+   * @param request Function sending the request
+   * @return response
+   */
+  private Response send(final Server server, final Function<WebTarget, Response> request) {
+    final long start = System.nanoTime();
+    // a copy of the cached target, as properties and providers registered on a target change it
+    final Response response = request.apply(getTarget(server).path(""));
+    responseTimes.update(System.nanoTime() - start);
+    return response;
+  }
+
+  /**
+   * Send a request to a server without blocking, recording its response time for the hedging delay
+   *
+   * @param server Server
+   * @param request Function sending the request
+   * @return response
+   */
+  private CompletableFuture<Response> sendAsync(
+      final Server server, final Function<WebTarget, CompletionStage<Response>> request) {
+    final long start = System.nanoTime();
+    final CompletionStage<Response> stage;
+    try {
+      stage = request.apply(getTarget(server).path(""));
+    } catch (RuntimeException e) {
+      final CompletableFuture<Response> failed = new CompletableFuture<>();
+      failed.completeExceptionally(e);
+      return failed;
+    }
+    return stage
+        .thenApply(
+            response -> {
+              responseTimes.update(System.nanoTime() - start);
+              return response;
+            })
+        .toCompletableFuture();
+  }
+
+  /**
+   * Send a request to a server on the hedging executor, and a second copy to another server if the
+   * first one did not respond within the hedging delay and the retry budget allows it. The calling
+   * thread waits for the first copy that did not fail, so a slow server does not delay the
+   * response. When every hedging thread is busy, the request is sent on the calling thread without
+   * a hedged copy.
+   *
+   * @param server Server
+   * @param tried Servers already tried, updated with the hedged server
+   * @param request Function sending the request
+   * @return first successful response, or the last response if every copy failed with one
+   * @throws ProcessingException if every copy failed without a response
+   */
+  private Response sendHedged(
+      final Server server, final Set<Server> tried, final Function<WebTarget, Response> request) {
+    final CompletableFuture<Response> first;
+    try {
+      first = sendOnHedgeExecutor(server, request);
+    } catch (RejectedExecutionException e) {
+      return send(server, request);
+    }
+    final CompletableFuture<Response> winner =
+        race(first, tried, other -> sendOnHedgeExecutor(other, request));
+    try {
+      return winner.get();
+    } catch (ExecutionException e) {
+      final Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new ProcessingException(cause);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      winner.thenAccept(Response::close);
+      throw new ProcessingException(e);
+    }
+  }
+
+  /**
+   * Send a blocking request to a server on the hedging executor
+   *
+   * @param server Server
+   * @param request Function sending the request
+   * @return response
+   * @throws RejectedExecutionException if every hedging thread is busy
+   */
+  private CompletableFuture<Response> sendOnHedgeExecutor(
+      final Server server, final Function<WebTarget, Response> request) {
+    return CompletableFuture.supplyAsync(() -> send(server, request), hedgeExecutor);
+  }
+
+  /**
+   * Send a request to a server, and a second copy to another server if the first one did not
+   * respond within the hedging delay and the retry budget allows it.
+   *
+   * @param server Server
+   * @param tried Servers already tried, updated with the hedged server
+   * @param request Function sending the request
+   * @return first successful response, or the last failure if every copy failed
+   */
+  private CompletableFuture<Response> sendHedgedAsync(
+      final Server server,
+      final Set<Server> tried,
+      final Function<WebTarget, CompletionStage<Response>> request) {
+    return race(sendAsync(server, request), tried, other -> sendAsync(other, request));
+  }
+
+  /**
+   * Race a request against a copy sent to another server after the hedging delay. The first
+   * response that is not a server error wins and the other one is closed; otherwise the outcome of
+   * the last copy to complete is used. The retry budget is only charged when the copy is sent.
+   *
+   * @param first Request already sent
+   * @param tried Servers already tried, updated with the hedged server
+   * @param sender Function sending the copy to another server
+   * @return outcome of the race
+   */
+  private CompletableFuture<Response> race(
+      final CompletableFuture<Response> first,
+      final Set<Server> tried,
+      final Function<Server, CompletableFuture<Response>> sender) {
+    final CompletableFuture<Response> winner = new CompletableFuture<>();
+    final AtomicInteger pending = new AtomicInteger(1);
+    final BiConsumer<Response, Throwable> race =
+        (response, error) -> {
+          if ((error != null || isRetryable(response)) && pending.decrementAndGet() > 0) {
+            // the other copy is still running and may succeed
+            if (response != null) {
+              response.close();
+            }
+          } else if (error != null) {
+            winner.completeExceptionally(error);
+          } else if (!winner.complete(response)) {
+            // the other copy won, so nobody will read this response
+            response.close();
+          }
+        };
+    first.whenComplete(race);
+
+    final ScheduledFuture<?> hedge =
+        hedgeScheduler.schedule(
+            () -> {
+              if (winner.isDone()) {
+                return;
+              }
+              final Server other;
+              try {
+                other = chooseServer(tried);
+              } catch (IllegalStateException e) {
+                return;
+              }
+              if (winner.isDone() || !retryBudget.tryRetry()) {
+                return;
+              }
+              tried.add(other);
+              pending.incrementAndGet();
+              final CompletableFuture<Response> copy;
+              try {
+                copy = sender.apply(other);
+              } catch (RejectedExecutionException e) {
+                race.accept(null, e);
+                return;
+              }
+              copy.whenComplete(race);
+            },
+            getHedgeDelay(),
+            TimeUnit.NANOSECONDS);
+    winner.whenComplete((response, error) -> hedge.cancel(false));
+    return winner;
+  }
+
+  private static Throwable unwrap(final Throwable error) {
+    return error instanceof CompletionException && error.getCause() != null
+        ? error.getCause()
+        : error;
+  }
+
+  /**
+   * Return how long to wait for a response before sending a hedged request: the configured
+   * percentile of the response times of the last minute, recomputed at most once per second.
+   */
+  private long getHedgeDelay() {
+    final long now = System.nanoTime();
+    if (hedgeDelay < 0 || now - hedgeDelayUpdated >= TimeUnit.SECONDS.toNanos(1)) {
+      final long percentile =
+          (long) responseTimes.getSnapshot().getValue(retry.getHedgePercentile());
+      hedgeDelay = Math.max(retry.getMinHedgeDelay().toNanoseconds(), percentile);
+      hedgeDelayUpdated = now;
+    }
+    return hedgeDelay;
+  }
+
+  /**
+   * Create the executor sending blocking requests when hedging is enabled, which rejects requests
+   * rather than queueing them once all of its threads are busy. No thread is started until a
+   * request is hedged.
+   */
+  private static ExecutorService newHedgeExecutor(final String name, final int maxThreads) {
+    return new ThreadPoolExecutor(
+        0,
+        maxThreads,
+        1,
+        TimeUnit.MINUTES,
+        new SynchronousQueue<>(),
+        new ThreadFactoryBuilder().setNameFormat(name + "-hedge-%d").setDaemon(true).build());
+  }
+
+  /** Create the scheduler starting hedged requests */
+  private static ScheduledExecutorService newHedgeScheduler(final String name) {
+    return Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder()
+            .setNameFormat(name + "-hedge-scheduler-%d")
+            .setDaemon(true)
+            .build());
+  }
+
+  /**
+   * Choose a server that was not tried yet, falling back to any server when the load balancer keeps
+   * choosing servers that were already tried.
+   *
+   * @param tried Servers already tried
+   * @return a server
+   * @throws IllegalStateException if no servers are available
+   */
+  private Server chooseServer(final Set<Server> tried) {
+    Server server = fetchServerOrThrow();
+    for (int i = 0; i < MAX_CHOICES && tried.contains(server); i++) {
+      server = fetchServerOrThrow();
+    }
+    return server;
+  }
+
+  private static boolean isIdempotent(final String method) {
+    return IDEMPOTENT_METHODS.contains(method.toUpperCase(Locale.ROOT));
+  }
+
+  private static boolean isRetryable(final Response response) {
+    return response.getStatusInfo().getFamily() == Response.Status.Family.SERVER_ERROR;
+  }
+
   /**
    * Fetch a server from the load balancer or throw an exception if none are available.
    *
@@ -87,8 +682,68 @@ public class RibbonJerseyClient implements Client, Closeable {
     return server;
   }
 
+  /**
+   * Return the cached base target (scheme, host and port) of a server, creating it on first use.
+   * Servers are equal when their host and port are, so a target created for another instance with
+   * the same ID (which may have another scheme) is replaced.
+   *
+   * @param server Server to target
+   * @return base target of the server
+   */
+  private WebTarget getTarget(final Server server) {
+    final ServerTarget cached = targets.get(server);
+    if (cached != null && cached.server == server) {
+      return cached.target;
+    }
+    final WebTarget target =
+        track(
+            delegate.target(
+                UriBuilder.fromPath("")
+                    .scheme(server.getScheme())
+                    .host(server.getHost())
+                    .port(server.getPort())),
+            server);
+    targets.put(server, new ServerTarget(server, target));
+    return target;
+  }
+
+  /**
+   * Tag a target with the server it points to, so that requests to the server can be tracked.
+   *
+   * @param target Target of the server
+   * @param server Server chosen by the load balancer
+   * @return the target
+   */
+  private WebTarget track(final WebTarget target, final Server server) {
+    return target.property(SERVER_PROPERTY, server).property(CLIENT_PROPERTY, this);
+  }
+
+  /**
+   * Return whether a URI only consists of a path, so it can be appended to a cached server target
+   * without parsing or rebuilding the URI.
+   *
+   * @param uri URI to inspect
+   * @return true if the URI is a plain absolute path, otherwise false
+   */
+  private static boolean isPlainPath(final String uri) {
+    if (uri.isEmpty() || uri.charAt(0) != '/' || (uri.length() > 1 && uri.charAt(1) == '/')) {
+      return false;
+    }
+    for (int i = 1; i < uri.length(); i++) {
+      final char c = uri.charAt(i);
+      if (c == '?' || c == '#' || c == '%') {
+        return false;
+      }
+    }
+    return true;
+  }
+
   @Override
   public void close() {
+    if (ownsHedgeExecutors) {
+      hedgeScheduler.shutdownNow();
+      hedgeExecutor.shutdownNow();
+    }
     delegate.close();
     loadBalancer.shutdown();
   }
@@ -160,11 +815,14 @@ public class RibbonJerseyClient implements Client, Closeable {
   @Override
   public WebTarget target(String uri) {
     final Server server = fetchServerOrThrow();
+    if (isPlainPath(uri)) {
+      return getTarget(server).path(uri);
+    }
     final UriBuilder builder = UriBuilder.fromUri(uri);
     builder.scheme(server.getScheme());
     builder.host(server.getHost());
     builder.port(server.getPort());
-    return delegate.target(builder);
+    return track(delegate.target(builder), server);
   }
 
   /**
@@ -175,11 +833,14 @@ public class RibbonJerseyClient implements Client, Closeable {
   @Override
   public WebTarget target(URI uri) {
     final Server server = fetchServerOrThrow();
+    if (!uri.isAbsolute() && uri.getRawAuthority() == null && isPlainPath(uri.toString())) {
+      return getTarget(server).path(uri.getPath());
+    }
     final UriBuilder builder = UriBuilder.fromUri(uri);
     builder.scheme(server.getScheme());
     builder.host(server.getHost());
     builder.port(server.getPort());
-    return delegate.target(builder);
+    return track(delegate.target(builder), server);
   }
 
   /**
@@ -193,7 +854,7 @@ public class RibbonJerseyClient implements Client, Closeable {
     uriBuilder.scheme(server.getScheme());
     uriBuilder.host(server.getHost());
     uriBuilder.port(server.getPort());
-    return delegate.target(uriBuilder);
+    return track(delegate.target(uriBuilder), server);
   }
 
   /**
@@ -208,12 +869,23 @@ public class RibbonJerseyClient implements Client, Closeable {
     builder.scheme(server.getScheme());
     builder.host(server.getHost());
     builder.port(server.getPort());
-    return delegate.target(builder);
+    return track(delegate.target(builder), server);
   }
 
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The request is sent to a server chosen by the load balancer, like {@link #target(Link)}.
+   *
+   * @throws IllegalStateException if there are no available servers
+   */
   @Override
   public Builder invocation(Link link) {
-    return delegate.invocation(link);
+    final Builder builder = target(link).request();
+    if (link.getType() != null) {
+      builder.accept(link.getType());
+    }
+    return builder;
   }
 
   @Override
@@ -225,4 +897,15 @@ public class RibbonJerseyClient implements Client, Closeable {
   public HostnameVerifier getHostnameVerifier() {
     return delegate.getHostnameVerifier();
   }
+
+  /** The cached target of a server, with the server instance it was created for */
+  private static final class ServerTarget {
+    final Server server;
+    final WebTarget target;
+
+    ServerTarget(final Server server, final WebTarget target) {
+      this.server = server;
+      this.target = target;
+    }
+  }
 }
@@ -15,18 +15,37 @@
  */
 package com.smoketurner.dropwizard.consul.ribbon;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.primitives.Ints;
 import com.netflix.client.config.CommonClientConfigKey;
 import com.netflix.client.config.DefaultClientConfigImpl;
-import com.netflix.loadbalancer.LoadBalancerBuilder;
+import com.netflix.loadbalancer.DummyPing;
+import com.netflix.loadbalancer.DynamicServerListLoadBalancer;
+import com.netflix.loadbalancer.IRule;
+import com.netflix.loadbalancer.PollingServerListUpdater;
+import com.netflix.loadbalancer.RoundRobinRule;
 import com.netflix.loadbalancer.Server;
+import com.netflix.loadbalancer.ServerListFilter;
+import com.netflix.loadbalancer.ServerListUpdater;
 import com.netflix.loadbalancer.WeightedResponseTimeRule;
-import com.netflix.loadbalancer.ZoneAwareLoadBalancer;
+import com.netflix.loadbalancer.ZoneAvoidanceRule;
 import com.orbitz.consul.Consul;
+import com.orbitz.consul.option.ImmutableQueryOptions;
+import com.orbitz.consul.option.QueryOptions;
+import com.smoketurner.dropwizard.consul.snapshot.ConsulSnapshotStore;
 import io.dropwizard.client.JerseyClientBuilder;
 import io.dropwizard.lifecycle.Managed;
 import io.dropwizard.setup.Environment;
+import io.dropwizard.util.Duration;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.StringJoiner;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
 import javax.ws.rs.client.Client;
 
 public class RibbonJerseyClientBuilder {
@@ -34,6 +53,8 @@ public class RibbonJerseyClientBuilder {
   private final Environment environment;
   private final Consul consul;
   private final RibbonJerseyClientConfiguration configuration;
+  private final ConsulServiceWatcherRegistry watcherRegistry;
+  private final Optional<ConsulSnapshotStore> snapshotStore;
 
   /**
    * Constructor
@@ -46,9 +67,49 @@ public class RibbonJerseyClientBuilder {
       final Environment environment,
       final Consul consul,
       final RibbonJerseyClientConfiguration configuration) {
+    this(environment, consul, configuration, ConsulServiceWatcherRegistry.getDefault());
+  }
+
+  /**
+   * Constructor
+   *
+   * @param environment Dropwizard environment
+   * @param consul Consul client
+   * @param configuration Load balancer Configuration
+   * @param watcherRegistry Registry of service watchers shared between clients
+   */
+  public RibbonJerseyClientBuilder(
+      final Environment environment,
+      final Consul consul,
+      final RibbonJerseyClientConfiguration configuration,
+      final ConsulServiceWatcherRegistry watcherRegistry) {
+    this(environment, consul, configuration, watcherRegistry, Optional.empty());
+  }
+
+  /**
+   * Constructor
+   *
+   * @param environment Dropwizard environment
+   * @param consul Consul client
+   * @param configuration Load balancer Configuration
+   * @param watcherRegistry Registry of service watchers shared between clients
+   * @param snapshotStore Optional snapshot that the instances of every service are saved to, and
+   *     that load balancers start from
+   * @see com.smoketurner.dropwizard.consul.ConsulBundle#getSnapshotStore()
+   */
+  public RibbonJerseyClientBuilder(
+      final Environment environment,
+      final Consul consul,
+      final RibbonJerseyClientConfiguration configuration,
+      final ConsulServiceWatcherRegistry watcherRegistry,
+      final Optional<ConsulSnapshotStore> snapshotStore) {
     this.environment = Objects.requireNonNull(environment);
     this.consul = Objects.requireNonNull(consul);
     this.configuration = Objects.requireNonNull(configuration);
+    this.watcherRegistry = Objects.requireNonNull(watcherRegistry);
+    this.snapshotStore = Objects.requireNonNull(snapshotStore);
+
+    watcherRegistry.registerMetrics(environment.metrics());
   }
 
   /**
@@ -58,7 +119,7 @@ public class RibbonJerseyClientBuilder {
    * @return new RibbonJerseyClient
    */
   public RibbonJerseyClient build(final String name) {
-    return build(name, new HealthyConsulServiceDiscoverer(name));
+    return build(name, createServiceDiscoverer(name));
   }
 
   /**
@@ -86,7 +147,7 @@ public class RibbonJerseyClientBuilder {
    * @return new {@link RibbonJerseyClient}
    */
   public RibbonJerseyClient build(final String name, final Client jerseyClient) {
-    return build(name, jerseyClient, new HealthyConsulServiceDiscoverer(name));
+    return build(name, jerseyClient, createServiceDiscoverer(name));
   }
 
   /**
@@ -102,8 +163,19 @@ public class RibbonJerseyClientBuilder {
       final Client jerseyClient,
       final ConsulServiceDiscoverer serviceDiscoverer) {
 
-    // dynamic server list that is refreshed from Consul
-    final ConsulServerList serverList = new ConsulServerList(consul, serviceDiscoverer);
+    // dynamic server list that is refreshed from Consul, starting from the snapshot if there is one
+    final ConsulServerList serverList =
+        new ConsulServerList(
+            consul,
+            snapshotStore
+                .<ConsulServiceDiscoverer>map(
+                    store ->
+                        new SnapshotServiceDiscoverer(
+                            snapshotKey(name, configuration), serviceDiscoverer, store))
+                .orElse(serviceDiscoverer),
+            configuration.getZoneMetaKeys(),
+            configuration.getWeightMetaKey());
+    serverList.registerMetrics(environment.metrics(), name);
 
     // build a new load balancer based on the configuration
     final DefaultClientConfigImpl clientConfig = new DefaultClientConfigImpl();
@@ -112,14 +184,88 @@ public class RibbonJerseyClientBuilder {
         CommonClientConfigKey.ServerListRefreshInterval,
         Ints.checkedCast(configuration.getRefreshInterval().toMilliseconds()));
 
-    final ZoneAwareLoadBalancer<Server> loadBalancer =
-        LoadBalancerBuilder.newBuilder()
-            .withClientConfig(clientConfig)
-            .withRule(new WeightedResponseTimeRule())
-            .withDynamicServerList(serverList)
-            .buildDynamicServerListLoadBalancer();
+    // record the requests in flight, response times and failures of each server for the rules
+    final InFlightRequests inFlightRequests = new InFlightRequests();
+    if (!jerseyClient.getConfiguration().isRegistered(ServerStatsInterceptor.class)) {
+      jerseyClient.register(ServerStatsInterceptor.class);
+    }
+
+    // skip the servers ejected by the outlier detector, whichever rule chooses the servers
+    final Optional<OutlierDetector> outlierDetector =
+        configuration.getOutlierDetection().isEnabled()
+            ? Optional.of(new OutlierDetector(configuration.getOutlierDetection()))
+            : Optional.empty();
+    final IRule baseRule = createRule(configuration.getRule(), inFlightRequests);
+    final IRule rule =
+        outlierDetector
+            .<IRule>map(detector -> new OutlierEjectionRule(baseRule, detector))
+            .orElse(baseRule);
 
-    final RibbonJerseyClient client = new RibbonJerseyClient(loadBalancer, jerseyClient);
+    // keep the traffic in the local zone while it has enough healthy servers
+    final ZoneAffinityConfiguration zoneAffinity = configuration.getZoneAffinity();
+    @Nullable ServerListFilter<Server> filter = null;
+    if (zoneAffinity.isEnabled() && zoneAffinity.getZone().isPresent()) {
+      filter =
+          new LocalZoneServerListFilter(
+              zoneAffinity.getZone().get(), zoneAffinity, outlierDetector);
+    }
+
+    // watched services push their changes to the load balancer instead of being polled
+    final ServerListUpdater updater =
+        serviceDiscoverer instanceof ConsulServiceWatcher
+            ? new ConsulServerListUpdater((ConsulServiceWatcher) serviceDiscoverer)
+            : new PollingServerListUpdater(clientConfig);
+
+    // not a ZoneAwareLoadBalancer: it would create a copy of the rule for each zone with the
+    // no-arg constructor of its class, losing the counters, weights and outlier detector of the
+    // rules configured here. The zones are still tracked in the load balancer stats.
+    final DynamicServerListLoadBalancer<Server> loadBalancer =
+        new DynamicServerListLoadBalancer<>(
+            clientConfig, rule, new DummyPing(), serverList, filter, updater);
+
+    // ejections change the healthy servers of the local zone without any change in Consul, so
+    // apply the filter again to the known servers when a server is ejected and once it is
+    // readmitted, without querying Consul
+    if (filter != null && outlierDetector.isPresent()) {
+      final ServerListFilter<Server> zoneFilter = filter;
+      final Runnable refilter =
+          () ->
+              loadBalancer.setServersList(
+                  zoneFilter.getFilteredListOfServers(serverList.getCachedServers()));
+      final ScheduledExecutorService refresher =
+          environment.lifecycle().scheduledExecutorService(name + "-zone-affinity-%d").build();
+      outlierDetector
+          .get()
+          .addListener(
+              (server, ejectionNanos) -> {
+                refresher.execute(refilter);
+                refresher.schedule(refilter, ejectionNanos, TimeUnit.NANOSECONDS);
+              });
+    }
+
+    // blocking requests that may be hedged run on a bounded pool, stopped with the application
+    final RetryConfiguration retry = configuration.getRetry();
+    final ExecutorService hedgeExecutor =
+        environment
+            .lifecycle()
+            .executorService(name + "-hedge-%d")
+            .minThreads(0)
+            .maxThreads(retry.getMaxHedgeThreads())
+            .keepAliveTime(Duration.minutes(1))
+            .workQueue(new SynchronousQueue<>())
+            .build();
+    final ScheduledExecutorService hedgeScheduler =
+        environment.lifecycle().scheduledExecutorService(name + "-hedge-scheduler-%d").build();
+
+    final RibbonJerseyClient client =
+        new RibbonJerseyClient(
+            loadBalancer,
+            jerseyClient,
+            inFlightRequests,
+            outlierDetector,
+            retry,
+            hedgeExecutor,
+            hedgeScheduler);
 
     environment
         .lifecycle()
@@ -137,4 +283,93 @@ public class RibbonJerseyClientBuilder {
             });
     return client;
   }
+
+  /**
+   * Create the load balancing rule of a client
+   *
+   * @param rule Configured rule
+   * @param inFlightRequests In-flight request counters of the client
+   * @return load balancing rule
+   */
+  private static IRule createRule(
+      final RibbonJerseyClientConfiguration.Rule rule, final InFlightRequests inFlightRequests) {
+    switch (rule) {
+      case LEAST_OUTSTANDING:
+        return new LeastOutstandingRule(inFlightRequests);
+      case ROUND_ROBIN:
+        return new RoundRobinRule();
+      case WEIGHTED_RESPONSE_TIME:
+        return new WeightedResponseTimeRule();
+      case ZONE_AVOIDANCE:
+        return new ZoneAvoidanceRule();
+      case NEAREST:
+        return new NearestRule(inFlightRequests);
+      case WEIGHTED:
+        return new WeightedRule();
+      case POWER_OF_TWO_CHOICES:
+      default:
+        return new PowerOfTwoChoicesRule(inFlightRequests);
+    }
+  }
+
+  /**
+   * Create the default service discoverer for a service, either executing the configured prepared
+   * query, watching the service with blocking queries or polling for healthy instances depending on
+   * the configuration. Watchers are shared with every other client watching the same service.
+   *
+   * @param name Service name
+   * @return service discoverer
+   */
+  private ConsulServiceDiscoverer createServiceDiscoverer(final String name) {
+    if (configuration.getPreparedQuery().isPresent()) {
+      // prepared queries do not support blocking queries, so they are always polled
+      return new PreparedQueryServiceDiscoverer(configuration.getPreparedQuery().get());
+    }
+    final QueryOptions queryOptions = createQueryOptions();
+    if (configuration.isWatch()) {
+      watcherRegistry.registerMetrics(environment.metrics(), name);
+      return watcherRegistry.acquire(consul, name, queryOptions, configuration.getWatchTimeout());
+    }
+    return new HealthyConsulServiceDiscoverer(name, queryOptions);
+  }
+
+  /**
+   * Create the key of a service in the snapshot. Clients of the same service that discover
+   * different instances, because of their tags, filter expression, datacenter, node metadata or
+   * prepared query, must not share the same snapshot entry.
+   *
+   * @param service Service name
+   * @param configuration Client configuration
+   * @return the service name, followed by the options of the discovery if there are any
+   */
+  @VisibleForTesting
+  static String snapshotKey(
+      final String service, final RibbonJerseyClientConfiguration configuration) {
+    final StringJoiner options = new StringJoiner("&", service + "?", "").setEmptyValue(service);
+    configuration.getPreparedQuery().ifPresent(query -> options.add("query=" + query));
+    configuration.getDatacenter().ifPresent(dc -> options.add("dc=" + dc));
+    configuration.getTags().stream().sorted().forEach(tag -> options.add("tag=" + tag));
+    new TreeMap<>(configuration.getNodeMeta())
+        .forEach((key, value) -> options.add("node-meta=" + key + ":" + value));
+    configuration.getFilter().ifPresent(filter -> options.add("filter=" + filter));
+    configuration.getNear().ifPresent(near -> options.add("near=" + near));
+    return options.toString();
+  }
+
+  /**
+   * Create the options of the health queries from the configured tags, filter expression,
+   * datacenter and node metadata, so that Consul only returns the instances the client routes to,
+   * sorted by round trip time from the {@code near} node if configured.
+   *
+   * @return query options
+   */
+  private QueryOptions createQueryOptions() {
+    final ImmutableQueryOptions.Builder builder =
+        ImmutableQueryOptions.builder().tag(configuration.getTags());
+    configuration.getFilter().ifPresent(builder::filter);
+    configuration.getDatacenter().ifPresent(builder::datacenter);
+    configuration.getNear().ifPresent(builder::near);
+    configuration.getNodeMeta().forEach((key, value) -> builder.addNodeMeta(key + ":" + value));
+    return builder.build();
+  }
 }
@@ -16,18 +16,76 @@
 package com.smoketurner.dropwizard.consul.ribbon;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import io.dropwizard.client.JerseyClientConfiguration;
 import io.dropwizard.util.Duration;
+import io.dropwizard.validation.MaxDuration;
 import io.dropwizard.validation.MinDuration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import javax.validation.Valid;
 import javax.validation.constraints.NotNull;
 
 public class RibbonJerseyClientConfiguration extends JerseyClientConfiguration {
 
+  /** How the load balancer chooses a server for each request */
+  public enum Rule {
+    /** Pick two servers at random and choose the one with fewer requests in flight */
+    POWER_OF_TWO_CHOICES,
+    /** Choose the server with the fewest requests in flight */
+    LEAST_OUTSTANDING,
+    /** Cycle through the servers */
+    ROUND_ROBIN,
+    /** Weight the servers by their average response time */
+    WEIGHTED_RESPONSE_TIME,
+    /** Round robin across servers, avoiding zones with a high failure rate */
+    ZONE_AVOIDANCE,
+    /** Prefer the servers listed first by Consul, i.e. the nearest ones when sorted by RTT */
+    NEAREST,
+    /** Choose the servers at random in proportion to their Consul weight */
+    WEIGHTED
+  }
+
   @NotNull
   @MinDuration(value = 1, unit = TimeUnit.SECONDS)
   private Duration refreshInterval = Duration.seconds(10);
 
+  private boolean watch = false;
+
+  @NotNull
+  @MinDuration(value = 1, unit = TimeUnit.SECONDS)
+  @MaxDuration(value = 10, unit = TimeUnit.MINUTES)
+  private Duration watchTimeout = Duration.minutes(1);
+
+  @NotNull private Rule rule = Rule.POWER_OF_TWO_CHOICES;
+
+  @NotNull private List<String> tags = ImmutableList.of();
+
+  @Nullable private String filter;
+
+  @Nullable private String datacenter;
+
+  @NotNull private Map<String, String> nodeMeta = ImmutableMap.of();
+
+  @Nullable private String near;
+
+  @Nullable private String preparedQuery;
+
+  @Valid @NotNull
+  private OutlierDetectionConfiguration outlierDetection = new OutlierDetectionConfiguration();
+
+  @NotNull private List<String> zoneMetaKeys = ImmutableList.of();
+
+  @Nullable private String weightMetaKey;
+
+  @Valid @NotNull private ZoneAffinityConfiguration zoneAffinity = new ZoneAffinityConfiguration();
+
+  @Valid @NotNull private RetryConfiguration retry = new RetryConfiguration();
+
   @JsonProperty
   public Duration getRefreshInterval() {
     return refreshInterval;
@@ -37,4 +95,144 @@ public class RibbonJerseyClientConfiguration extends JerseyClientConfiguration {
   public void setRefreshInterval(Duration interval) {
     refreshInterval = interval;
   }
+
+  @JsonProperty
+  public boolean isWatch() {
+    return watch;
+  }
+
+  @JsonProperty
+  public void setWatch(boolean watch) {
+    this.watch = watch;
+  }
+
+  @JsonProperty
+  public Duration getWatchTimeout() {
+    return watchTimeout;
+  }
+
+  @JsonProperty
+  public void setWatchTimeout(Duration timeout) {
+    watchTimeout = timeout;
+  }
+
+  @JsonProperty
+  public Rule getRule() {
+    return rule;
+  }
+
+  @JsonProperty
+  public void setRule(Rule rule) {
+    this.rule = rule;
+  }
+
+  @JsonProperty
+  public List<String> getTags() {
+    return tags;
+  }
+
+  @JsonProperty
+  public void setTags(List<String> tags) {
+    this.tags = ImmutableList.copyOf(tags);
+  }
+
+  @JsonProperty
+  public Optional<String> getFilter() {
+    return Optional.ofNullable(filter);
+  }
+
+  @JsonProperty
+  public void setFilter(@Nullable String filter) {
+    this.filter = filter;
+  }
+
+  @JsonProperty
+  public Optional<String> getDatacenter() {
+    return Optional.ofNullable(datacenter);
+  }
+
+  @JsonProperty
+  public void setDatacenter(@Nullable String datacenter) {
+    this.datacenter = datacenter;
+  }
+
+  @JsonProperty
+  public Map<String, String> getNodeMeta() {
+    return nodeMeta;
+  }
+
+  @JsonProperty
+  public void setNodeMeta(Map<String, String> nodeMeta) {
+    this.nodeMeta = ImmutableMap.copyOf(nodeMeta);
+  }
+
+  @JsonProperty
+  public Optional<String> getNear() {
+    return Optional.ofNullable(near);
+  }
+
+  @JsonProperty
+  public void setNear(@Nullable String near) {
+    this.near = near;
+  }
+
+  @JsonProperty
+  public Optional<String> getPreparedQuery() {
+    return Optional.ofNullable(preparedQuery);
+  }
+
+  @JsonProperty
+  public void setPreparedQuery(@Nullable String preparedQuery) {
+    this.preparedQuery = preparedQuery;
+  }
+
+  @JsonProperty
+  public List<String> getZoneMetaKeys() {
+    return zoneMetaKeys;
+  }
+
+  @JsonProperty
+  public void setZoneMetaKeys(List<String> keys) {
+    this.zoneMetaKeys = ImmutableList.copyOf(keys);
+  }
+
+  @JsonProperty
+  public Optional<String> getWeightMetaKey() {
+    return Optional.ofNullable(weightMetaKey);
+  }
+
+  @JsonProperty
+  public void setWeightMetaKey(@Nullable String key) {
+    this.weightMetaKey = key;
+  }
+
+  @JsonProperty
+  public ZoneAffinityConfiguration getZoneAffinity() {
+    return zoneAffinity;
+  }
+
+  @JsonProperty
+  public void setZoneAffinity(ZoneAffinityConfiguration zoneAffinity) {
+    this.zoneAffinity = zoneAffinity;
+  }
+
+  @JsonProperty
+  public OutlierDetectionConfiguration getOutlierDetection() {
+    return outlierDetection;
+  }
+
+  @JsonProperty
+  public void setOutlierDetection(OutlierDetectionConfiguration outlierDetection) {
+    this.outlierDetection = outlierDetection;
+  }
+
+  @JsonProperty
+  public RetryConfiguration getRetry() {
+    return retry;
+  }
+
+  @JsonProperty
+  public void setRetry(RetryConfiguration retry) {
+    this.retry = retry;
+  }
 }
@@ -0,0 +1,35 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.consul.ribbon;
+
+import com.netflix.loadbalancer.Server;
+import java.util.List;
+
+/**
+ * Notified by a {@link ConsulServerList} when a refresh changes its servers. An instance whose
+ * address, port, scheme or zone changed is reported as removed and added again.
+ */
+@FunctionalInterface
+public interface ServerListDiffListener {
+
+  /**
+   * Called after a refresh that changed the servers
+   *
+   * @param added Servers that were not in the previous list
+   * @param removed Servers of the previous list that are no longer present
+   */
+  void onChange(List<Server> added, List<Server> removed);
+}
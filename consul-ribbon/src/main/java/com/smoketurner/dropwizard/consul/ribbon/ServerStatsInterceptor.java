@@ -0,0 +1,137 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.consul.ribbon;
+
+import com.netflix.loadbalancer.Server;
+import com.netflix.loadbalancer.ServerStats;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientResponseContext;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.Response;
+import org.glassfish.jersey.client.spi.PostInvocationInterceptor;
+import org.glassfish.jersey.client.spi.PreInvocationInterceptor;
+
+/**
+ * Records every request sent to a server chosen by a {@link RibbonJerseyClient}: the requests in
+ * flight, the response time and outcome in the {@link ServerStats} of the load balancer, which the
+ * response time weighted rule, zone avoidance and circuit breaking rely on, and the outcome in the
+ * {@link OutlierDetector} of the client if there is one. Unlike a response filter, the
+ * post-invocation interceptor also runs when a request fails without a response, so connection
+ * failures are recorded and do not leak in-flight counts. The interceptor is stateless, so a single
+ * Jersey client can be shared by several load balancers.
+ */
+public class ServerStatsInterceptor implements PreInvocationInterceptor, PostInvocationInterceptor {
+
+  private static final String START_PROPERTY = ServerStatsInterceptor.class.getName() + ".start";
+
+  @Override
+  public void beforeRequest(final ClientRequestContext requestContext) {
+    final Object client = getProperty(requestContext, RibbonJerseyClient.CLIENT_PROPERTY);
+    final Object server = getProperty(requestContext, RibbonJerseyClient.SERVER_PROPERTY);
+    if (!(client instanceof RibbonJerseyClient) || !(server instanceof Server)) {
+      return;
+    }
+    ((RibbonJerseyClient) client).getInFlightRequests().increment((Server) server);
+
+    final ServerStats stats = ((RibbonJerseyClient) client).getServerStats((Server) server);
+    stats.incrementActiveRequestsCount();
+    stats.incrementNumRequests();
+    requestContext.setProperty(START_PROPERTY, System.nanoTime());
+  }
+
+  @Override
+  public void afterRequest(
+      final ClientRequestContext requestContext, final ClientResponseContext responseContext) {
+    final boolean failed =
+        responseContext.getStatusInfo().getFamily() == Response.Status.Family.SERVER_ERROR;
+    complete(requestContext, failed, false);
+  }
+
+  @Override
+  public void onException(
+      final ClientRequestContext requestContext, final ExceptionContext exceptionContext) {
+    complete(requestContext, true, true);
+  }
+
+  /**
+   * Record the end of a request
+   *
+   * @param requestContext Request
+   * @param failed Whether the request failed
+   * @param connectionFailure Whether the request failed without a response
+   */
+  private static void complete(
+      final ClientRequestContext requestContext,
+      final boolean failed,
+      final boolean connectionFailure) {
+    final Object client = getProperty(requestContext, RibbonJerseyClient.CLIENT_PROPERTY);
+    final Object server = getProperty(requestContext, RibbonJerseyClient.SERVER_PROPERTY);
+    final Object start = requestContext.getProperty(START_PROPERTY);
+    if (!(client instanceof RibbonJerseyClient)
+        || !(server instanceof Server)
+        || !(start instanceof Long)) {
+      return;
+    }
+    final RibbonJerseyClient ribbonClient = (RibbonJerseyClient) client;
+    final Server target = (Server) server;
+    final double responseTime =
+        (System.nanoTime() - (Long) start) / (double) TimeUnit.MILLISECONDS.toNanos(1);
+
+    ribbonClient.getInFlightRequests().decrement(target);
+
+    final ServerStats stats = ribbonClient.getServerStats(target);
+    stats.decrementActiveRequestsCount();
+    stats.noteResponseTime(responseTime);
+    if (connectionFailure) {
+      stats.incrementSuccessiveConnectionFailureCount();
+    } else {
+      stats.clearSuccessiveConnectionFailureCount();
+    }
+    if (failed) {
+      stats.addToFailureCount();
+    }
+
+    ribbonClient
+        .getOutlierDetector()
+        .ifPresent(
+            detector -> {
+              if (failed) {
+                detector.onFailure(target);
+              } else {
+                detector.onSuccess(target, responseTime);
+              }
+            });
+  }
+
+  /**
+   * Return a property of a request, falling back to the properties of its {@link WebTarget}, which
+   * is where {@link RibbonJerseyClient} tags the server of a request.
+   *
+   * @param requestContext Request
+   * @param name Property name
+   * @return value of the property, or null if it is not set
+   */
+  @Nullable
+  private static Object getProperty(final ClientRequestContext requestContext, final String name) {
+    @Nullable final Object value = requestContext.getProperty(name);
+    if (value != null) {
+      return value;
+    }
+    return requestContext.getConfiguration().getProperty(name);
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.consul.ribbon;
+
+import com.orbitz.consul.Consul;
+import com.orbitz.consul.ConsulException;
+import com.orbitz.consul.model.health.ServiceHealth;
+import com.smoketurner.dropwizard.consul.snapshot.ConsulSnapshotStore;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link ConsulServiceDiscoverer} that saves the instances found by another discoverer to a
+ * {@link ConsulSnapshotStore}. The first discovery is answered from the snapshot, if it contains
+ * the service, so a load balancer can start without waiting for Consul; later discoveries go to
+ * Consul and only fall back to the snapshot while Consul cannot be reached.
+ */
+public class SnapshotServiceDiscoverer implements ConsulServiceDiscoverer {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(SnapshotServiceDiscoverer.class);
+
+  private final String key;
+  private final ConsulServiceDiscoverer delegate;
+  private final ConsulSnapshotStore snapshot;
+  private final AtomicBoolean initial = new AtomicBoolean(true);
+
+  /**
+   * Constructor
+   *
+   * @param key Key of the service in the snapshot, identifying the instances the delegate discovers
+   * @param delegate Discoverer querying Consul
+   * @param snapshot Snapshot store
+   */
+  public SnapshotServiceDiscoverer(
+      final String key,
+      final ConsulServiceDiscoverer delegate,
+      final ConsulSnapshotStore snapshot) {
+    this.key = Objects.requireNonNull(key);
+    this.delegate = Objects.requireNonNull(delegate);
+    this.snapshot = Objects.requireNonNull(snapshot);
+  }
+
+  @Override
+  public Collection<ServiceHealth> discover(final Consul consul) {
+    final Optional<List<ServiceHealth>> saved = snapshot.getService(key);
+    if (initial.getAndSet(false) && saved.isPresent()) {
+      LOGGER.info("Using {} instances of service ({}) from snapshot", saved.get().size(), key);
+      return saved.get();
+    }
+
+    try {
+      final Collection<ServiceHealth> instances = delegate.discover(consul);
+      snapshot.putService(key, instances);
+      return instances;
+    } catch (ConsulException e) {
+      if (!saved.isPresent()) {
+        throw e;
+      }
+      LOGGER.warn("Unable to discover service ({}), using snapshot", key, e);
+      return saved.get();
+    }
+  }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.consul.ribbon;
+
+import com.netflix.client.config.IClientConfig;
+import com.netflix.loadbalancer.AbstractLoadBalancerRule;
+import com.netflix.loadbalancer.BaseLoadBalancer;
+import com.netflix.loadbalancer.DynamicServerListLoadBalancer;
+import com.netflix.loadbalancer.ILoadBalancer;
+import com.netflix.loadbalancer.Server;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import javax.annotation.Nullable;
+
+/**
+ * Chooses the reachable servers at random, in proportion to their Consul weight. The servers are
+ * sampled in constant time from an alias table, which is rebuilt by the listeners of the load
+ * balancer when its servers or their status change, so choosing a server never walks the server
+ * list. Servers with a weight of 0 are never chosen, unless every server has a weight of 0.
+ */
+public class WeightedRule extends AbstractLoadBalancerRule {
+
+  @Nullable private volatile AliasTable table;
+  private volatile boolean listening = false;
+  private boolean watchingServerList = false;
+
+  @Override
+  public void initWithNiwsConfig(final IClientConfig clientConfig) {
+    // nothing to configure
+  }
+
+  @Override
+  public void setLoadBalancer(final ILoadBalancer lb) {
+    super.setLoadBalancer(lb);
+    table = null;
+    listening = lb instanceof BaseLoadBalancer;
+    if (lb instanceof BaseLoadBalancer) {
+      final BaseLoadBalancer loadBalancer = (BaseLoadBalancer) lb;
+      loadBalancer.addServerListChangeListener(
+          (oldList, newList) -> onServerListChange(lb, newList));
+      loadBalancer.addServerStatusChangeListener(servers -> rebuild(lb));
+      rebuild(lb);
+    }
+  }
+
+  @Nullable
+  @Override
+  public Server choose(final Object key) {
+    @Nullable final ILoadBalancer loadBalancer = getLoadBalancer();
+    if (loadBalancer == null) {
+      return null;
+    }
+
+    @Nullable AliasTable current = table;
+    if (!listening) {
+      // the load balancer does not notify changes, so compare its servers with the table
+      final List<Server> servers = loadBalancer.getReachableServers();
+      if (current == null || !current.isBuiltFrom(servers)) {
+        current = new AliasTable(servers);
+        table = current;
+      }
+    } else if (current == null) {
+      current = rebuild(loadBalancer);
+    }
+    return current.isEmpty() ? null : current.choose(ThreadLocalRandom.current());
+  }
+
+  /** Rebuild the table from the reachable servers of the load balancer that are still alive */
+  private synchronized AliasTable rebuild(final ILoadBalancer loadBalancer) {
+    final List<Server> servers = new ArrayList<>();
+    for (Server server : loadBalancer.getReachableServers()) {
+      if (server.isAlive()) {
+        servers.add(server);
+      }
+    }
+    final AliasTable rebuilt = new AliasTable(servers);
+    table = rebuilt;
+    return rebuilt;
+  }
+
+  /**
+   * Rebuild the table from a new server list. The load balancer notifies the new list before it
+   * replaces its own lists and marks the servers alive, so the servers of the new list are assumed
+   * reachable until the load balancer reports their status.
+   */
+  private void onServerListChange(final ILoadBalancer loadBalancer, final List<Server> servers) {
+    // the server list is only known once the load balancer is initialized, after the rule is set
+    if (loadBalancer instanceof DynamicServerListLoadBalancer) {
+      final Object serverList =
+          ((DynamicServerListLoadBalancer<?>) loadBalancer).getServerListImpl();
+      if (serverList instanceof ConsulServerList) {
+        synchronized (this) {
+          if (!watchingServerList) {
+            watchingServerList = true;
+            ((ConsulServerList) serverList).addListener(this::onServerListDiff);
+          }
+        }
+      }
+    }
+    synchronized (this) {
+      table = new AliasTable(servers);
+    }
+  }
+
+  /**
+   * Replace the servers of the table that Consul replaced with a server of the same ID, e.g. when
+   * their weight changed. The load balancer does not notify such a change as its server list still
+   * holds the same IDs; other changes are applied when the load balancer notifies them.
+   */
+  private synchronized void onServerListDiff(final List<Server> added, final List<Server> removed) {
+    @Nullable final AliasTable current = table;
+    if (current == null || added.isEmpty() || removed.isEmpty()) {
+      return;
+    }
+    final Map<String, Server> replacements = new HashMap<>();
+    for (Server server : added) {
+      replacements.put(server.getId(), server);
+    }
+    final Server[] servers = current.servers.clone();
+    boolean replaced = false;
+    for (int i = 0; i < servers.length; i++) {
+      @Nullable final Server replacement = replacements.get(servers[i].getId());
+      if (replacement != null && contains(removed, servers[i])) {
+        servers[i] = replacement;
+        replaced = true;
+      }
+    }
+    if (replaced) {
+      table = new AliasTable(Arrays.asList(servers));
+    }
+  }
+
+  private static boolean contains(final Collection<Server> servers, final Server server) {
+    for (Server candidate : servers) {
+      if (candidate == server) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Vose's alias method: each column holds a server and an alias to fill its remaining share */
+  private static final class AliasTable {
+    private final Server[] servers;
+    private final double[] probability;
+    private final int[] alias;
+
+    AliasTable(final List<Server> list) {
+      final int size = list.size();
+      servers = list.toArray(new Server[0]);
+      probability = new double[size];
+      alias = new int[size];
+
+      long total = 0;
+      for (Server server : servers) {
+        total += Math.max(0, ConsulServer.getWeight(server));
+      }
+
+      // scale the weights so that they average 1, then pair each column below 1 with one above
+      final double[] scaled = new double[size];
+      final int[] small = new int[size];
+      final int[] large = new int[size];
+      int smallCount = 0;
+      int largeCount = 0;
+      for (int i = 0; i < size; i++) {
+        final int weight = total == 0 ? 1 : Math.max(0, ConsulServer.getWeight(servers[i]));
+        scaled[i] = (double) weight * size / (total == 0 ? size : total);
+        if (scaled[i] < 1.0) {
+          small[smallCount++] = i;
+        } else {
+          large[largeCount++] = i;
+        }
+      }
+      while (smallCount > 0 && largeCount > 0) {
+        final int less = small[--smallCount];
+        final int more = large[--largeCount];
+        probability[less] = scaled[less];
+        alias[less] = more;
+        scaled[more] = scaled[more] + scaled[less] - 1.0;
+        if (scaled[more] < 1.0) {
+          small[smallCount++] = more;
+        } else {
+          large[largeCount++] = more;
+        }
+      }
+      // what is left only differs from 1 by rounding errors
+      while (largeCount > 0) {
+        probability[large[--largeCount]] = 1.0;
+      }
+      while (smallCount > 0) {
+        probability[small[--smallCount]] = 1.0;
+      }
+    }
+
+    boolean isBuiltFrom(final List<Server> list) {
+      if (list.size() != servers.length) {
+        return false;
+      }
+      for (int i = 0; i < servers.length; i++) {
+        if (list.get(i) != servers[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    boolean isEmpty() {
+      return servers.length == 0;
+    }
+
+    Server choose(final ThreadLocalRandom random) {
+      final int column = random.nextInt(servers.length);
+      return random.nextDouble() < probability[column] ? servers[column] : servers[alias[column]];
+    }
+  }
+}
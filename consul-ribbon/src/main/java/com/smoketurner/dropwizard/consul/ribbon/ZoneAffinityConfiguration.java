@@ -0,0 +1,85 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.consul.ribbon;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Strings;
+import io.dropwizard.validation.ValidationMethod;
+import java.util.Optional;
+import javax.annotation.Nullable;
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+
+public class ZoneAffinityConfiguration {
+
+  private boolean enabled = false;
+
+  @Nullable private String zone;
+
+  @Min(1)
+  private int minAvailableServers = 2;
+
+  @Min(0)
+  @Max(100)
+  private int minHealthyPercent = 75;
+
+  @JsonProperty
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  @JsonProperty
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  @JsonProperty
+  public Optional<String> getZone() {
+    return Optional.ofNullable(zone);
+  }
+
+  @JsonProperty
+  public void setZone(@Nullable String zone) {
+    this.zone = zone;
+  }
+
+  @JsonProperty
+  public int getMinAvailableServers() {
+    return minAvailableServers;
+  }
+
+  @JsonProperty
+  public void setMinAvailableServers(int servers) {
+    this.minAvailableServers = servers;
+  }
+
+  @JsonProperty
+  public int getMinHealthyPercent() {
+    return minHealthyPercent;
+  }
+
+  @JsonProperty
+  public void setMinHealthyPercent(int percent) {
+    this.minHealthyPercent = percent;
+  }
+
+  @JsonIgnore
+  @ValidationMethod(message = "zone must be set when zone affinity is enabled")
+  public boolean isZoneSet() {
+    return !enabled || !Strings.isNullOrEmpty(zone);
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.consul.ribbon;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.netflix.loadbalancer.Server;
+import com.orbitz.consul.Consul;
+import com.smoketurner.dropwizard.consul.testing.FakeConsulServer;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConsulServerListTest {
+
+  private final List<List<Server>> added = new ArrayList<>();
+  private final List<List<Server>> removed = new ArrayList<>();
+  private FakeConsulServer server;
+  private Consul consul;
+  private ConsulServerList serverList;
+
+  @Before
+  public void setUp() throws Exception {
+    server = new FakeConsulServer();
+    consul = server.newClient();
+    server.addService("api", "api-1", "10.0.0.1", 8080);
+    server.addService("api", "api-2", "10.0.0.2", 8080);
+    serverList = new ConsulServerList(consul, new HealthyConsulServiceDiscoverer("api"));
+    serverList.addListener(
+        (a, r) -> {
+          added.add(a);
+          removed.add(r);
+        });
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    consul.destroy();
+    server.close();
+  }
+
+  @Test
+  public void testInitialList() {
+    final List<Server> servers = serverList.getInitialListOfServers();
+
+    assertThat(servers).extracting(Server::getHost).containsOnly("10.0.0.1", "10.0.0.2");
+    assertThat(servers).allMatch(s -> "http".equals(s.getScheme()) && s.getPort() == 8080);
+    assertThat(added).containsExactly(servers);
+    assertThat(removed).containsExactly(new ArrayList<>());
+  }
+
+  @Test
+  public void testUnchangedListIsReused() {
+    final List<Server> servers = serverList.getInitialListOfServers();
+
+    assertThat(serverList.getUpdatedListOfServers()).isSameAs(servers);
+    assertThat(added).hasSize(1);
+  }
+
+  @Test
+  public void testCachedServersAreTheLastRefresh() {
+    assertThat(serverList.getCachedServers()).isEmpty();
+    final List<Server> servers = serverList.getInitialListOfServers();
+    final long requests = server.getRequestCount();
+
+    assertThat(serverList.getCachedServers()).isSameAs(servers);
+    assertThat(server.getRequestCount()).isEqualTo(requests);
+  }
+
+  @Test
+  public void testAddedAndRemovedServers() {
+    final List<Server> servers = serverList.getInitialListOfServers();
+    final Server first = find(servers, "10.0.0.1");
+    final Server second = find(servers, "10.0.0.2");
+
+    server.removeService("api-1");
+    server.addService("api", "api-3", "10.0.0.3", 8080);
+    final List<Server> updated = serverList.getUpdatedListOfServers();
+
+    assertThat(updated).extracting(Server::getHost).containsOnly("10.0.0.2", "10.0.0.3");
+    assertThat(find(updated, "10.0.0.2")).isSameAs(second);
+    assertThat(added.get(1)).containsExactly(find(updated, "10.0.0.3"));
+    assertThat(removed.get(1)).containsExactly(first);
+  }
+
+  @Test
+  public void testChangedServerIsReplaced() {
+    final Server before = find(serverList.getInitialListOfServers(), "10.0.0.2");
+
+    server.addService("api", "api-2", "10.0.0.2", 9090);
+    final Server after = find(serverList.getUpdatedListOfServers(), "10.0.0.2");
+
+    assertThat(after).isNotSameAs(before);
+    assertThat(after.getPort()).isEqualTo(9090);
+    assertThat(added.get(1)).containsExactly(after);
+    assertThat(removed.get(1)).containsExactly(before);
+  }
+
+  private static Server find(final List<Server> servers, final String host) {
+    return servers.stream().filter(s -> s.getHost().equals(host)).findFirst().get();
+  }
+}
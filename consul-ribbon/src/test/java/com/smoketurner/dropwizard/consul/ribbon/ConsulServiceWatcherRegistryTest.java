@@ -0,0 +1,94 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.consul.ribbon;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.orbitz.consul.Consul;
+import com.orbitz.consul.HealthClient;
+import com.orbitz.consul.model.ConsulResponse;
+import com.orbitz.consul.option.QueryOptions;
+import io.dropwizard.util.Duration;
+import java.math.BigInteger;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConsulServiceWatcherRegistryTest {
+
+  private final Consul consul = mock(Consul.class);
+  private final ConsulServiceWatcherRegistry registry = new ConsulServiceWatcherRegistry();
+
+  @Before
+  public void setUp() {
+    final HealthClient healthClient = mock(HealthClient.class);
+    when(consul.healthClient()).thenReturn(healthClient);
+    when(healthClient.getHealthyServiceInstances(anyString(), any(QueryOptions.class)))
+        .thenAnswer(
+            invocation -> {
+              // stands in for a blocking query that does not see a change
+              Uninterruptibles.sleepUninterruptibly(100, TimeUnit.MILLISECONDS);
+              return new ConsulResponse<>(
+                  ImmutableList.of(), 0, true, BigInteger.ONE, Optional.empty());
+            });
+  }
+
+  @Test
+  public void testWatchersAreShared() {
+    final ConsulServiceWatcher first = acquire("api");
+    final ConsulServiceWatcher second = acquire("api");
+    final ConsulServiceWatcher other = acquire("other");
+
+    assertThat(second).isSameAs(first);
+    assertThat(other).isNotSameAs(first);
+    assertThat(registry.size()).isEqualTo(2);
+
+    first.close();
+    second.close();
+    other.close();
+  }
+
+  @Test
+  public void testLastReleaseRemovesWatcher() {
+    final ConsulServiceWatcher first = acquire("api");
+    final ConsulServiceWatcher second = acquire("api");
+
+    first.close();
+    assertThat(second.isClosed()).isFalse();
+    assertThat(registry.size()).isEqualTo(1);
+
+    second.close();
+    assertThat(second.isClosed()).isTrue();
+    assertThat(registry.size()).isZero();
+
+    final ConsulServiceWatcher third = acquire("api");
+    assertThat(third).isNotSameAs(first);
+    assertThat(registry.size()).isEqualTo(1);
+    third.close();
+    assertThat(registry.size()).isZero();
+  }
+
+  private ConsulServiceWatcher acquire(final String service) {
+    return registry.acquire(consul, service, QueryOptions.BLANK, Duration.seconds(1));
+  }
+}
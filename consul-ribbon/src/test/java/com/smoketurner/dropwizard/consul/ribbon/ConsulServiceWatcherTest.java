@@ -0,0 +1,118 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.consul.ribbon;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.orbitz.consul.Consul;
+import com.orbitz.consul.HealthClient;
+import com.orbitz.consul.model.ConsulResponse;
+import com.orbitz.consul.model.health.ServiceHealth;
+import com.orbitz.consul.option.QueryOptions;
+import io.dropwizard.util.Duration;
+import java.math.BigInteger;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class ConsulServiceWatcherTest {
+
+  @Test
+  public void testWatchRecoversFromUnexpectedException() throws Exception {
+    final Consul consul = mock(Consul.class);
+    final HealthClient healthClient = mock(HealthClient.class);
+    final ConsulResponse<List<ServiceHealth>> response = response(5);
+    when(consul.healthClient()).thenReturn(healthClient);
+    when(healthClient.getHealthyServiceInstances(eq("api"), any(QueryOptions.class)))
+        .thenThrow(new IllegalStateException("unexpected"))
+        .thenReturn(response)
+        .thenAnswer(
+            invocation -> {
+              // stands in for a blocking query that does not see a change
+              Uninterruptibles.sleepUninterruptibly(100, TimeUnit.MILLISECONDS);
+              return response;
+            });
+
+    final CountDownLatch updated = new CountDownLatch(1);
+    try (ConsulServiceWatcher watcher =
+        new ConsulServiceWatcher(consul, "api", Duration.seconds(1))) {
+      watcher.addListener(updated::countDown);
+      watcher.start();
+
+      assertThat(updated.await(5, TimeUnit.SECONDS)).isTrue();
+      assertThat(watcher.getLastContacted()).isPositive();
+    }
+  }
+
+  @Test
+  public void testIndexHandling() throws Exception {
+    final Consul consul = mock(Consul.class);
+    final HealthClient healthClient = mock(HealthClient.class);
+    final List<Long> indexes = new CopyOnWriteArrayList<>();
+    final BlockingQueue<ConsulResponse<List<ServiceHealth>>> responses =
+        new LinkedBlockingQueue<>(
+            ImmutableList.of(response(5), response(5), response(3), response(7)));
+    when(consul.healthClient()).thenReturn(healthClient);
+    when(healthClient.getHealthyServiceInstances(eq("api"), any(QueryOptions.class)))
+        .thenAnswer(
+            invocation -> {
+              final QueryOptions options = invocation.getArgument(1);
+              indexes.add(options.getIndex().map(BigInteger::longValue).orElse(-1L));
+              // block like a query that does not see a change once every response was returned
+              try {
+                final ConsulResponse<List<ServiceHealth>> response =
+                    responses.poll(5, TimeUnit.SECONDS);
+                return response == null ? response(7) : response;
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return response(7);
+              }
+            });
+
+    final BlockingQueue<Integer> updates = new LinkedBlockingQueue<>();
+    final AtomicInteger count = new AtomicInteger();
+    try (ConsulServiceWatcher watcher =
+        new ConsulServiceWatcher(consul, "api", Duration.seconds(1))) {
+      watcher.addListener(() -> updates.add(count.incrementAndGet()));
+      watcher.start();
+
+      // the first response, the index reset and the new index are changes, the repeat is not
+      for (int i = 1; i <= 3; i++) {
+        assertThat(updates.poll(5, TimeUnit.SECONDS)).isEqualTo(i);
+      }
+      assertThat(updates.poll(200, TimeUnit.MILLISECONDS)).isNull();
+      // the watch starts over from zero after Consul reset its index
+      assertThat(indexes).startsWith(0L, 5L, 5L, 0L, 7L);
+    }
+  }
+
+  private static ConsulResponse<List<ServiceHealth>> response(final long index) {
+    return new ConsulResponse<>(
+        ImmutableList.of(), 0, true, BigInteger.valueOf(index), Optional.empty());
+  }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.consul.ribbon;
+
+import static com.smoketurner.dropwizard.consul.ribbon.Servers.newServer;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.netflix.loadbalancer.BaseLoadBalancer;
+import com.netflix.loadbalancer.Server;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LeastOutstandingRuleTest {
+
+  private final Server a = newServer("10.0.0.1");
+  private final Server b = newServer("10.0.0.2");
+  private final Server c = newServer("10.0.0.3");
+  private final InFlightRequests inFlightRequests = new InFlightRequests();
+  private final LeastOutstandingRule rule = new LeastOutstandingRule(inFlightRequests);
+  private final BaseLoadBalancer loadBalancer = new BaseLoadBalancer();
+
+  @Before
+  public void setUp() {
+    loadBalancer.setRule(rule);
+    loadBalancer.setServersList(ImmutableList.of(a, b, c));
+  }
+
+  @Test
+  public void testNoServers() {
+    loadBalancer.setServersList(ImmutableList.of());
+    assertThat(rule.choose(null)).isNull();
+  }
+
+  @Test
+  public void testChoosesLeastOutstanding() {
+    inFlightRequests.increment(a);
+    inFlightRequests.increment(c);
+    inFlightRequests.increment(c);
+
+    assertThat(rule.choose(null)).isEqualTo(b);
+
+    inFlightRequests.increment(b);
+    inFlightRequests.increment(b);
+    inFlightRequests.decrement(c);
+    inFlightRequests.decrement(c);
+
+    assertThat(rule.choose(null)).isEqualTo(c);
+  }
+
+  @Test
+  public void testTiesAreShared() {
+    final Set<Server> chosen = new HashSet<>();
+    for (int i = 0; i < 300; i++) {
+      chosen.add(rule.choose(null));
+    }
+    assertThat(chosen).containsOnly(a, b, c);
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.consul.ribbon;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.netflix.loadbalancer.Server;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import org.junit.Test;
+
+public class LocalZoneServerListFilterTest {
+
+  private final ZoneAffinityConfiguration configuration = new ZoneAffinityConfiguration();
+  private final List<Server> local = servers("a", 4);
+  private final List<Server> remote = servers("b", 4);
+  private final List<Server> all =
+      ImmutableList.<Server>builder().addAll(local).addAll(remote).build();
+
+  @Test
+  public void testKeepsLocalZone() {
+    final LocalZoneServerListFilter filter =
+        new LocalZoneServerListFilter("a", configuration, Optional.empty());
+
+    assertThat(filter.getFilteredListOfServers(all)).containsExactlyElementsOf(local);
+    assertThat(filter.isSpilling()).isFalse();
+  }
+
+  @Test
+  public void testSpillsWithTooFewServers() {
+    final LocalZoneServerListFilter filter =
+        new LocalZoneServerListFilter("a", configuration, Optional.empty());
+    final List<Server> servers =
+        ImmutableList.<Server>builder().add(local.get(0)).addAll(remote).build();
+
+    assertThat(filter.getFilteredListOfServers(servers)).containsExactlyElementsOf(servers);
+    assertThat(filter.isSpilling()).isTrue();
+
+    assertThat(filter.getFilteredListOfServers(all)).containsExactlyElementsOf(local);
+    assertThat(filter.isSpilling()).isFalse();
+  }
+
+  @Test
+  public void testSpillsWithTooFewHealthyServers() {
+    final OutlierDetectionConfiguration outlierDetection = new OutlierDetectionConfiguration();
+    outlierDetection.setConsecutiveFailures(1);
+    final OutlierDetector detector = new OutlierDetector(outlierDetection);
+    detector.setServerCount(all.size());
+    final LocalZoneServerListFilter filter =
+        new LocalZoneServerListFilter("a", configuration, Optional.of(detector));
+
+    // 3 healthy servers out of 4 is still 75% of the zone
+    detector.onFailure(local.get(0));
+    assertThat(filter.getFilteredListOfServers(all)).containsExactlyElementsOf(local);
+    assertThat(filter.isSpilling()).isFalse();
+
+    detector.onFailure(local.get(1));
+    assertThat(filter.getFilteredListOfServers(all)).containsExactlyElementsOf(all);
+    assertThat(filter.isSpilling()).isTrue();
+
+    detector.remove(ImmutableList.of(local.get(0), local.get(1)));
+    assertThat(filter.getFilteredListOfServers(all)).containsExactlyElementsOf(local);
+    assertThat(filter.isSpilling()).isFalse();
+  }
+
+  private static List<Server> servers(final String zone, final int count) {
+    final List<Server> servers = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      final Server server = new Server(zone + i, 8080);
+      server.setZone(zone);
+      servers.add(server);
+    }
+    return servers;
+  }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.consul.ribbon;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.netflix.loadbalancer.Server;
+import io.dropwizard.util.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Before;
+import org.junit.Test;
+
+public class OutlierDetectorTest {
+
+  private final AtomicLong nanos = new AtomicLong();
+  private final Server a = new Server("10.0.0.1", 8080);
+  private final Server b = new Server("10.0.0.2", 8080);
+  private final Server c = new Server("10.0.0.3", 8080);
+  private final Server d = new Server("10.0.0.4", 8080);
+  private final OutlierDetectionConfiguration configuration = new OutlierDetectionConfiguration();
+  private OutlierDetector detector;
+
+  @Before
+  public void setUp() {
+    configuration.setConsecutiveFailures(3);
+    configuration.setBaseEjectionTime(Duration.seconds(10));
+    configuration.setMaxEjectionTime(Duration.seconds(30));
+    configuration.setMinimumRequests(5);
+    detector =
+        new OutlierDetector(
+            configuration,
+            new Ticker() {
+              @Override
+              public long read() {
+                return nanos.get();
+              }
+            });
+    detector.retain(ImmutableList.of(a, b, c, d));
+  }
+
+  @Test
+  public void testConsecutiveFailures() {
+    detector.onFailure(a);
+    detector.onFailure(a);
+    detector.onSuccess(a, 10);
+    detector.onFailure(a);
+    detector.onFailure(a);
+    assertThat(detector.isEjected(a)).isFalse();
+
+    detector.onFailure(a);
+    assertThat(detector.isEjected(a)).isTrue();
+    assertThat(detector.isEjected(b)).isFalse();
+  }
+
+  @Test
+  public void testEjectionTimeDoubles() {
+    eject(a);
+    advance(9);
+    assertThat(detector.isEjected(a)).isTrue();
+    advance(1);
+    assertThat(detector.isEjected(a)).isFalse();
+
+    eject(a);
+    advance(19);
+    assertThat(detector.isEjected(a)).isTrue();
+    advance(1);
+    assertThat(detector.isEjected(a)).isFalse();
+
+    // capped by the maximum ejection time
+    eject(a);
+    advance(30);
+    eject(a);
+    advance(30);
+    assertThat(detector.isEjected(a)).isFalse();
+  }
+
+  @Test
+  public void testMaxEjectionPercent() {
+    eject(a);
+    eject(b);
+    eject(c);
+
+    assertThat(detector.isEjected(a)).isTrue();
+    assertThat(detector.isEjected(b)).isTrue();
+    assertThat(detector.isEjected(c)).isFalse();
+  }
+
+  @Test
+  public void testLatencyOutlier() {
+    configuration.setLatencyFactor(3.0);
+    for (int i = 0; i < 5; i++) {
+      detector.onSuccess(a, 10);
+      detector.onSuccess(b, 12);
+      detector.onSuccess(c, 11);
+    }
+    for (int i = 0; i < 4; i++) {
+      detector.onSuccess(d, 100);
+    }
+    assertThat(detector.isEjected(d)).isFalse();
+
+    detector.onSuccess(d, 100);
+    assertThat(detector.isEjected(d)).isTrue();
+    assertThat(detector.isEjected(a)).isFalse();
+  }
+
+  @Test
+  public void testRemovedServerIsForgotten() {
+    eject(a);
+    detector.remove(ImmutableList.of(a));
+
+    assertThat(detector.isEjected(a)).isFalse();
+  }
+
+  private void eject(final Server server) {
+    for (int i = 0; i < configuration.getConsecutiveFailures(); i++) {
+      detector.onFailure(server);
+    }
+  }
+
+  private void advance(final long seconds) {
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(seconds));
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.consul.ribbon;
+
+import static com.smoketurner.dropwizard.consul.ribbon.Servers.newServer;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.netflix.loadbalancer.BaseLoadBalancer;
+import com.netflix.loadbalancer.RoundRobinRule;
+import com.netflix.loadbalancer.Server;
+import io.dropwizard.util.Duration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Before;
+import org.junit.Test;
+
+public class OutlierEjectionRuleTest {
+
+  private final AtomicLong nanos = new AtomicLong();
+  private final Server a = newServer("10.0.0.1");
+  private final Server b = newServer("10.0.0.2");
+  private final Server c = newServer("10.0.0.3");
+  private final OutlierDetectionConfiguration configuration = new OutlierDetectionConfiguration();
+  private final BaseLoadBalancer loadBalancer = new BaseLoadBalancer();
+  private OutlierDetector detector;
+
+  @Before
+  public void setUp() {
+    configuration.setConsecutiveFailures(2);
+    configuration.setBaseEjectionTime(Duration.seconds(30));
+    detector =
+        new OutlierDetector(
+            configuration,
+            new Ticker() {
+              @Override
+              public long read() {
+                return nanos.get();
+              }
+            });
+    loadBalancer.setRule(new OutlierEjectionRule(new RoundRobinRule(), detector));
+    loadBalancer.setServersList(ImmutableList.of(a, b, c));
+    detector.retain(loadBalancer.getAllServers());
+  }
+
+  @Test
+  public void testEjectedServerIsSkipped() {
+    detector.onFailure(b);
+    assertThat(chooseServers()).containsOnly(a, b, c);
+
+    detector.onFailure(b);
+    assertThat(chooseServers()).containsOnly(a, c);
+
+    nanos.addAndGet(Duration.seconds(30).toNanoseconds());
+    assertThat(chooseServers()).containsOnly(a, b, c);
+  }
+
+  private Set<Server> chooseServers() {
+    final Set<Server> chosen = new HashSet<>();
+    for (int i = 0; i < 30; i++) {
+      chosen.add(loadBalancer.chooseServer(null));
+    }
+    return chosen;
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.consul.ribbon;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.common.base.Ticker;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+
+public class RetryBudgetTest {
+
+  private final AtomicLong nanos = new AtomicLong();
+  private final Ticker ticker =
+      new Ticker() {
+        @Override
+        public long read() {
+          return nanos.get();
+        }
+      };
+
+  @Test
+  public void testRatioOfRequests() {
+    final RetryBudget budget = new RetryBudget(0.1, 0, ticker);
+    assertThat(budget.tryRetry()).isFalse();
+
+    for (int i = 0; i < 10; i++) {
+      budget.onRequest();
+    }
+    assertThat(budget.tryRetry()).isTrue();
+    assertThat(budget.tryRetry()).isFalse();
+  }
+
+  @Test
+  public void testMinRetriesPerSecond() {
+    final RetryBudget budget = new RetryBudget(0, 2, ticker);
+    assertThat(budget.tryRetry()).isTrue();
+    assertThat(budget.tryRetry()).isTrue();
+    assertThat(budget.tryRetry()).isFalse();
+
+    nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(500));
+    assertThat(budget.tryRetry()).isTrue();
+    assertThat(budget.tryRetry()).isFalse();
+  }
+
+  @Test
+  public void testTokensAreCapped() {
+    final RetryBudget budget = new RetryBudget(1.0, 1, ticker);
+    for (int i = 0; i < 100; i++) {
+      budget.onRequest();
+    }
+    nanos.addAndGet(TimeUnit.HOURS.toNanos(1));
+
+    int retries = 0;
+    while (budget.tryRetry()) {
+      retries++;
+    }
+    assertThat(retries).isEqualTo(10);
+  }
+
+  @Test
+  public void testNoBudget() {
+    final RetryBudget budget = new RetryBudget(0, 0, ticker);
+    budget.onRequest();
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(10));
+
+    assertThat(budget.tryRetry()).isFalse();
+  }
+}
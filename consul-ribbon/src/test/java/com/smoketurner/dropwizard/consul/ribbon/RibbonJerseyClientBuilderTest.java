@@ -0,0 +1,321 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.consul.ribbon;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Multiset;
+import com.netflix.loadbalancer.Server;
+import com.orbitz.consul.Consul;
+import com.smoketurner.dropwizard.consul.snapshot.ConsulSnapshotStore;
+import com.smoketurner.dropwizard.consul.testing.FakeConsulServer;
+import io.dropwizard.setup.Environment;
+import io.dropwizard.util.Duration;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+import javax.ws.rs.client.WebTarget;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RibbonJerseyClientBuilderTest {
+
+  private final RibbonJerseyClientConfiguration configuration =
+      new RibbonJerseyClientConfiguration();
+  @Rule public final TemporaryFolder folder = new TemporaryFolder();
+  private FakeConsulServer server;
+  private Consul consul;
+  private RibbonJerseyClient client;
+
+  @Before
+  public void setUp() throws Exception {
+    server = new FakeConsulServer();
+    consul = server.newClient();
+    server.addService("api", "api-1", "10.0.0.1", 8080, ImmutableList.of(), zone("us-east-1a"));
+    server.addService("api", "api-2", "10.0.0.2", 8080, ImmutableList.of(), zone("us-east-1b"));
+    server.addService("api", "api-3", "10.0.0.3", 8080, ImmutableList.of(), zone("us-east-1c"));
+    configuration.setZoneMetaKeys(ImmutableList.of("az"));
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if (client != null) {
+      client.close();
+    }
+    consul.destroy();
+    server.close();
+  }
+
+  @Test
+  public void testDefaultRuleChoosesServers() {
+    client = build();
+    assertThat(chooseServers()).hasSize(3);
+  }
+
+  @Test
+  public void testEveryRuleChoosesServers() {
+    for (RibbonJerseyClientConfiguration.Rule rule :
+        RibbonJerseyClientConfiguration.Rule.values()) {
+      configuration.setRule(rule);
+      client = build();
+      // the nearest rule only spreads the requests over the nearest half of the servers
+      final int expected = rule == RibbonJerseyClientConfiguration.Rule.NEAREST ? 2 : 3;
+      assertThat(chooseServers()).as(rule.name()).hasSize(expected);
+      client.close();
+      client = null;
+    }
+  }
+
+  @Test
+  public void testNearestRuleChoosesServersListedFirst() {
+    configuration.setRule(RibbonJerseyClientConfiguration.Rule.NEAREST);
+    client = build();
+    assertThat(chooseServers()).containsOnly("10.0.0.1", "10.0.0.2");
+  }
+
+  @Test
+  public void testWeightedRuleFollowsWeights() {
+    server.clearServices();
+    server.addService("api", "api-1", "10.0.0.1", 8080, ImmutableList.of(), weight("1"));
+    server.addService("api", "api-2", "10.0.0.2", 8080, ImmutableList.of(), weight("3"));
+    server.addService("api", "api-3", "10.0.0.3", 8080, ImmutableList.of(), weight("6"));
+    configuration.setRule(RibbonJerseyClientConfiguration.Rule.WEIGHTED);
+    configuration.setWeightMetaKey("weight");
+    client = build();
+
+    final Multiset<String> hosts = HashMultiset.create();
+    for (int i = 0; i < 10000; i++) {
+      hosts.add(client.target("/ping").getUri().getHost());
+    }
+    assertThat(hosts.count("10.0.0.1")).isBetween(800, 1200);
+    assertThat(hosts.count("10.0.0.2")).isBetween(2700, 3300);
+    assertThat(hosts.count("10.0.0.3")).isBetween(5600, 6400);
+  }
+
+  @Test
+  public void testWeightedRuleFollowsWeightChanges() throws Exception {
+    server.clearServices();
+    server.addService("api", "api-1", "10.0.0.1", 8080, ImmutableList.of(), weight("1"));
+    server.addService("api", "api-2", "10.0.0.2", 8080, ImmutableList.of(), weight("1"));
+    configuration.setRule(RibbonJerseyClientConfiguration.Rule.WEIGHTED);
+    configuration.setWeightMetaKey("weight");
+    configuration.setWatchTimeout(Duration.seconds(1));
+    client = build();
+    assertThat(chooseServers()).containsOnly("10.0.0.1", "10.0.0.2");
+
+    // only the weight changes, so the load balancer keeps a server list with the same IDs
+    server.addService("api", "api-2", "10.0.0.2", 8080, ImmutableList.of(), weight("0"));
+    for (int i = 0; i < 100 && chooseServers().contains("10.0.0.2"); i++) {
+      Thread.sleep(50);
+    }
+    assertThat(chooseServers()).containsOnly("10.0.0.1");
+  }
+
+  @Test
+  public void testTargetFollowsSchemeChanges() throws Exception {
+    server.clearServices();
+    server.addService(
+        "api", "api-1", "10.0.0.1", 8080, ImmutableList.of(), ImmutableMap.of("scheme", "http"));
+    configuration.setWatchTimeout(Duration.seconds(1));
+    client = build();
+    assertThat(client.target("/ping").getUri().getScheme()).isEqualTo("http");
+
+    // the server is replaced by a server with the same ID, so the load balancer is not notified
+    server.addService(
+        "api", "api-1", "10.0.0.1", 8080, ImmutableList.of(), ImmutableMap.of("scheme", "https"));
+    for (int i = 0; i < 100 && !"https".equals(client.target("/ping").getUri().getScheme()); i++) {
+      Thread.sleep(50);
+    }
+    final WebTarget target = client.target("/ping");
+    assertThat(target.getUri().getScheme()).isEqualTo("https");
+    assertThat(target.getConfiguration().getProperty(RibbonJerseyClient.SERVER_PROPERTY))
+        .isSameAs(find("10.0.0.1"));
+  }
+
+  @Test
+  public void testSnapshotKeepsDifferentlyFilteredClientsApart() throws Exception {
+    server.clearServices();
+    server.addService(
+        "api", "api-1", "10.0.0.1", 8080, ImmutableList.of("blue"), zone("us-east-1a"));
+    server.addService(
+        "api", "api-2", "10.0.0.2", 8080, ImmutableList.of("green"), zone("us-east-1a"));
+    final RibbonJerseyClientConfiguration green = new RibbonJerseyClientConfiguration();
+    green.setTags(ImmutableList.of("green"));
+    configuration.setTags(ImmutableList.of("blue"));
+
+    final Path path = folder.getRoot().toPath().resolve("snapshot.json");
+    final ConsulSnapshotStore store = new ConsulSnapshotStore(path);
+    final ConsulServiceWatcherRegistry registry = new ConsulServiceWatcherRegistry();
+    try (RibbonJerseyClient blueClient =
+            new RibbonJerseyClientBuilder(
+                    new Environment("test"), consul, configuration, registry, Optional.of(store))
+                .build("api");
+        RibbonJerseyClient greenClient =
+            new RibbonJerseyClientBuilder(
+                    new Environment("test"), consul, green, registry, Optional.of(store))
+                .build("api")) {
+      assertThat(blueClient.getAvailableServers()).hasSize(1);
+      assertThat(greenClient.getAvailableServers()).hasSize(1);
+    }
+    store.stop();
+
+    // a client starting from the snapshot only gets the instances matching its own filter
+    final ConsulSnapshotStore loaded = new ConsulSnapshotStore(path);
+    assertThat(RibbonJerseyClientBuilder.snapshotKey("api", configuration))
+        .isNotEqualTo(RibbonJerseyClientBuilder.snapshotKey("api", green));
+    assertThat(addresses(loaded, RibbonJerseyClientBuilder.snapshotKey("api", configuration)))
+        .containsOnly("10.0.0.1");
+    assertThat(addresses(loaded, RibbonJerseyClientBuilder.snapshotKey("api", green)))
+        .containsOnly("10.0.0.2");
+    loaded.stop();
+  }
+
+  @Test
+  public void testSnapshotKeyIsTheServiceNameWithoutOptions() {
+    assertThat(RibbonJerseyClientBuilder.snapshotKey("api", new RibbonJerseyClientConfiguration()))
+        .isEqualTo("api");
+  }
+
+  @Test
+  public void testZoneAffinitySpillsOverWhenLocalServerIsEjected() throws Exception {
+    configuration.getZoneAffinity().setEnabled(true);
+    configuration.getZoneAffinity().setZone("us-east-1a");
+    configuration.getZoneAffinity().setMinAvailableServers(1);
+    configuration.getOutlierDetection().setEnabled(true);
+    configuration.getOutlierDetection().setBaseEjectionTime(Duration.seconds(1));
+    // the detector only sees the servers of the local zone, here a single one
+    configuration.getOutlierDetection().setMaxEjectionPercent(100);
+    client = build();
+    assertThat(chooseServers()).containsOnly("10.0.0.1");
+
+    // nothing changes in Consul, only the outlier detector sees the local server fail
+    final OutlierDetector detector = client.getOutlierDetector().get();
+    final Server local = find("10.0.0.1");
+    final long requests = server.getRequestCount();
+    for (int i = 0; i < configuration.getOutlierDetection().getConsecutiveFailures(); i++) {
+      detector.onFailure(local);
+    }
+    for (int i = 0; i < 100 && !chooseServers().contains("10.0.0.2"); i++) {
+      Thread.sleep(5);
+    }
+    assertThat(chooseServers()).containsOnly("10.0.0.2", "10.0.0.3");
+    // the known servers are filtered again, Consul is not queried
+    assertThat(server.getRequestCount()).isEqualTo(requests);
+
+    // the local zone is used again once the server is readmitted
+    for (int i = 0; i < 100 && chooseServers().size() > 1; i++) {
+      Thread.sleep(50);
+    }
+    assertThat(chooseServers()).containsOnly("10.0.0.1");
+  }
+
+  @Test
+  public void testOutlierDetectionEjectsServer() {
+    configuration.getOutlierDetection().setEnabled(true);
+    client = build();
+    final OutlierDetector detector = client.getOutlierDetector().get();
+    final Server ejected = find("10.0.0.2");
+    for (int i = 0; i < configuration.getOutlierDetection().getConsecutiveFailures(); i++) {
+      detector.onFailure(ejected);
+    }
+
+    assertThat(detector.isEjected(ejected)).isTrue();
+    assertThat(chooseServers()).containsOnly("10.0.0.1", "10.0.0.3");
+  }
+
+  @Test
+  public void testRemovedServerIsForgotten() throws Exception {
+    configuration.setWatch(true);
+    configuration.setWatchTimeout(Duration.seconds(1));
+    configuration.getOutlierDetection().setEnabled(true);
+    client = build();
+    final OutlierDetector detector = client.getOutlierDetector().get();
+    final Server ejected = find("10.0.0.2");
+    for (int i = 0; i < configuration.getOutlierDetection().getConsecutiveFailures(); i++) {
+      detector.onFailure(ejected);
+    }
+    client.getInFlightRequests().increment(ejected);
+
+    server.removeService("api-2");
+    awaitServers(2);
+    server.addService("api", "api-2", "10.0.0.2", 8080, ImmutableList.of(), zone("us-east-1b"));
+    awaitServers(3);
+
+    final Server readded = find("10.0.0.2");
+    assertThat(readded).isNotSameAs(ejected);
+    assertThat(detector.isEjected(readded)).isFalse();
+    assertThat(client.getInFlightRequests().get(readded)).isZero();
+    assertThat(chooseServers()).hasSize(3);
+  }
+
+  @Test
+  public void testPollingChoosesServers() {
+    configuration.setWatch(false);
+    client = build();
+    assertThat(chooseServers()).hasSize(3);
+  }
+
+  private RibbonJerseyClient build() {
+    return new RibbonJerseyClientBuilder(
+            new Environment("test"), consul, configuration, new ConsulServiceWatcherRegistry())
+        .build("api");
+  }
+
+  private static List<String> addresses(final ConsulSnapshotStore store, final String key) {
+    return store.getService(key).get().stream()
+        .map(health -> health.getService().getAddress())
+        .collect(Collectors.toList());
+  }
+
+  private Server find(final String host) {
+    return client.getAvailableServers().stream()
+        .filter(s -> s.getHost().equals(host))
+        .findFirst()
+        .get();
+  }
+
+  private void awaitServers(final int count) throws InterruptedException {
+    for (int i = 0; i < 100 && client.getAvailableServers().size() != count; i++) {
+      Thread.sleep(50);
+    }
+    assertThat(client.getAvailableServers()).hasSize(count);
+  }
+
+  private Set<String> chooseServers() {
+    final Set<String> hosts = new HashSet<>();
+    for (int i = 0; i < 300; i++) {
+      hosts.add(client.target("/ping").getUri().getHost());
+    }
+    return hosts;
+  }
+
+  private static ImmutableMap<String, String> weight(final String weight) {
+    return ImmutableMap.of("scheme", "http", "weight", weight);
+  }
+
+  private static ImmutableMap<String, String> zone(final String zone) {
+    return ImmutableMap.of("scheme", "http", "az", zone);
+  }
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.consul.ribbon;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.netflix.loadbalancer.DynamicServerListLoadBalancer;
+import com.netflix.loadbalancer.RoundRobinRule;
+import com.netflix.loadbalancer.Server;
+import com.sun.net.httpserver.HttpServer;
+import io.dropwizard.util.Duration;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.core.Response;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RibbonJerseyClientTest {
+
+  private final RetryConfiguration retry = new RetryConfiguration();
+  private final ExecutorService handlers = Executors.newCachedThreadPool();
+  private final Set<String> threads = ConcurrentHashMap.newKeySet();
+  private FakeServer healthy;
+  private FakeServer unhealthy;
+  private RibbonJerseyClient client;
+
+  @Before
+  public void setUp() throws Exception {
+    healthy = new FakeServer(200, 0);
+    unhealthy = new FakeServer(503, 0);
+  }
+
+  @After
+  public void tearDown() {
+    if (client != null) {
+      client.close();
+    }
+    healthy.close();
+    unhealthy.close();
+    handlers.shutdownNow();
+  }
+
+  @Test
+  public void testInvokeRetriesOnAnotherServer() {
+    client = build();
+    for (int i = 0; i < 4; i++) {
+      assertThat(invoke(HttpMethod.GET)).isEqualTo(200);
+    }
+    // round robin sends every first attempt to the unhealthy server
+    assertThat(unhealthy.requests.get()).isEqualTo(4);
+    assertThat(healthy.requests.get()).isEqualTo(4);
+  }
+
+  @Test
+  public void testInvokeDoesNotRetryNonIdempotentRequests() {
+    client = build();
+    final List<Integer> statuses = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      statuses.add(invoke(HttpMethod.POST));
+    }
+    assertThat(statuses).containsExactlyInAnyOrder(200, 200, 503, 503);
+  }
+
+  @Test
+  public void testInvokeWithoutRetries() {
+    retry.setMaxRetries(0);
+    client = build();
+    final List<Integer> statuses = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      statuses.add(invoke(HttpMethod.GET));
+    }
+    assertThat(statuses).containsExactlyInAnyOrder(200, 200, 503, 503);
+  }
+
+  @Test
+  public void testInvokeDoesNotShareTargetChanges() {
+    client = build();
+    final List<Object> properties = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      try (Response response =
+          client.invoke(
+              HttpMethod.GET,
+              target -> {
+                properties.add(target.getConfiguration().getProperty("test"));
+                return target.property("test", "value").path("/").request().get();
+              })) {
+        assertThat(response.getStatus()).isIn(200, 503);
+      }
+    }
+    assertThat(properties).isNotEmpty().containsOnlyNulls();
+  }
+
+  @Test
+  public void testInvokeAsyncRetriesOnAnotherServer() throws Exception {
+    client = build();
+    for (int i = 0; i < 4; i++) {
+      try (Response response = invokeAsync()) {
+        assertThat(response.getStatus()).isEqualTo(200);
+      }
+    }
+    assertThat(unhealthy.requests.get()).isEqualTo(4);
+    assertThat(healthy.requests.get()).isEqualTo(4);
+  }
+
+  @Test
+  public void testInvokeAsyncDoesNotShareTargetChanges() throws Exception {
+    client = build();
+    final List<Object> properties = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      try (Response response =
+          client
+              .invokeAsync(
+                  HttpMethod.GET,
+                  target -> {
+                    properties.add(target.getConfiguration().getProperty("test"));
+                    return target.property("test", "value").path("/").request().rx().get();
+                  })
+              .toCompletableFuture()
+              .get(5, TimeUnit.SECONDS)) {
+        assertThat(response.getStatus()).isIn(200, 503);
+      }
+    }
+    assertThat(properties).isNotEmpty().containsOnlyNulls();
+  }
+
+  @Test
+  public void testInvokeIsNotHedgedBeforeDelay() throws Exception {
+    unhealthy.close();
+    unhealthy = new FakeServer(200, 0);
+    retry.setHedge(true);
+    retry.setMinHedgeDelay(Duration.seconds(5));
+    client = build();
+
+    for (int i = 0; i < 4; i++) {
+      assertThat(invoke(HttpMethod.GET)).isEqualTo(200);
+    }
+    assertThat(healthy.requests.get() + unhealthy.requests.get()).isEqualTo(4);
+    assertThat(threads).doesNotContain(Thread.currentThread().getName());
+  }
+
+  @Test
+  public void testInvokeIsSentOnCallingThreadWithoutHedging() throws Exception {
+    client = build();
+    invoke(HttpMethod.GET);
+    assertThat(threads).containsOnly(Thread.currentThread().getName());
+  }
+
+  @Test
+  public void testInvokeHedgeReplacesFailedRequest() throws Exception {
+    unhealthy.close();
+    unhealthy = new FakeServer(503, 500);
+    retry.setMaxRetries(0);
+    retry.setHedge(true);
+    retry.setMinHedgeDelay(Duration.milliseconds(50));
+    client = build();
+
+    for (int i = 0; i < 2; i++) {
+      assertThat(invoke(HttpMethod.GET)).isEqualTo(200);
+    }
+    // the slow server is tried first, and hedged on the healthy server
+    assertThat(unhealthy.requests.get()).isEqualTo(2);
+    assertThat(healthy.requests.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void testInvokeHedgeReturnsFirstResponse() throws Exception {
+    unhealthy.close();
+    unhealthy = new FakeServer(200, 2000);
+    retry.setHedge(true);
+    retry.setMinHedgeDelay(Duration.milliseconds(50));
+    client = build();
+
+    final long start = System.nanoTime();
+    for (int i = 0; i < 2; i++) {
+      assertThat(invoke(HttpMethod.GET)).isEqualTo(200);
+    }
+    assertThat(System.nanoTime() - start).isLessThan(TimeUnit.SECONDS.toNanos(2));
+    assertThat(unhealthy.requests.get()).isEqualTo(2);
+    assertThat(healthy.requests.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void testInvokeIsSentOnCallingThreadWhenHedgeThreadsAreBusy() throws Exception {
+    unhealthy.close();
+    unhealthy = new FakeServer(200, 0);
+    retry.setHedge(true);
+    retry.setMinHedgeDelay(Duration.seconds(5));
+    // a stopped executor rejects every request, like a busy one
+    final ExecutorService hedgeExecutor = Executors.newSingleThreadExecutor();
+    hedgeExecutor.shutdown();
+    final ScheduledExecutorService hedgeScheduler = Executors.newSingleThreadScheduledExecutor();
+    client = build(hedgeExecutor, hedgeScheduler);
+
+    assertThat(invoke(HttpMethod.GET)).isEqualTo(200);
+    assertThat(threads).containsOnly(Thread.currentThread().getName());
+  }
+
+  @Test
+  public void testInvokeAsyncHedgeReturnsFirstResponse() throws Exception {
+    unhealthy.close();
+    unhealthy = new FakeServer(200, 2000);
+    retry.setHedge(true);
+    retry.setMinHedgeDelay(Duration.milliseconds(50));
+    client = build();
+
+    final long start = System.nanoTime();
+    for (int i = 0; i < 2; i++) {
+      try (Response response = invokeAsync()) {
+        assertThat(response.getStatus()).isEqualTo(200);
+      }
+    }
+    assertThat(System.nanoTime() - start).isLessThan(TimeUnit.SECONDS.toNanos(2));
+    assertThat(unhealthy.requests.get()).isEqualTo(2);
+    assertThat(healthy.requests.get()).isEqualTo(2);
+  }
+
+  private RibbonJerseyClient build() {
+    final DynamicServerListLoadBalancer<Server> loadBalancer =
+        new DynamicServerListLoadBalancer<>();
+    loadBalancer.setRule(new RoundRobinRule());
+    loadBalancer.setServersList(ImmutableList.of(healthy.server, unhealthy.server));
+    return new RibbonJerseyClient(
+        loadBalancer,
+        ClientBuilder.newClient().register(ServerStatsInterceptor.class),
+        new InFlightRequests(),
+        Optional.empty(),
+        retry);
+  }
+
+  private RibbonJerseyClient build(
+      final ExecutorService hedgeExecutor, final ScheduledExecutorService hedgeScheduler) {
+    final DynamicServerListLoadBalancer<Server> loadBalancer =
+        new DynamicServerListLoadBalancer<>();
+    loadBalancer.setRule(new RoundRobinRule());
+    loadBalancer.setServersList(ImmutableList.of(healthy.server, unhealthy.server));
+    return new RibbonJerseyClient(
+        loadBalancer,
+        ClientBuilder.newClient().register(ServerStatsInterceptor.class),
+        new InFlightRequests(),
+        Optional.empty(),
+        retry,
+        hedgeExecutor,
+        hedgeScheduler);
+  }
+
+  private int invoke(final String method) {
+    try (Response response =
+        client.invoke(
+            method,
+            target -> {
+              threads.add(Thread.currentThread().getName());
+              return HttpMethod.POST.equals(method)
+                  ? target.path("/").request().post(Entity.text(""))
+                  : target.path("/").request().method(method);
+            })) {
+      return response.getStatus();
+    }
+  }
+
+  private Response invokeAsync() throws Exception {
+    return client
+        .invokeAsync(HttpMethod.GET, target -> target.path("/").request().rx().get())
+        .toCompletableFuture()
+        .get(5, TimeUnit.SECONDS);
+  }
+
+  /** An HTTP server responding to every request with a fixed status after a fixed latency */
+  private final class FakeServer {
+    final AtomicInteger requests = new AtomicInteger();
+    final HttpServer httpServer;
+    final Server server;
+
+    FakeServer(final int status, final long latencyMs) throws IOException {
+      httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+      httpServer.setExecutor(handlers);
+      httpServer.createContext(
+          "/",
+          exchange -> {
+            requests.incrementAndGet();
+            try {
+              Thread.sleep(latencyMs);
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+          });
+      httpServer.start();
+      server = new Server("http", "127.0.0.1", httpServer.getAddress().getPort());
+      server.setAlive(true);
+    }
+
+    void close() {
+      httpServer.stop(0);
+    }
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.consul.ribbon;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.netflix.loadbalancer.DynamicServerListLoadBalancer;
+import com.netflix.loadbalancer.Server;
+import com.netflix.loadbalancer.ServerStats;
+import com.sun.net.httpserver.HttpServer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Optional;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.core.Response;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ServerStatsInterceptorTest {
+
+  private final InFlightRequests inFlightRequests = new InFlightRequests();
+  private HttpServer httpServer;
+  private Server server;
+  private OutlierDetector detector;
+  private RibbonJerseyClient client;
+
+  @Before
+  public void setUp() throws Exception {
+    httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    httpServer.createContext(
+        "/ping",
+        exchange -> {
+          exchange.sendResponseHeaders(200, -1);
+          exchange.close();
+        });
+    httpServer.createContext(
+        "/fail",
+        exchange -> {
+          exchange.sendResponseHeaders(503, -1);
+          exchange.close();
+        });
+    httpServer.start();
+
+    server = new Server("http", "127.0.0.1", httpServer.getAddress().getPort());
+    server.setAlive(true);
+    final DynamicServerListLoadBalancer<Server> loadBalancer =
+        new DynamicServerListLoadBalancer<>();
+    loadBalancer.setServersList(ImmutableList.of(server));
+
+    final OutlierDetectionConfiguration outlierDetection = new OutlierDetectionConfiguration();
+    outlierDetection.setConsecutiveFailures(2);
+    outlierDetection.setMaxEjectionPercent(100);
+    detector = new OutlierDetector(outlierDetection);
+
+    client =
+        new RibbonJerseyClient(
+            loadBalancer,
+            ClientBuilder.newClient().register(ServerStatsInterceptor.class),
+            inFlightRequests,
+            Optional.of(detector));
+  }
+
+  @After
+  public void tearDown() {
+    client.close();
+    httpServer.stop(0);
+  }
+
+  @Test
+  public void testSuccessfulRequest() {
+    try (Response response = client.target("/ping").request().get()) {
+      assertThat(response.getStatus()).isEqualTo(200);
+    }
+
+    final ServerStats stats = client.getServerStats(server);
+    assertThat(stats.getTotalRequestsCount()).isEqualTo(1);
+    assertThat(stats.getActiveRequestsCount()).isZero();
+    assertThat(stats.getFailureCount()).isZero();
+    assertThat(inFlightRequests.get(server)).isZero();
+  }
+
+  @Test
+  public void testFailedRequests() {
+    for (int i = 0; i < 2; i++) {
+      try (Response response = client.target("/fail").request().get()) {
+        assertThat(response.getStatus()).isEqualTo(503);
+      }
+    }
+
+    final ServerStats stats = client.getServerStats(server);
+    assertThat(stats.getTotalRequestsCount()).isEqualTo(2);
+    assertThat(stats.getActiveRequestsCount()).isZero();
+    assertThat(stats.getFailureCount()).isEqualTo(2);
+    assertThat(inFlightRequests.get(server)).isZero();
+    assertThat(detector.isEjected(server)).isTrue();
+  }
+}
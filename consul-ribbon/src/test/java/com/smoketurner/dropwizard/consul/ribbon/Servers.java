@@ -0,0 +1,49 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.consul.ribbon;
+
+import com.netflix.loadbalancer.Server;
+
+/** Servers used by the tests of the load balancing rules */
+final class Servers {
+
+  private Servers() {}
+
+  /**
+   * Create a live server
+   *
+   * @param host Host of the server
+   * @return Server listening on port 8080
+   */
+  static Server newServer(final String host) {
+    final Server server = new Server("http", host, 8080);
+    server.setAlive(true);
+    return server;
+  }
+
+  /**
+   * Create a live server registered in Consul with a weight
+   *
+   * @param host Host of the server
+   * @param weight Weight of the server
+   * @return Server listening on port 8080
+   */
+  static Server newServer(final String host, final int weight) {
+    final Server server = new ConsulServer("http", host, 8080, weight);
+    server.setAlive(true);
+    return server;
+  }
+}
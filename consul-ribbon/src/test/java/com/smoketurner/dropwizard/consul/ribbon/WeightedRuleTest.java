@@ -0,0 +1,122 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.consul.ribbon;
+
+import static com.smoketurner.dropwizard.consul.ribbon.Servers.newServer;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Multiset;
+import com.netflix.loadbalancer.BaseLoadBalancer;
+import com.netflix.loadbalancer.Server;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WeightedRuleTest {
+
+  private final WeightedRule rule = new WeightedRule();
+  private final BaseLoadBalancer loadBalancer = new BaseLoadBalancer();
+
+  @Before
+  public void setUp() {
+    loadBalancer.setRule(rule);
+  }
+
+  @Test
+  public void testNoServers() {
+    assertThat(rule.choose(null)).isNull();
+  }
+
+  @Test
+  public void testChoosesInProportionToWeights() {
+    final Server a = newServer("10.0.0.1", 1);
+    final Server b = newServer("10.0.0.2", 0);
+    final Server c = newServer("10.0.0.3", 4);
+    loadBalancer.setServersList(ImmutableList.of(a, b, c));
+
+    final Multiset<Server> chosen = chooseServers();
+    assertThat(chosen.count(a)).isBetween(1700, 2300);
+    assertThat(chosen.count(b)).isZero();
+    assertThat(chosen.count(c)).isBetween(7700, 8300);
+  }
+
+  @Test
+  public void testTableIsRebuiltWhenServersChange() {
+    final Server a = newServer("10.0.0.1", 1);
+    final Server b = newServer("10.0.0.2", 1);
+    loadBalancer.setServersList(ImmutableList.of(a));
+    assertThat(chooseServers().elementSet()).containsOnly(a);
+
+    loadBalancer.setServersList(ImmutableList.of(a, b));
+    assertThat(chooseServers().elementSet()).containsOnly(a, b);
+  }
+
+  @Test
+  public void testZeroWeightsAreChosenEvenly() {
+    final Server a = newServer("10.0.0.1", 0);
+    final Server b = newServer("10.0.0.2", 0);
+    final Server c = newServer("10.0.0.3");
+    loadBalancer.setServersList(ImmutableList.of(a, b));
+
+    final Multiset<Server> chosen = chooseServers();
+    assertThat(chosen.count(a)).isBetween(4500, 5500);
+    assertThat(chosen.count(b)).isBetween(4500, 5500);
+
+    // servers that were not discovered in Consul have a weight of 1
+    loadBalancer.setServersList(ImmutableList.of(a, c));
+    assertThat(chooseServers().elementSet()).containsOnly(c);
+  }
+
+  @Test
+  public void testTableIsRebuiltWhenServerIsMarkedDown() {
+    final Server a = newServer("10.0.0.1", 1);
+    final Server b = newServer("10.0.0.2", 1);
+    loadBalancer.setServersList(ImmutableList.of(a, b));
+    assertThat(chooseServers().elementSet()).containsOnly(a, b);
+
+    loadBalancer.markServerDown(a);
+    assertThat(chooseServers().elementSet()).containsOnly(b);
+  }
+
+  @Test
+  public void testChooseDoesNotReadServerList() {
+    final BaseLoadBalancer spied = spy(new BaseLoadBalancer());
+    final WeightedRule spiedRule = new WeightedRule();
+    spied.setRule(spiedRule);
+    spied.setServersList(ImmutableList.of(newServer("10.0.0.1", 1), newServer("10.0.0.2", 3)));
+    spiedRule.choose(null);
+    clearInvocations(spied);
+
+    for (int i = 0; i < 100; i++) {
+      assertThat(spiedRule.choose(null)).isNotNull();
+    }
+    verify(spied, never()).getReachableServers();
+    verify(spied, never()).getAllServers();
+  }
+
+  private Multiset<Server> chooseServers() {
+    final Multiset<Server> chosen = HashMultiset.create();
+    for (int i = 0; i < 10000; i++) {
+      chosen.add(loadBalancer.chooseServer(null));
+    }
+    return chosen;
+  }
+}
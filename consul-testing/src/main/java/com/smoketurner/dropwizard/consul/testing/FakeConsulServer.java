@@ -0,0 +1,810 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.consul.testing;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+import com.google.common.net.HostAndPort;
+import com.orbitz.consul.Consul;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.dropwizard.jackson.Jackson;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+
+/**
+ * An embedded stand-in for a Consul agent, for tests and benchmarks. It implements the subset of
+ * the agent, health, catalog, status and KV HTTP APIs used by this bundle, including blocking
+ * queries ({@code index} and {@code wait} parameters with an {@code X-Consul-Index} header), and
+ * can inject latency and failures into every request.
+ *
+ * <p>All instances are registered on a single node in a single datacenter.
+ */
+public class FakeConsulServer implements Closeable {
+
+  public static final String DATACENTER = "dc1";
+  public static final String NODE = "fake";
+  public static final String NODE_ADDRESS = "127.0.0.1";
+
+  public static final String PASSING = "passing";
+  public static final String WARNING = "warning";
+  public static final String CRITICAL = "critical";
+
+  private static final String CHECK_PREFIX = "service:";
+  private static final long DEFAULT_WAIT_MS = TimeUnit.MINUTES.toMillis(5);
+
+  private final ObjectMapper mapper = Jackson.newObjectMapper();
+  private final ConcurrentNavigableMap<String, KeyValue> kv = new ConcurrentSkipListMap<>();
+  private final ConcurrentMap<String, Instance> services = new ConcurrentHashMap<>();
+  private final Set<String> unlisted = ConcurrentHashMap.newKeySet();
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+  private final AtomicLong requests = new AtomicLong();
+  private final AtomicInteger failNext = new AtomicInteger();
+  private final HttpServer server;
+
+  private volatile Map<String, String> nodeMeta = ImmutableMap.of();
+  private volatile long latencyMs = 0L;
+  private volatile double failureRate = 0.0;
+  private volatile long index = 1L;
+
+  /**
+   * Start a new server on an ephemeral port of the loopback interface
+   *
+   * @throws IOException if the server cannot be started
+   */
+  public FakeConsulServer() throws IOException {
+    server = HttpServer.create(new InetSocketAddress(NODE_ADDRESS, 0), 0);
+    server.createContext("/v1/", this::handle);
+    server.setExecutor(executor);
+    server.start();
+  }
+
+  /**
+   * Return the port the server is listening on
+   *
+   * @return listening port
+   */
+  public int getPort() {
+    return server.getAddress().getPort();
+  }
+
+  /**
+   * Return the host and port the server is listening on
+   *
+   * @return listening address
+   */
+  public HostAndPort getHostAndPort() {
+    return HostAndPort.fromParts(NODE_ADDRESS, getPort());
+  }
+
+  /**
+   * Build a Consul client connected to this server
+   *
+   * @return Consul client
+   */
+  public Consul newClient() {
+    return Consul.builder().withHostAndPort(getHostAndPort()).withPing(false).build();
+  }
+
+  /**
+   * Return the number of requests handled so far
+   *
+   * @return request count
+   */
+  public long getRequestCount() {
+    return requests.get();
+  }
+
+  /**
+   * Return the current Raft index, which is incremented by every write
+   *
+   * @return current index
+   */
+  public long getIndex() {
+    return index;
+  }
+
+  /**
+   * Delay every request by a fixed amount of time
+   *
+   * @param latency Injected latency
+   * @param unit Unit of the latency
+   */
+  public void setLatency(final long latency, final TimeUnit unit) {
+    this.latencyMs = unit.toMillis(latency);
+  }
+
+  /**
+   * Fail a random fraction of requests with a {@code 500 Internal Server Error}
+   *
+   * @param failureRate Fraction of requests to fail, between 0.0 and 1.0
+   */
+  public void setFailureRate(final double failureRate) {
+    this.failureRate = failureRate;
+  }
+
+  /**
+   * Fail the next requests with a {@code 500 Internal Server Error}
+   *
+   * @param count Number of requests to fail
+   */
+  public void failNextRequests(final int count) {
+    failNext.set(count);
+  }
+
+  /**
+   * Set the metadata of the node all instances are registered on
+   *
+   * @param meta Node metadata
+   */
+  public void setNodeMeta(final Map<String, String> meta) {
+    this.nodeMeta = ImmutableMap.copyOf(meta);
+    increment();
+  }
+
+  /**
+   * Store a value in the KV store
+   *
+   * @param key Key
+   * @param value Value
+   */
+  public void putValue(final String key, final String value) {
+    putValue(key, value.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Exclude a key from recursive reads and key listings, like an ACL that allows reading the key
+   * but not listing it. The key can still be read on its own.
+   *
+   * @param key Key
+   */
+  public void unlistValue(final String key) {
+    unlisted.add(key);
+  }
+
+  /**
+   * Delete a key from the KV store
+   *
+   * @param key Key
+   */
+  public void deleteValue(final String key) {
+    kv.remove(key);
+    increment();
+  }
+
+  /**
+   * Add a healthy instance of a service
+   *
+   * @param service Service name
+   * @param id Service ID
+   * @param address Service address
+   * @param port Service port
+   */
+  public void addService(
+      final String service, final String id, final String address, final int port) {
+    addService(service, id, address, port, ImmutableList.of(), ImmutableMap.of("scheme", "http"));
+  }
+
+  /**
+   * Add a healthy instance of a service
+   *
+   * @param service Service name
+   * @param id Service ID
+   * @param address Service address
+   * @param port Service port
+   * @param tags Service tags
+   * @param meta Service metadata
+   */
+  public void addService(
+      final String service,
+      final String id,
+      final String address,
+      final int port,
+      final Collection<String> tags,
+      final Map<String, String> meta) {
+    services.put(id, new Instance(id, service, address, port, tags, meta, PASSING));
+    increment();
+  }
+
+  /**
+   * Change the status of the health check of a service instance
+   *
+   * @param id Service ID
+   * @param status One of {@link #PASSING}, {@link #WARNING} or {@link #CRITICAL}
+   */
+  public void setServiceStatus(final String id, final String status) {
+    @Nullable final Instance instance = services.get(id);
+    if (instance != null) {
+      instance.status = Objects.requireNonNull(status);
+      increment();
+    }
+  }
+
+  /**
+   * Return the status of the health check of a service instance
+   *
+   * @param id Service ID
+   * @return status of the check, or null if the service is not registered
+   */
+  @Nullable
+  public String getServiceStatus(final String id) {
+    @Nullable final Instance instance = services.get(id);
+    return instance == null ? null : instance.status;
+  }
+
+  /**
+   * Return whether a service instance is registered
+   *
+   * @param id Service ID
+   * @return true if registered, otherwise false
+   */
+  public boolean isRegistered(final String id) {
+    return services.containsKey(id);
+  }
+
+  /**
+   * Remove a service instance
+   *
+   * @param id Service ID
+   */
+  public void removeService(final String id) {
+    services.remove(id);
+    increment();
+  }
+
+  /** Remove every registered service */
+  public void clearServices() {
+    services.clear();
+    increment();
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  private void putValue(final String key, final byte[] value) {
+    synchronized (this) {
+      final long modifyIndex = index + 1;
+      @Nullable final KeyValue existing = kv.get(key);
+      final long createIndex = existing == null ? modifyIndex : existing.createIndex;
+      kv.put(key, new KeyValue(value, createIndex, modifyIndex));
+      increment();
+    }
+  }
+
+  private synchronized void increment() {
+    index++;
+    notifyAll();
+  }
+
+  /**
+   * Wait until the index moves past the index of a blocking query, or the wait time elapses
+   *
+   * @param query Query parameters
+   * @return the current index
+   */
+  private synchronized long await(final Map<String, List<String>> query)
+      throws InterruptedException {
+    @Nullable final String requested = first(query, "index");
+    if (requested != null) {
+      final long deadline = System.currentTimeMillis() + parseWait(first(query, "wait"));
+      final long target = Long.parseLong(requested);
+      long remaining;
+      while (index <= target && (remaining = deadline - System.currentTimeMillis()) > 0) {
+        wait(remaining);
+      }
+    }
+    return index;
+  }
+
+  private boolean shouldFail() {
+    if (failNext.get() > 0 && failNext.getAndDecrement() > 0) {
+      return true;
+    }
+    return failureRate > 0.0 && ThreadLocalRandom.current().nextDouble() < failureRate;
+  }
+
+  private void handle(final HttpExchange exchange) throws IOException {
+    requests.incrementAndGet();
+    try {
+      if (latencyMs > 0) {
+        Thread.sleep(latencyMs);
+      }
+      if (shouldFail()) {
+        respond(exchange, 500, "injected failure");
+        return;
+      }
+
+      final String path = exchange.getRequestURI().getPath().substring("/v1/".length());
+      final Map<String, List<String>> query = parseQuery(exchange.getRequestURI().getRawQuery());
+      final String method = exchange.getRequestMethod();
+
+      if (path.startsWith("agent/")) {
+        handleAgent(exchange, path.substring("agent/".length()), query);
+      } else if (path.startsWith("health/service/")) {
+        final String service = path.substring("health/service/".length());
+        final long current = await(query);
+        respond(exchange, health(service, query), current);
+      } else if (path.startsWith("catalog/")) {
+        handleCatalog(exchange, path.substring("catalog/".length()), query);
+      } else if (path.startsWith("kv/")) {
+        handleKeyValue(exchange, method, path.substring("kv/".length()), query);
+      } else if (path.equals("status/leader")) {
+        respond(exchange, NODE_ADDRESS + ":8300", index);
+      } else if (path.equals("status/peers")) {
+        respond(exchange, ImmutableList.of(NODE_ADDRESS + ":8300"), index);
+      } else {
+        respond(exchange, 404, "unknown endpoint");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      respond(exchange, 500, "interrupted");
+    } catch (RuntimeException e) {
+      respond(exchange, 500, String.valueOf(e.getMessage()));
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private void handleAgent(
+      final HttpExchange exchange, final String path, final Map<String, List<String>> query)
+      throws IOException, InterruptedException {
+    if (path.equals("self")) {
+      respond(
+          exchange,
+          ImmutableMap.of(
+              "Config",
+              ImmutableMap.of("Datacenter", DATACENTER, "NodeName", NODE),
+              "Member",
+              ImmutableMap.of("Name", NODE, "Addr", NODE_ADDRESS)),
+          index);
+    } else if (path.equals("services")) {
+      final long current = await(query);
+      final Map<String, Object> agentServices = new TreeMap<>();
+      for (Instance instance : services.values()) {
+        agentServices.put(instance.id, instance.toService());
+      }
+      respond(exchange, agentServices, current);
+    } else if (path.equals("service/register")) {
+      register(
+          mapper.readValue(exchange.getRequestBody(), new TypeReference<Map<String, Object>>() {}));
+      respond(exchange, null, index);
+    } else if (path.startsWith("service/deregister/")) {
+      removeService(path.substring("service/deregister/".length()));
+      respond(exchange, null, index);
+    } else if (path.startsWith("service/maintenance/")) {
+      final String id = path.substring("service/maintenance/".length());
+      final boolean enable = Boolean.parseBoolean(first(query, "enable"));
+      @Nullable final Instance instance = services.get(id);
+      if (instance == null) {
+        respond(exchange, 404, "Unknown service ID");
+        return;
+      }
+      instance.maintenance = enable;
+      increment();
+      respond(exchange, null, index);
+    } else if (path.startsWith("check/")) {
+      final String[] parts = path.split("/", 3);
+      if (parts.length < 3 || !parts[2].startsWith(CHECK_PREFIX)) {
+        respond(exchange, 404, "Unknown check ID");
+        return;
+      }
+      final String id = parts[2].substring(CHECK_PREFIX.length());
+      if (!services.containsKey(id)) {
+        respond(exchange, 404, "Unknown check ID");
+        return;
+      }
+      switch (parts[1]) {
+        case "pass":
+          setServiceStatus(id, PASSING);
+          break;
+        case "warn":
+          setServiceStatus(id, WARNING);
+          break;
+        case "fail":
+          setServiceStatus(id, CRITICAL);
+          break;
+        default:
+          respond(exchange, 404, "unknown endpoint");
+          return;
+      }
+      respond(exchange, null, index);
+    } else {
+      respond(exchange, 404, "unknown endpoint");
+    }
+  }
+
+  private void handleCatalog(
+      final HttpExchange exchange, final String path, final Map<String, List<String>> query)
+      throws IOException, InterruptedException {
+    final long current = await(query);
+    if (path.equals("datacenters")) {
+      respond(exchange, ImmutableList.of(DATACENTER), current);
+    } else if (path.equals("nodes")) {
+      respond(exchange, ImmutableList.of(node()), current);
+    } else if (path.equals("services")) {
+      final Map<String, List<String>> names = new TreeMap<>();
+      for (Instance instance : services.values()) {
+        names.computeIfAbsent(instance.service, n -> new ArrayList<>()).addAll(instance.tags);
+      }
+      respond(exchange, names, current);
+    } else if (path.startsWith("service/")) {
+      final String service = path.substring("service/".length());
+      final List<Map<String, Object>> entries = new ArrayList<>();
+      if (matchesDatacenter(query)) {
+        for (Instance instance : services.values()) {
+          if (instance.service.equals(service) && matchesTags(instance, query)) {
+            entries.add(instance.toCatalogService());
+          }
+        }
+      }
+      respond(exchange, entries, current);
+    } else {
+      respond(exchange, 404, "unknown endpoint");
+    }
+  }
+
+  private void handleKeyValue(
+      final HttpExchange exchange,
+      final String method,
+      final String key,
+      final Map<String, List<String>> query)
+      throws IOException, InterruptedException {
+    if (method.equals("PUT")) {
+      putValue(key, ByteStreams.toByteArray(exchange.getRequestBody()));
+      respond(exchange, Boolean.TRUE, index);
+      return;
+    }
+    if (method.equals("DELETE")) {
+      if (query.containsKey("recurse")) {
+        kv.subMap(key, key + Character.MAX_VALUE).clear();
+      } else {
+        kv.remove(key);
+      }
+      increment();
+      respond(exchange, Boolean.TRUE, index);
+      return;
+    }
+
+    final long current = await(query);
+    final Map<String, KeyValue> matches = new TreeMap<>();
+    if (query.containsKey("recurse") || query.containsKey("keys")) {
+      matches.putAll(kv.subMap(key, key + Character.MAX_VALUE));
+      matches.keySet().removeAll(unlisted);
+    } else {
+      @Nullable final KeyValue value = kv.get(key);
+      if (value != null) {
+        matches.put(key, value);
+      }
+    }
+
+    if (matches.isEmpty()) {
+      respond(exchange, 404, null, current);
+    } else if (query.containsKey("keys")) {
+      respond(exchange, new ArrayList<>(matches.keySet()), current);
+    } else if (query.containsKey("raw")) {
+      respondRaw(exchange, matches.values().iterator().next().value, current);
+    } else {
+      final List<Map<String, Object>> values = new ArrayList<>();
+      matches.forEach((k, v) -> values.add(v.toJson(k)));
+      respond(exchange, values, current);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private void register(final Map<String, Object> registration) {
+    @Nullable final Object address = registration.get("Address");
+    @Nullable final Object port = registration.get("Port");
+    @Nullable final Object tags = registration.get("Tags");
+    @Nullable final Object meta = registration.get("Meta");
+    @Nullable final Object check = registration.get("Check");
+
+    // TTL checks start out critical until the first update, like a real agent
+    final String status =
+        check instanceof Map && ((Map<String, Object>) check).get("TTL") != null
+            ? CRITICAL
+            : PASSING;
+
+    final String name = String.valueOf(registration.get("Name"));
+    // the agent accepts both spellings of the ID, and the Java client sends "Id"
+    final String id =
+        String.valueOf(registration.getOrDefault("ID", registration.getOrDefault("Id", name)));
+    services.put(
+        id,
+        new Instance(
+            id,
+            name,
+            address == null ? "" : address.toString(),
+            port == null ? 0 : ((Number) port).intValue(),
+            tags == null ? ImmutableList.of() : (Collection<String>) tags,
+            meta == null ? ImmutableMap.of() : (Map<String, String>) meta,
+            status));
+    increment();
+  }
+
+  private List<Map<String, Object>> health(
+      final String service, final Map<String, List<String>> query) {
+    final List<Map<String, Object>> instances = new ArrayList<>();
+    if (!matchesDatacenter(query) || !matchesNodeMeta(query)) {
+      return instances;
+    }
+    final boolean passing = query.containsKey("passing");
+    for (Instance instance : services.values()) {
+      if (!instance.service.equals(service) || !matchesTags(instance, query)) {
+        continue;
+      }
+      if (passing && !PASSING.equals(instance.effectiveStatus())) {
+        continue;
+      }
+      final Map<String, Object> health = new LinkedHashMap<>();
+      health.put("Node", node());
+      health.put("Service", instance.toService());
+      health.put("Checks", ImmutableList.of(instance.toCheck()));
+      instances.add(health);
+    }
+    return instances;
+  }
+
+  private boolean matchesDatacenter(final Map<String, List<String>> query) {
+    @Nullable final String dc = first(query, "dc");
+    return dc == null || DATACENTER.equals(dc);
+  }
+
+  private boolean matchesNodeMeta(final Map<String, List<String>> query) {
+    for (String pair : query.getOrDefault("node-meta", ImmutableList.of())) {
+      final int separator = pair.indexOf(':');
+      if (separator < 0
+          || !pair.substring(separator + 1).equals(nodeMeta.get(pair.substring(0, separator)))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean matchesTags(
+      final Instance instance, final Map<String, List<String>> query) {
+    return instance.tags.containsAll(query.getOrDefault("tag", ImmutableList.of()));
+  }
+
+  private Map<String, Object> node() {
+    final Map<String, Object> node = new LinkedHashMap<>();
+    node.put("ID", "00000000-0000-0000-0000-000000000000");
+    node.put("Node", NODE);
+    node.put("Address", NODE_ADDRESS);
+    node.put("Datacenter", DATACENTER);
+    node.put("TaggedAddresses", ImmutableMap.of("lan", NODE_ADDRESS, "wan", NODE_ADDRESS));
+    node.put("Meta", nodeMeta);
+    return node;
+  }
+
+  private void respond(final HttpExchange exchange, final int status, @Nullable final String body)
+      throws IOException {
+    respondBytes(
+        exchange,
+        status,
+        body == null ? new byte[0] : body.getBytes(StandardCharsets.UTF_8),
+        "text/plain",
+        index);
+  }
+
+  private void respond(final HttpExchange exchange, @Nullable final Object body, final long index)
+      throws IOException {
+    respond(exchange, 200, body, index);
+  }
+
+  private void respond(
+      final HttpExchange exchange, final int status, @Nullable final Object body, final long index)
+      throws IOException {
+    final byte[] bytes = body == null ? new byte[0] : mapper.writeValueAsBytes(body);
+    respondBytes(exchange, status, bytes, "application/json", index);
+  }
+
+  private void respondRaw(final HttpExchange exchange, final byte[] body, final long index)
+      throws IOException {
+    respondBytes(exchange, 200, body, "application/octet-stream", index);
+  }
+
+  private static void respondBytes(
+      final HttpExchange exchange,
+      final int status,
+      final byte[] bytes,
+      final String contentType,
+      final long index)
+      throws IOException {
+    exchange.getResponseHeaders().set("Content-Type", contentType);
+    exchange.getResponseHeaders().set("X-Consul-Index", String.valueOf(index));
+    exchange.getResponseHeaders().set("X-Consul-Lastcontact", "0");
+    exchange.getResponseHeaders().set("X-Consul-Knownleader", "true");
+    exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+    if (bytes.length > 0) {
+      try (OutputStream output = exchange.getResponseBody()) {
+        output.write(bytes);
+      }
+    }
+  }
+
+  @Nullable
+  private static String first(final Map<String, List<String>> query, final String name) {
+    final List<String> values = query.get(name);
+    return values == null || values.isEmpty() ? null : values.get(0);
+  }
+
+  private static Map<String, List<String>> parseQuery(@Nullable final String rawQuery) {
+    final Map<String, List<String>> query = new HashMap<>();
+    if (rawQuery == null || rawQuery.isEmpty()) {
+      return query;
+    }
+    for (String param : rawQuery.split("&")) {
+      final int separator = param.indexOf('=');
+      final String name = separator < 0 ? param : param.substring(0, separator);
+      final String value = separator < 0 ? "" : param.substring(separator + 1);
+      query.computeIfAbsent(decode(name), n -> new ArrayList<>()).add(decode(value));
+    }
+    return query;
+  }
+
+  private static String decode(final String value) {
+    try {
+      return URLDecoder.decode(value, StandardCharsets.UTF_8.name());
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static long parseWait(@Nullable final String wait) {
+    if (wait == null || wait.isEmpty()) {
+      return DEFAULT_WAIT_MS;
+    }
+    if (wait.endsWith("ms")) {
+      return Long.parseLong(wait.substring(0, wait.length() - 2));
+    }
+    final long amount = Long.parseLong(wait.substring(0, wait.length() - 1));
+    return wait.endsWith("m")
+        ? TimeUnit.MINUTES.toMillis(amount)
+        : TimeUnit.SECONDS.toMillis(amount);
+  }
+
+  private static final class KeyValue {
+    private final byte[] value;
+    private final long createIndex;
+    private final long modifyIndex;
+
+    KeyValue(final byte[] value, final long createIndex, final long modifyIndex) {
+      this.value = value;
+      this.createIndex = createIndex;
+      this.modifyIndex = modifyIndex;
+    }
+
+    Map<String, Object> toJson(final String key) {
+      final Map<String, Object> entry = new LinkedHashMap<>();
+      entry.put("LockIndex", 0);
+      entry.put("Key", key);
+      entry.put("Flags", 0);
+      entry.put("Value", Base64.getEncoder().encodeToString(value));
+      entry.put("CreateIndex", createIndex);
+      entry.put("ModifyIndex", modifyIndex);
+      return entry;
+    }
+  }
+
+  private final class Instance {
+    private final String id;
+    private final String service;
+    private final String address;
+    private final int port;
+    private final List<String> tags;
+    private final Map<String, String> meta;
+    private volatile String status;
+    private volatile boolean maintenance = false;
+
+    Instance(
+        final String id,
+        final String service,
+        final String address,
+        final int port,
+        final Collection<String> tags,
+        final Map<String, String> meta,
+        final String status) {
+      this.id = id;
+      this.service = service;
+      this.address = address;
+      this.port = port;
+      this.tags = ImmutableList.copyOf(tags);
+      this.meta = ImmutableMap.copyOf(meta);
+      this.status = status;
+    }
+
+    String effectiveStatus() {
+      return maintenance ? CRITICAL : status;
+    }
+
+    Map<String, Object> toService() {
+      final Map<String, Object> entry = new LinkedHashMap<>();
+      entry.put("ID", id);
+      entry.put("Service", service);
+      entry.put("Tags", tags);
+      entry.put("Address", address);
+      entry.put("Meta", meta);
+      entry.put("Port", port);
+      entry.put("Weights", ImmutableMap.of("Passing", 1, "Warning", 1));
+      entry.put("EnableTagOverride", false);
+      return entry;
+    }
+
+    Map<String, Object> toCatalogService() {
+      final Map<String, Object> entry = new LinkedHashMap<>();
+      entry.put("Node", NODE);
+      entry.put("Address", NODE_ADDRESS);
+      entry.put("Datacenter", DATACENTER);
+      entry.put("TaggedAddresses", ImmutableMap.of("lan", NODE_ADDRESS, "wan", NODE_ADDRESS));
+      entry.put("NodeMeta", nodeMeta);
+      entry.put("ServiceID", id);
+      entry.put("ServiceName", service);
+      entry.put("ServiceTags", tags);
+      entry.put("ServiceAddress", address);
+      entry.put("ServiceMeta", meta);
+      entry.put("ServicePort", port);
+      entry.put("ServiceWeights", ImmutableMap.of("Passing", 1, "Warning", 1));
+      entry.put("ServiceEnableTagOverride", false);
+      return entry;
+    }
+
+    Map<String, Object> toCheck() {
+      final Map<String, Object> check = new LinkedHashMap<>();
+      check.put("Node", NODE);
+      check.put("CheckID", CHECK_PREFIX + id);
+      check.put("Name", "Service '" + service + "' check");
+      check.put("Status", effectiveStatus());
+      check.put("Notes", "");
+      check.put("Output", "");
+      check.put("ServiceID", id);
+      check.put("ServiceName", service);
+      check.put("ServiceTags", tags);
+      return check;
+    }
+  }
+}